@@ -0,0 +1,219 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Complete, deterministic state of a simulation at the end of a tick. A
+ * simulation restored from a checkpoint continues exactly as the original
+ * would have: unit columns are stored bit for bit, including every unit's
+ * random stream key, the tick random numbers are drawn for and the id
+ * bookkeeping, and the spatial index is rebuilt in bulk. Threads and the
+ * interaction pass are not part of the state, since they do not change
+ * the outcome of a tick.
+ *
+ * Layout, little-endian: magic, version and a reserved short, tick, field
+ * width and height, the two think intervals, then the spatial index as a
+ * kind byte and its parameters, the team colors as a count and RGB
+ * values, the relation of every pair of those teams as a byte, and
+ * finally the unit store as written by {@link UnitStore}. Only
+ * simulations of soldiers on a quadtree or uniform grid can be
+ * checkpointed.
+ */
+public final class Checkpoint {
+    private static final int MAGIC = 0x54504B43; // "CKPT" in little-endian byte order
+    private static final short VERSION = 4; // 2: random streams, 3: team relations, 4: think intervals
+    private static final byte QUADTREE = 1;
+    private static final byte GRID = 2;
+    private static final int HEADER_BYTES = 4 + 2 + 2 + 8 + 4 + 4 + 4 + 4;
+    private static final int INDEX_BYTES = 1 + 7 * 4; // Kind and the larger parameter set
+
+    private final SimulationManager simManager;
+    private final long tick;
+
+    private Checkpoint(SimulationManager simManager, long tick) {
+        this.simManager = simManager;
+        this.tick = tick;
+    }
+
+    /**
+     * Saves the state of a simulation into a new buffer.
+     *
+     * @param simManager The simulation, not ticking while it is saved
+     * @param tick Number of ticks the simulation has run
+     * @return The checkpoint, positioned at its start
+     */
+    public static ByteBuffer save(SimulationManager simManager, long tick) {
+        Color[] palette = UnitStore.teamPalette();
+        UnitStore store = simManager.getUnitStore();
+        int bytes = HEADER_BYTES + INDEX_BYTES + 4 + 4 * palette.length + palette.length * palette.length
+            + store.checkpointSize();
+        ByteBuffer out = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.putShort((short) 0);
+        out.putLong(tick);
+        out.putInt(simManager.getWidth());
+        out.putInt(simManager.getHeight());
+        out.putInt(simManager.getThinkScheduler().getInterval());
+        out.putInt(simManager.getThinkScheduler().getEngagedInterval());
+        writeIndex(simManager.getSpatialIndex(), out);
+        out.putInt(palette.length);
+        for (Color color : palette) {
+            out.putInt(color.getRGB());
+        }
+        TeamRelations relations = simManager.getTeamRelations();
+        for (int a = 0; a < palette.length; a++) {
+            for (int b = 0; b < palette.length; b++) {
+                out.put((byte) relations.get(a, b).ordinal());
+            }
+        }
+        store.writeCheckpoint(out);
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Saves the state of a simulation to a file, replacing any existing one.
+     *
+     * @param path File to write
+     * @param simManager The simulation, not ticking while it is saved
+     * @param tick Number of ticks the simulation has run
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(Path path, SimulationManager simManager, long tick) throws IOException {
+        ByteBuffer checkpoint = save(simManager, tick);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (checkpoint.hasRemaining()) {
+                channel.write(checkpoint);
+            }
+        }
+    }
+
+    /**
+     * Restores a simulation from a saved checkpoint. Restoring the same
+     * checkpoint twice forks the run into independent copies.
+     *
+     * @param in Buffer positioned at the checkpoint
+     * @return The restored simulation and its tick
+     * @throws IllegalArgumentException If the buffer does not hold a supported checkpoint
+     */
+    public static Checkpoint restore(ByteBuffer in) {
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a checkpoint");
+        }
+        short version = in.getShort();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported checkpoint version " + version);
+        }
+        in.getShort();
+        long tick = in.getLong();
+        int width = in.getInt();
+        int height = in.getInt();
+        ThinkScheduler scheduler = new ThinkScheduler(in.getInt(), in.getInt());
+        SimulationManager simManager = new SimulationManager(width, height, readIndex(in));
+        simManager.setThinkScheduler(scheduler);
+
+        int[] teamIds = new int[in.getInt()];
+        for (int t = 0; t < teamIds.length; t++) {
+            teamIds[t] = UnitStore.teamOf(new Color(in.getInt(), true));
+        }
+        TeamRelations.Relation[] relations = TeamRelations.Relation.values();
+        for (int a = 0; a < teamIds.length; a++) {
+            for (int b = 0; b < teamIds.length; b++) {
+                TeamRelations.Relation relation = relations[in.get()];
+                // Only changed pairs are set, so default relations keep unfiltered queries
+                if (relation != (a == b ? TeamRelations.Relation.ALLY : TeamRelations.Relation.ENEMY)) {
+                    simManager.getTeamRelations().set(teamIds[a], teamIds[b], relation);
+                }
+            }
+        }
+        simManager.restoreUnits(in, teamIds);
+        return new Checkpoint(simManager, tick);
+    }
+
+    /**
+     * Restores a simulation from a checkpoint file, reading it through a
+     * memory mapping.
+     *
+     * @param path The checkpoint file
+     * @return The restored simulation and its tick
+     * @throws IOException If the file cannot be read or is not a supported checkpoint
+     */
+    public static Checkpoint read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return restore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Cannot restore " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeIndex(SpatialIndex index, ByteBuffer out) {
+        int start = out.position();
+        if (index instanceof QuadtreeNode) {
+            QuadtreeNode tree = (QuadtreeNode) index;
+            out.put(QUADTREE);
+            out.putFloat(tree.getX());
+            out.putFloat(tree.getY());
+            out.putFloat(tree.getWidth());
+            out.putFloat(tree.getHeight());
+            out.putInt(tree.getMaxObjects());
+            out.putInt(tree.getMaxDepth());
+            out.putFloat(tree.getLooseness());
+        } else if (index instanceof UniformGrid) {
+            UniformGrid grid = (UniformGrid) index;
+            out.put(GRID);
+            out.putFloat(grid.getOriginX());
+            out.putFloat(grid.getOriginY());
+            out.putFloat(grid.getWidth());
+            out.putFloat(grid.getHeight());
+            out.putFloat(grid.getCellSize());
+        } else {
+            throw new IllegalArgumentException("Cannot checkpoint spatial index " + index.getClass().getName());
+        }
+        out.position(start + INDEX_BYTES);
+    }
+
+    private static SpatialIndex readIndex(ByteBuffer in) {
+        int start = in.position();
+        byte kind = in.get();
+        float x = in.getFloat();
+        float y = in.getFloat();
+        float width = in.getFloat();
+        float height = in.getFloat();
+        SpatialIndex index;
+        if (kind == QUADTREE) {
+            int maxObjects = in.getInt();
+            int maxDepth = in.getInt();
+            index = new QuadtreeNode(x, y, width, height, maxObjects, maxDepth, 0, in.getFloat());
+        } else if (kind == GRID) {
+            index = new UniformGrid(x, y, width, height, in.getFloat());
+        } else {
+            throw new IllegalArgumentException("Unknown spatial index kind " + kind);
+        }
+        in.position(start + INDEX_BYTES);
+        return index;
+    }
+
+    /**
+     * @return The restored simulation
+     */
+    public SimulationManager getSimulationManager() {
+        return simManager;
+    }
+
+    /**
+     * @return Number of ticks the simulation had run when it was saved
+     */
+    public long getTick() {
+        return tick;
+    }
+}
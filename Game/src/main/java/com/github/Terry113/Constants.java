@@ -9,6 +9,18 @@ public class Constants {
     public static final int DETECTION_RADIUS = 50;
     public static final float STEERING_DAMPING = 0.1f; // Damping factor for steering
     
+    // Simulation loop constants
+    public static final int TICKS_PER_SECOND = 60; // Simulation rate when running on its own thread
+    public static final int REPAINT_INTERVAL_MS = 16; // Delay between repaints of the window
+    public static final int REPLAY_KEYFRAME_INTERVAL = 60; // Most recorded ticks from one replay keyframe to the next
+    
+    // Rendering constants
+    public static final int LOD_UNIT_SIZE = 3; // On-screen unit size in pixels below which density is drawn instead
+    public static final float ZOOM_STEP = 1.1f; // Scale factor per mouse wheel notch
+    
+    // Parallel tick constants
+    public static final int PARALLEL_CHUNK_SIZE = 512; // Units per work-stealing chunk in parallel ticks
+    
     // Field constants
     public static final int FIELD_WIDTH = 800;
     public static final int FIELD_HEIGHT = 600;
@@ -16,4 +28,6 @@ public class Constants {
     // Quadtree constants
     public static final int QUADTREE_MAX_DEPTH = 4; // Maximum depth of quadtree
     public static final int QUADTREE_MAX_OBJECTS = 4; // Maximum objects per node before splitting
+    public static final float QUADTREE_REBUILD_THRESHOLD = 0.5f; // Fraction of units changing node before a full rebuild is cheaper
+    public static final float QUADTREE_LOOSENESS = 1.0f; // Factor enlarging node bounds, 1 for a regular quadtree
 }
\ No newline at end of file
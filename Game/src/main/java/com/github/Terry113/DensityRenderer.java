@@ -0,0 +1,80 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * Draws a snapshot as unit density instead of individual units, for views
+ * zoomed out so far that single units could not be made out. Every region
+ * of the spatial index that holds units, a quadtree leaf or a grid cell, is
+ * filled with the color of its dominant team, mixed with white for sparse
+ * regions. The counts come from the index, so the cost depends on the
+ * number of regions and the pixels they cover, not on the number of units.
+ */
+public class DensityRenderer {
+    private static final float MIN_WEIGHT = 0.25f; // Team color weight of the sparsest region
+
+    /**
+     * Fills the regions of a snapshot into the pixels of an integer RGB image.
+     *
+     * @param target Pixels of a TYPE_INT_RGB image, row by row
+     * @param width Width of the image
+     * @param height Height of the image
+     * @param clipX Left edge of the area to draw into
+     * @param clipY Top edge of the area to draw into
+     * @param clipWidth Width of the area to draw into
+     * @param clipHeight Height of the area to draw into
+     * @param snapshot The snapshot to draw
+     * @param scale Image pixels per simulation unit
+     */
+    public static void draw(int[] target, int width, int height, int clipX, int clipY, int clipWidth, int clipHeight,
+            RenderSnapshot snapshot, float scale) {
+        int minX = Math.max(clipX, 0);
+        int minY = Math.max(clipY, 0);
+        int maxX = Math.min(clipX + clipWidth, width);
+        int maxY = Math.min(clipY + clipHeight, height);
+        int regions = snapshot.getRegionCount();
+        float[] bounds = snapshot.regionBounds;
+        int[] counts = snapshot.regionCounts;
+
+        // Shade relative to the densest region, so crowds stand out at any unit count
+        float maxDensity = 0;
+        for (int i = 0; i < regions; i++) {
+            maxDensity = Math.max(maxDensity, counts[i] / (bounds[i * 4 + 2] * bounds[i * 4 + 3]));
+        }
+
+        int white = Color.WHITE.getRGB();
+        for (int i = 0; i < regions; i++) {
+            int team = snapshot.regionTeams[i];
+            if (counts[i] == 0 || team < 0) {
+                continue;
+            }
+            int left = Math.max((int) (bounds[i * 4] * scale), minX);
+            int top = Math.max((int) (bounds[i * 4 + 1] * scale), minY);
+            int right = Math.min((int) ((bounds[i * 4] + bounds[i * 4 + 2]) * scale), maxX);
+            int bottom = Math.min((int) ((bounds[i * 4 + 1] + bounds[i * 4 + 3]) * scale), maxY);
+            if (left >= right || top >= bottom) {
+                continue;
+            }
+
+            float density = counts[i] / (bounds[i * 4 + 2] * bounds[i * 4 + 3]) / maxDensity;
+            int rgb = blend(white, snapshot.getTeamColor(team).getRGB(), MIN_WEIGHT + (1 - MIN_WEIGHT) * density);
+            for (int row = top; row < bottom; row++) {
+                Arrays.fill(target, row * width + left, row * width + right, rgb);
+            }
+        }
+    }
+
+    /**
+     * @param from RGB color at weight 0
+     * @param to RGB color at weight 1
+     * @param weight Weight of the second color, from 0 to 1
+     * @return The opaque mix of the two colors
+     */
+    static int blend(int from, int to, float weight) {
+        int red = (int) (((from >> 16) & 0xFF) + (((to >> 16) & 0xFF) - ((from >> 16) & 0xFF)) * weight);
+        int green = (int) (((from >> 8) & 0xFF) + (((to >> 8) & 0xFF) - ((from >> 8) & 0xFF)) * weight);
+        int blue = (int) ((from & 0xFF) + ((to & 0xFF) - (from & 0xFF)) * weight);
+        return 0xFF000000 | red << 16 | green << 8 | blue;
+    }
+}
@@ -0,0 +1,387 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the simulation without a window, for batch servers and benchmarking.
+ * Ticks are driven in a fixed-timestep loop, either as fast as possible or
+ * at a target rate, and throughput and tick latency are reported at the end.
+ *
+ * Usage: HeadlessRunner [--units N] [--seed S] [--width W] [--height H]
+ *        [--ticks T] [--rate HZ] [--threads N] [--index quadtree|loose|grid]
+ *        [--record FILE] [--scenario FILE] [--interactions queries|pairs]
+ *        [--think N] [--regions CxR] [--distribute CxR]
+ *
+ * With --record, every tick is written to a replay file that can be played
+ * back with SimulationApp --replay FILE. With --scenario, the field, index
+ * and units come from a {@link Scenario} file instead of the other options.
+ * The time from start to the end of the first tick is reported either way.
+ * With --interactions pairs, soldiers sense through the pairwise pass
+ * instead of one nearest query each. With --think N, idle and wandering
+ * soldiers sense every N ticks and chasing or fleeing ones about twice as
+ * often (see {@link ThinkScheduler}). With --regions CxR, the field is
+ * split into C by R regions that tick side by side on the threads (see
+ * {@link RegionedWorld}); regions always use quadtrees and nearest queries
+ * and cannot be recorded. With --distribute CxR, each region runs in a
+ * worker process of its own, started by this one, and ticks in lock-step
+ * through a {@link RegionCoordinator}.
+ */
+public class HeadlessRunner {
+    private static final Color[] TEAM_COLORS = { Color.RED, Color.BLUE, Color.GREEN };
+    private static final float LOOSENESS = 1.5f; // Node enlargement for --index loose
+
+    private int unitCount = 1000;
+    private long seed = 1;
+    private int width = Constants.FIELD_WIDTH;
+    private int height = Constants.FIELD_HEIGHT;
+    private int ticks = 1000;
+    private double rate = 0; // Target ticks per second, 0 for unthrottled
+    private int threads = 1;
+    private String index = "quadtree";
+    private String recordPath; // Replay file to write, or null
+    private String scenarioPath; // Scenario file to load, or null to generate units
+    private boolean pairwise; // Whether to sense with the pairwise interaction pass
+    private int thinkInterval = 1; // Ticks between thinks of idle and wandering soldiers
+    private int regionColumns; // Regions across with --regions or --distribute, 0 for a single simulation
+    private int regionRows;
+    private boolean distribute; // Whether regions run in worker processes
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        HeadlessRunner runner = new HeadlessRunner();
+        try {
+            runner.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: HeadlessRunner [--units N] [--seed S] [--width W] [--height H]"
+                + " [--ticks T] [--rate HZ] [--threads N] [--index quadtree|loose|grid] [--record FILE]"
+                + " [--scenario FILE] [--interactions queries|pairs] [--think N] [--regions CxR]"
+                + " [--distribute CxR]");
+            System.exit(2);
+        }
+        try {
+            runner.run();
+        } catch (IOException e) {
+            System.err.println("I/O failed: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads command-line options into this runner.
+     *
+     * @param args The command-line arguments
+     */
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--units":
+                        unitCount = Integer.parseInt(value);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "--width":
+                        width = Integer.parseInt(value);
+                        break;
+                    case "--height":
+                        height = Integer.parseInt(value);
+                        break;
+                    case "--ticks":
+                        ticks = Integer.parseInt(value);
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "--index":
+                        if (!value.equals("quadtree") && !value.equals("loose") && !value.equals("grid")) {
+                            throw new IllegalArgumentException("Unknown index: " + value);
+                        }
+                        index = value;
+                        break;
+                    case "--record":
+                        recordPath = value;
+                        break;
+                    case "--scenario":
+                        scenarioPath = value;
+                        break;
+                    case "--interactions":
+                        if (!value.equals("queries") && !value.equals("pairs")) {
+                            throw new IllegalArgumentException("Unknown interactions: " + value);
+                        }
+                        pairwise = value.equals("pairs");
+                        break;
+                    case "--think":
+                        thinkInterval = Integer.parseInt(value);
+                        if (thinkInterval < 1) {
+                            throw new IllegalArgumentException("Invalid think interval: " + value);
+                        }
+                        break;
+                    case "--regions":
+                    case "--distribute":
+                        distribute = option.equals("--distribute");
+                        String[] grid = value.split("x");
+                        if (grid.length != 2) {
+                            throw new IllegalArgumentException("Invalid region grid: " + value);
+                        }
+                        regionColumns = Integer.parseInt(grid[0]);
+                        regionRows = Integer.parseInt(grid[1]);
+                        if (regionColumns < 1 || regionRows < 1) {
+                            throw new IllegalArgumentException("Invalid region grid: " + value);
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+            }
+        }
+        if (regionColumns > 0 && (recordPath != null || scenarioPath != null || pairwise
+                || !index.equals("quadtree"))) {
+            throw new IllegalArgumentException("--regions and --distribute cannot be combined with --record,"
+                + " --scenario, --interactions pairs or --index");
+        }
+    }
+
+    /**
+     * Builds the simulation, runs all ticks and prints the report.
+     */
+    private void run() throws IOException {
+        if (distribute) {
+            runDistributed();
+            return;
+        }
+        if (regionColumns > 0) {
+            runRegions();
+            return;
+        }
+        long loadStart = System.nanoTime();
+        SimulationManager simManager;
+        if (scenarioPath != null) {
+            simManager = Scenario.read(Paths.get(scenarioPath)).createSimulation();
+            simManager.setThreadCount(threads);
+        } else {
+            simManager = createSimulation();
+        }
+        simManager.setPairwiseInteractions(pairwise);
+        simManager.setThinkScheduler(new ThinkScheduler(thinkInterval, (thinkInterval + 1) / 2));
+        long loaded = System.nanoTime();
+        ReplayRecorder recorder = recordPath != null ? new ReplayRecorder(Paths.get(recordPath), simManager) : null;
+        if (recorder != null) {
+            recorder.record(simManager, 0);
+        }
+        long[] latencies = new long[ticks];
+        long period = rate > 0 ? (long) (1_000_000_000L / rate) : 0;
+
+        long start = System.nanoTime();
+        long nextTick = start;
+        for (int tick = 0; tick < ticks; tick++) {
+            nextTick = waitForSlot(nextTick, period);
+            long tickStart = System.nanoTime();
+            simManager.update();
+            latencies[tick] = System.nanoTime() - tickStart;
+            if (tick == 0) {
+                System.out.printf("units=%d load=%.1fms time-to-first-tick=%.1fms%n", simManager.getUnits().size(),
+                    (loaded - loadStart) / 1e6, (System.nanoTime() - loadStart) / 1e6);
+            }
+            if (recorder != null) {
+                recorder.record(simManager, tick + 1);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (recorder != null) {
+            recorder.close();
+            System.out.printf("recorded %s: %d bytes%n", recordPath, recorder.getSize());
+        }
+
+        report(simManager.getUnits().size(), latencies, elapsed);
+        if (SimulationMetrics.ENABLED) {
+            System.out.print(SimulationMetrics.snapshot());
+        }
+    }
+
+    /**
+     * Builds a world split into regions, runs all ticks and prints the report.
+     */
+    private void runRegions() {
+        long loadStart = System.nanoTime();
+        RegionedWorld world = new RegionedWorld(width, height, regionColumns, regionRows);
+        world.setThreadCount(threads);
+        world.setThinkScheduler(new ThinkScheduler(thinkInterval, (thinkInterval + 1) / 2));
+        world.addSoldiers(createBatch());
+        long loaded = System.nanoTime();
+        long[] latencies = new long[ticks];
+        long period = rate > 0 ? (long) (1_000_000_000L / rate) : 0;
+
+        long start = System.nanoTime();
+        long nextTick = start;
+        for (int tick = 0; tick < ticks; tick++) {
+            nextTick = waitForSlot(nextTick, period);
+            long tickStart = System.nanoTime();
+            world.update();
+            latencies[tick] = System.nanoTime() - tickStart;
+            if (tick == 0) {
+                System.out.printf("units=%d regions=%dx%d load=%.1fms time-to-first-tick=%.1fms%n", world.size(),
+                    regionColumns, regionRows, (loaded - loadStart) / 1e6, (System.nanoTime() - loadStart) / 1e6);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        report(world.size(), latencies, elapsed);
+        if (SimulationMetrics.ENABLED) {
+            System.out.print(SimulationMetrics.snapshot());
+        }
+    }
+
+    /**
+     * Starts a worker process per region, runs all ticks through a
+     * coordinator and prints the report.
+     */
+    private void runDistributed() throws IOException {
+        long loadStart = System.nanoTime();
+        RegionCoordinator coordinator = new RegionCoordinator(width, height, regionColumns, regionRows);
+        Process[] processes = new Process[regionColumns * regionRows];
+        try {
+            for (int i = 0; i < processes.length; i++) {
+                processes[i] = RegionWorker.launch(coordinator.getAddress());
+            }
+            coordinator.connect(createBatch(), new ThinkScheduler(thinkInterval, (thinkInterval + 1) / 2));
+            long loaded = System.nanoTime();
+            long[] latencies = new long[ticks];
+            long period = rate > 0 ? (long) (1_000_000_000L / rate) : 0;
+
+            long start = System.nanoTime();
+            long nextTick = start;
+            for (int tick = 0; tick < ticks; tick++) {
+                nextTick = waitForSlot(nextTick, period);
+                long tickStart = System.nanoTime();
+                coordinator.update(false);
+                latencies[tick] = System.nanoTime() - tickStart;
+                if (tick == 0) {
+                    System.out.printf("units=%d workers=%dx%d load=%.1fms time-to-first-tick=%.1fms%n",
+                        coordinator.size(), regionColumns, regionRows, (loaded - loadStart) / 1e6,
+                        (System.nanoTime() - loadStart) / 1e6);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            report(coordinator.size(), latencies, elapsed);
+        } finally {
+            coordinator.close();
+            for (Process process : processes) {
+                if (process != null) {
+                    try {
+                        process.waitFor();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        process.destroy();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the slot of the next tick when running at a target rate. A
+     * late tick runs immediately without skipping.
+     *
+     * @param nextTick Start time of the next tick's slot in nanoseconds
+     * @param period Nanoseconds between ticks, 0 for unthrottled
+     * @return Start time of the slot after it
+     */
+    private static long waitForSlot(long nextTick, long period) {
+        if (period == 0) {
+            return nextTick;
+        }
+        long wait = nextTick - System.nanoTime();
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+        return nextTick + period;
+    }
+
+    /**
+     * @return A simulation with units spread uniformly over the field
+     */
+    private SimulationManager createSimulation() {
+        SpatialIndex spatialIndex;
+        if (index.equals("grid")) {
+            spatialIndex = new UniformGrid(width, height);
+        } else if (index.equals("loose")) {
+            spatialIndex = new QuadtreeNode(0, 0, width, height, LOOSENESS);
+        } else {
+            spatialIndex = new QuadtreeNode(0, 0, width, height);
+        }
+        SimulationManager simManager = new SimulationManager(width, height, spatialIndex);
+        simManager.setThreadCount(threads);
+        simManager.addSoldiers(createBatch());
+        return simManager;
+    }
+
+    /**
+     * @return Soldiers spread uniformly over the field
+     */
+    private SoldierBatch createBatch() {
+        Random random = new Random(seed);
+        SoldierBatch batch = new SoldierBatch(unitCount);
+        for (int i = 0; i < unitCount; i++) {
+            float angle = random.nextFloat() * (float) (Math.PI * 2);
+            batch.add(
+                random.nextFloat() * width,
+                random.nextFloat() * height,
+                (float) Math.cos(angle), (float) Math.sin(angle), angle,
+                TEAM_COLORS[i % TEAM_COLORS.length], 10, random.nextLong());
+        }
+        return batch;
+    }
+
+    /**
+     * Prints throughput and latency figures for a finished run.
+     *
+     * @param units Number of simulated units
+     * @param latencies Duration of every tick in nanoseconds
+     * @param elapsed Wall-clock duration of the whole run in nanoseconds
+     */
+    private static void report(int units, long[] latencies, long elapsed) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        double seconds = elapsed / 1e9;
+        double ticksPerSecond = latencies.length / seconds;
+        System.out.printf("units=%d ticks=%d elapsed=%.3fs%n", units, latencies.length, seconds);
+        System.out.printf("ticks/sec=%.1f%n", ticksPerSecond);
+        System.out.printf("tick p50=%.3fms p99=%.3fms max=%.3fms%n",
+            percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6,
+            sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+        System.out.printf("unit-ticks/sec=%.0f%n", ticksPerSecond * units);
+    }
+
+    /**
+     * @param sorted Values in ascending order
+     * @param quantile Quantile between 0 and 1
+     * @return The nearest-rank percentile, or 0 for no values
+     */
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
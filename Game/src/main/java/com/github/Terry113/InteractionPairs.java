@@ -0,0 +1,325 @@
+package com.github.Terry113;
+
+import java.util.Arrays;
+
+/**
+ * Finds the nearest unit every unit reacts to, allied or hostile, by
+ * enumerating unordered pairs of units instead of running one nearest
+ * query per unit. Each pair is tested at most once, and both of its units
+ * update their candidates from the same distance. Ties are broken by unit
+ * id, as in {@link NeighborSearch}, so the outcome matches per-unit
+ * queries.
+ *
+ * Units are binned into square cells sized for a few units each, but no
+ * wider than the detection radius (plus a hair, so rounding while binning
+ * cannot separate a pair in range by one cell too many). Every cell is
+ * paired with itself and with the neighbors in one half-plane around it,
+ * nearest offsets first: the touching neighbors always, farther ones only
+ * while the gap between the two cells is within the distance to the
+ * current candidate of some unit in either cell. In dense crowds the
+ * candidates are found in the touching cells and nearly all farther cell
+ * pairs are skipped.
+ *
+ * Only units thinking on the tick (see {@link ThinkScheduler}) look for a
+ * candidate; the others still serve as candidates, but pairs of units that
+ * both skip the tick and cells without a thinking unit are left out.
+ */
+class InteractionPairs {
+    private static final float SLACK = 1.001f; // Cell and ring enlargement absorbing binning rounding
+    private static final float UNITS_PER_CELL = 3; // Target density of the cells
+    private static final int MAX_RINGS = 8; // Cells are never smaller than the radius over this
+
+    private final int width;
+    private final int height;
+    private final float radius;
+    private int layoutCount = -1; // Unit count the cell layout was chosen for
+    private int columns;
+    private int rows;
+    private float inverseCell; // Reciprocal of the cell size
+    private int[] offsetX = new int[0]; // Neighbor offsets in the half-plane, nearest first
+    private int[] offsetY = new int[0];
+    private float[] offsetGap = new float[0]; // Squared smallest distance between cells at each offset
+    private int touching; // Number of leading offsets whose cells touch
+    private int[] cellStart = new int[1]; // Cell -> offset of its first unit in sorted order, plus an end sentinel
+    private int[] cellCursor = new int[0]; // Scatter position per cell while sorting
+    private float[] cellBound = new float[0]; // Cell -> largest squared candidate distance among its units
+    private int[] cellThinkers = new int[0]; // Cell -> number of its units thinking on the tick
+    private int[] cellOf = new int[0]; // Slot -> cell
+    private int[] sortedSlot = new int[0]; // Slots in cell order
+    private float[] sortedX = new float[0]; // Positions in cell order
+    private float[] sortedY = new float[0];
+    private int[] sortedTeam = new int[0]; // Teams in cell order
+    private int[] nearest = new int[0]; // Sorted position -> slot of its candidate, -1 for none
+    private float[] nearestDistance = new float[0]; // Sorted position -> squared candidate distance, -1 if not thinking
+    private int[] nearestOfSlot = new int[0]; // Slot -> slot of its nearest unit, -1 for none
+
+    /**
+     * @param width Width of the simulation area
+     * @param height Height of the simulation area
+     * @param radius Detection radius
+     */
+    InteractionPairs(int width, int height, float radius) {
+        this.width = width;
+        this.height = height;
+        this.radius = radius;
+    }
+
+    /**
+     * Finds the nearest unit each unit in a store reacts to.
+     *
+     * @param store The units, already moved for this tick
+     * @param relations How teams regard each other
+     * @param scheduler Which units think on the store's current tick
+     * @param count Number of slots in use
+     */
+    void find(UnitStore store, TeamRelations relations, ThinkScheduler scheduler, int count) {
+        long start = SimulationMetrics.ENABLED ? System.nanoTime() : 0;
+        float radiusSquared = radius * radius;
+        layout(count);
+        sort(store, scheduler, count, radiusSquared);
+        Arrays.fill(nearest, 0, count, -1);
+
+        // Pairs within each cell and with the touching neighbors
+        long tested = 0;
+        int cells = columns * rows;
+        for (int cell = 0; cell < cells; cell++) {
+            if (cellThinkers[cell] == 0) {
+                continue;
+            }
+            int from = cellStart[cell];
+            int to = cellStart[cell + 1];
+            for (int a = from; a < to; a++) {
+                for (int b = a + 1; b < to; b++) {
+                    pair(store, relations, a, b, radiusSquared);
+                }
+            }
+            tested += (long) (to - from) * (to - from - 1) / 2;
+        }
+        int visited = cells;
+        for (int o = 0; o < touching; o++) {
+            tested += pairOffset(store, relations, o, radiusSquared, false);
+            visited += cells;
+        }
+
+        // Farther neighbors, skipped where no unit of either cell can find a closer candidate
+        if (touching < offsetX.length) {
+            for (int cell = 0; cell < cells; cell++) {
+                float bound = -1;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    bound = Math.max(bound, nearestDistance[k]);
+                }
+                cellBound[cell] = bound;
+            }
+            for (int o = touching; o < offsetX.length; o++) {
+                tested += pairOffset(store, relations, o, radiusSquared, true);
+                visited += cells;
+            }
+        }
+
+        for (int k = 0; k < count; k++) {
+            nearestOfSlot[sortedSlot[k]] = nearest[k];
+        }
+
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.countNodeVisits(visited, (int) Math.min(tested, Integer.MAX_VALUE));
+            SimulationMetrics.addChunkTime(SimulationMetrics.Phase.INTERACTIONS, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Pairs every cell with its neighbor at one offset.
+     *
+     * @param o Index of the offset
+     * @param prune Whether to skip cell pairs farther apart than both cells' bounds
+     * @return Number of pairs tested
+     */
+    private long pairOffset(UnitStore store, TeamRelations relations, int o, float radiusSquared,
+            boolean prune) {
+        int dx = offsetX[o];
+        int dy = offsetY[o];
+        float gap = offsetGap[o];
+        long tested = 0;
+        for (int row = 0; row + dy < rows; row++) {
+            int fromColumn = Math.max(0, -dx);
+            int toColumn = Math.min(columns, columns - dx);
+            for (int column = fromColumn; column < toColumn; column++) {
+                int cell = row * columns + column;
+                int from = cellStart[cell];
+                int to = cellStart[cell + 1];
+                if (from == to) {
+                    continue;
+                }
+                int other = cell + dy * columns + dx;
+                int otherFrom = cellStart[other];
+                int otherTo = cellStart[other + 1];
+                if (otherFrom == otherTo || cellThinkers[cell] + cellThinkers[other] == 0
+                        || prune && gap > cellBound[cell] && gap > cellBound[other]) {
+                    continue;
+                }
+                for (int a = from; a < to; a++) {
+                    for (int b = otherFrom; b < otherTo; b++) {
+                        pair(store, relations, a, b, radiusSquared);
+                    }
+                }
+                tested += (long) (to - from) * (otherTo - otherFrom);
+            }
+        }
+        return tested;
+    }
+
+    /**
+     * Tests one pair of units, given by their sorted positions, and updates
+     * the candidates of those thinking if they are in range and not neutral.
+     */
+    private void pair(UnitStore store, TeamRelations relations, int a, int b, float radiusSquared) {
+        float dx = sortedX[a] - sortedX[b];
+        float dy = sortedY[a] - sortedY[b];
+        float distanceSquared = dx * dx + dy * dy;
+        if (distanceSquared > radiusSquared
+                || distanceSquared > nearestDistance[a] && distanceSquared > nearestDistance[b]) {
+            return;
+        }
+        if (relations.get(sortedTeam[a], sortedTeam[b]) == TeamRelations.Relation.NEUTRAL) {
+            return;
+        }
+        offer(store, a, sortedSlot[b], distanceSquared);
+        offer(store, b, sortedSlot[a], distanceSquared);
+    }
+
+    /**
+     * Makes a unit the candidate of another if it is closer than the
+     * current one, or as close with a lower id. Units not thinking never
+     * take a candidate, since no distance beats their -1.
+     *
+     * @param k Sorted position of the unit whose candidate may change
+     * @param candidate Slot of the candidate
+     */
+    private void offer(UnitStore store, int k, int candidate, float distanceSquared) {
+        int current = nearest[k];
+        if (distanceSquared < nearestDistance[k] || distanceSquared == nearestDistance[k]
+                && (current < 0 || store.getId(candidate) < store.getId(current))) {
+            nearest[k] = candidate;
+            nearestDistance[k] = distanceSquared;
+        }
+    }
+
+    /**
+     * Chooses the cell size for a unit count and the neighbor offsets that
+     * go with it. The layout is kept while the count stays within a factor
+     * of two.
+     */
+    private void layout(int count) {
+        if (layoutCount >= 0 && count <= layoutCount * 2 && count >= layoutCount / 2) {
+            return;
+        }
+        layoutCount = count;
+        float widest = radius * SLACK;
+        float cellSize = (float) Math.sqrt((double) width * height * UNITS_PER_CELL / Math.max(count, 1));
+        cellSize = Math.min(Math.max(cellSize, widest / MAX_RINGS), widest);
+        columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        inverseCell = 1f / cellSize;
+        int cells = columns * rows;
+        cellStart = new int[cells + 1];
+        cellCursor = new int[cells];
+        cellBound = new float[cells];
+        cellThinkers = new int[cells];
+
+        // Offsets after the cell in row-major order whose cells can hold a pair in range
+        int rings = (int) Math.ceil(widest / cellSize);
+        int side = 2 * rings + 1;
+        int[] xs = new int[side * side];
+        int[] ys = new int[side * side];
+        float[] gaps = new float[side * side];
+        Integer[] order = new Integer[side * side];
+        int n = 0;
+        for (int dy = 0; dy <= rings; dy++) {
+            for (int dx = -rings; dx <= rings; dx++) {
+                if (dy == 0 && dx <= 0) {
+                    continue;
+                }
+                float gapX = Math.max(0, Math.abs(dx) - 1) * cellSize;
+                float gapY = Math.max(0, dy - 1) * cellSize;
+                float gap = gapX * gapX + gapY * gapY;
+                if (gap <= widest * widest) {
+                    xs[n] = dx;
+                    ys[n] = dy;
+                    gaps[n] = gap;
+                    order[n] = n;
+                    n++;
+                }
+            }
+        }
+        Arrays.sort(order, 0, n, (i, j) -> Float.compare(gaps[i], gaps[j]));
+        offsetX = new int[n];
+        offsetY = new int[n];
+        offsetGap = new float[n];
+        touching = 0;
+        for (int i = 0; i < n; i++) {
+            offsetX[i] = xs[order[i]];
+            offsetY[i] = ys[order[i]];
+            offsetGap[i] = gaps[order[i]];
+            if (offsetGap[i] == 0) {
+                touching++;
+            }
+        }
+    }
+
+    /**
+     * Sorts the slots by cell with a counting sort, copying positions and
+     * teams into cell order for the pair loops, and sets the starting
+     * candidate distances.
+     */
+    private void sort(UnitStore store, ThinkScheduler scheduler, int count, float radiusSquared) {
+        if (sortedSlot.length < count) {
+            int capacity = Math.max(count, sortedSlot.length * 2);
+            cellOf = new int[capacity];
+            sortedSlot = new int[capacity];
+            sortedX = new float[capacity];
+            sortedY = new float[capacity];
+            sortedTeam = new int[capacity];
+            nearest = new int[capacity];
+            nearestDistance = new float[capacity];
+            nearestOfSlot = new int[capacity];
+        }
+
+        Arrays.fill(cellStart, 0);
+        Arrays.fill(cellThinkers, 0);
+        float[] x = store.x;
+        float[] y = store.y;
+        for (int i = 0; i < count; i++) {
+            int column = Math.min(Math.max((int) (x[i] * inverseCell), 0), columns - 1);
+            int row = Math.min(Math.max((int) (y[i] * inverseCell), 0), rows - 1);
+            int cell = row * columns + column;
+            cellOf[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        int cells = columns * rows;
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        System.arraycopy(cellStart, 0, cellCursor, 0, cells);
+        int[] team = store.team;
+        for (int i = 0; i < count; i++) {
+            int k = cellCursor[cellOf[i]]++;
+            sortedSlot[k] = i;
+            sortedX[k] = x[i];
+            sortedY[k] = y[i];
+            sortedTeam[k] = team[i];
+            if (scheduler.thinks(store, i)) {
+                nearestDistance[k] = radiusSquared;
+                cellThinkers[cellOf[i]]++;
+            } else {
+                nearestDistance[k] = -1;
+            }
+        }
+    }
+
+    /**
+     * @param slot A slot handled by the last {@link #find}
+     * @return Slot of the nearest unit the unit reacts to, or -1 if none is in range
+     */
+    int nearest(int slot) {
+        return nearestOfSlot[slot];
+    }
+}
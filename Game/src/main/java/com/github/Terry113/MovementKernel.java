@@ -0,0 +1,80 @@
+package com.github.Terry113;
+
+/**
+ * Movement step of soldiers over plain arrays: steering toward the target,
+ * the speed limit, the position update and the bounce off the field edges
+ * in one pass. The loop body reads and writes only slot i of each array,
+ * has no calls besides square roots and keeps its conditions to selects
+ * between computed values, so the JIT compiles it to straight-line code
+ * and may vectorize it.
+ *
+ * Facing angles are not computed here; they follow from the velocity and
+ * are only worked out when drawn or recorded (see
+ * {@link UnitStore#angleOf}).
+ */
+final class MovementKernel {
+    private static final float MAX_SPEED = 2.0f;
+    private static final byte IDLE_ORDINAL = (byte) Soldier.State.IDLE.ordinal();
+
+    /**
+     * Moves the soldiers in the slot range [from, to).
+     *
+     * @param x X positions
+     * @param y Y positions
+     * @param vx X velocities
+     * @param vy Y velocities
+     * @param targetX X coordinates of the movement targets
+     * @param targetY Y coordinates of the movement targets
+     * @param state Soldier state ordinals
+     * @param from First slot to move
+     * @param to Slot after the last one to move
+     * @param bounded Whether to keep the soldiers inside the field
+     * @param width Width of the field
+     * @param height Height of the field
+     */
+    static void move(float[] x, float[] y, float[] vx, float[] vy, float[] targetX, float[] targetY,
+            byte[] state, int from, int to, boolean bounded, float width, float height) {
+        float damping = Constants.STEERING_DAMPING;
+        for (int i = from; i < to; i++) {
+            float px = x[i];
+            float py = y[i];
+            float u = vx[i];
+            float v = vy[i];
+
+            // Idle soldiers slow down, the others steer toward their target unless already close
+            float dx = targetX[i] - px;
+            float dy = targetY[i] - py;
+            float distanceSquared = dx * dx + dy * dy;
+            float distance = (float) Math.sqrt(distanceSquared);
+            boolean idle = state[i] == IDLE_ORDINAL;
+            boolean steer = !idle && distanceSquared > 25;
+            u = steer ? u + (dx / distance - u) * damping : idle ? u * 0.9f : u;
+            v = steer ? v + (dy / distance - v) * damping : idle ? v * 0.9f : v;
+
+            // Limit speed
+            float speed = (float) Math.sqrt(u * u + v * v);
+            boolean fast = speed > MAX_SPEED;
+            u = fast ? u * MAX_SPEED / speed : u;
+            v = fast ? v * MAX_SPEED / speed : v;
+
+            // Update position
+            px += u;
+            py += v;
+
+            // Bounce off the field edges with damping
+            if (bounded) {
+                boolean outX = px < 0 || px > width;
+                boolean outY = py < 0 || py > height;
+                px = px < 0 ? 0 : px > width ? width : px;
+                py = py < 0 ? 0 : py > height ? height : py;
+                u = outX ? -u * 0.5f : u;
+                v = outY ? -v * 0.5f : v;
+            }
+
+            x[i] = px;
+            y[i] = py;
+            vx[i] = u;
+            vy[i] = v;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.github.Terry113;
+
+import java.util.Arrays;
+
+/**
+ * Reusable state for k-nearest-neighbor queries. A search object is owned
+ * by the caller and passed to {@link SpatialIndex#nearest}, so repeated
+ * queries do not allocate; each thread needs its own instance.
+ *
+ * While a query runs, the results form a max-heap on squared distance so
+ * the current k-th best distance, used to prune the index, is always at the
+ * top. When the query finishes the results are sorted nearest first.
+ * Units at the same distance are ordered by id, so the results depend only
+ * on unit positions, never on the order in which the index visits them.
+ */
+public class NeighborSearch {
+    private int k;
+    private Unit[] units; // Results, with room for at least k
+    private float[] distancesSquared;
+    private int count;
+
+    // Query parameters
+    private float x, y;
+    private float radiusSquared;
+    private Unit exclude;
+    private long teams; // Mask of the teams whose units count, see TeamRelations.teamBit
+
+    // Min-heap of index nodes still to visit, ordered by their distance to the query point
+    private QuadtreeNode[] nodes = new QuadtreeNode[16];
+    private float[] nodeDistances = new float[16];
+    private int nodeCount;
+
+    /**
+     * Creates a search for up to k neighbors.
+     *
+     * @param k Maximum number of neighbors to find
+     */
+    public NeighborSearch(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        this.k = k;
+        this.units = new Unit[k];
+        this.distancesSquared = new float[k];
+    }
+
+    /**
+     * Changes how many neighbors later queries find. The result arrays are
+     * kept while they are large enough, so going back and forth between
+     * sizes does not allocate.
+     *
+     * @param k Maximum number of neighbors to find
+     */
+    void setK(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        if (k > units.length) {
+            Arrays.fill(units, 0, count, null);
+            count = 0;
+            int capacity = Math.max(k, units.length * 2);
+            units = new Unit[capacity];
+            distancesSquared = new float[capacity];
+        }
+        this.k = k;
+    }
+
+    /**
+     * Starts a new query, discarding previous results.
+     *
+     * @param x X coordinate of the query point
+     * @param y Y coordinate of the query point
+     * @param radius Maximum distance of a neighbor
+     * @param exclude Unit to leave out of the results, or null
+     * @param teams Mask of the teams whose units count, -1 for all
+     */
+    void begin(float x, float y, float radius, Unit exclude, long teams) {
+        Arrays.fill(units, 0, count, null);
+        this.count = 0;
+        this.nodeCount = 0;
+        this.x = x;
+        this.y = y;
+        this.radiusSquared = radius * radius;
+        this.exclude = exclude;
+        this.teams = teams;
+    }
+
+    /**
+     * @return Squared distance a candidate must not exceed to be useful
+     */
+    float bound() {
+        return count < k ? radiusSquared : distancesSquared[0];
+    }
+
+    float getQueryX() {
+        return x;
+    }
+
+    float getQueryY() {
+        return y;
+    }
+
+    /**
+     * @return Mask of the teams whose units count in the current query
+     */
+    long getTeams() {
+        return teams;
+    }
+
+    /**
+     * Considers a candidate at its current position.
+     *
+     * @param unit The candidate
+     * @return true if the candidate was kept
+     */
+    boolean offer(Unit unit) {
+        if (unit == exclude) {
+            return false;
+        }
+        return offer(unit, Util.getDistanceSquared(unit.getX(), unit.getY(), x, y));
+    }
+
+    /**
+     * Considers a candidate at a known squared distance.
+     *
+     * @param unit The candidate
+     * @param distanceSquared Squared distance from the query point
+     * @return true if the candidate was kept
+     */
+    boolean offer(Unit unit, float distanceSquared) {
+        if (unit == exclude || distanceSquared > radiusSquared) {
+            return false;
+        }
+        if (teams != -1L && (TeamRelations.teamBit(unit.store.team[unit.index]) & teams) == 0) {
+            return false;
+        }
+        if (count < k) {
+            // Sift the new entry up the max-heap
+            int i = count++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (farther(distancesSquared[parent], units[parent], distanceSquared, unit)) {
+                    break;
+                }
+                units[i] = units[parent];
+                distancesSquared[i] = distancesSquared[parent];
+                i = parent;
+            }
+            units[i] = unit;
+            distancesSquared[i] = distanceSquared;
+            return true;
+        }
+        if (!farther(distancesSquared[0], units[0], distanceSquared, unit)) {
+            return false;
+        }
+        // Replace the farthest entry and sift it down
+        siftDown(0, count, unit, distanceSquared);
+        return true;
+    }
+
+    /**
+     * Places an entry at position i of the max-heap of the given size and
+     * moves it down until the heap order holds again.
+     */
+    private void siftDown(int i, int size, Unit unit, float distanceSquared) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && farther(distancesSquared[child + 1], units[child + 1],
+                    distancesSquared[child], units[child])) {
+                child++;
+            }
+            if (!farther(distancesSquared[child], units[child], distanceSquared, unit)) {
+                break;
+            }
+            units[i] = units[child];
+            distancesSquared[i] = distancesSquared[child];
+            i = child;
+        }
+        units[i] = unit;
+        distancesSquared[i] = distanceSquared;
+    }
+
+    /**
+     * @return true if the first entry ranks behind the second, by distance and then by id
+     */
+    private static boolean farther(float distanceSquared, Unit unit, float otherDistanceSquared, Unit other) {
+        if (distanceSquared != otherDistanceSquared) {
+            return distanceSquared > otherDistanceSquared;
+        }
+        return unit.getId() > other.getId();
+    }
+
+    /**
+     * Sorts the results nearest first once the query is done.
+     */
+    void finish() {
+        // Heap sort: repeatedly move the farthest entry behind the shrinking heap
+        for (int end = count - 1; end > 0; end--) {
+            Unit farthest = units[0];
+            float farthestDistance = distancesSquared[0];
+            siftDown(0, end, units[end], distancesSquared[end]);
+            units[end] = farthest;
+            distancesSquared[end] = farthestDistance;
+        }
+        Arrays.fill(nodes, 0, nodeCount, null);
+        nodeCount = 0;
+    }
+
+    /**
+     * Queues an index node for a best-first visit.
+     *
+     * @param node The node
+     * @param distanceSquared Squared distance from the query point to the node's bounds
+     */
+    void pushNode(QuadtreeNode node, float distanceSquared) {
+        if (nodeCount == nodes.length) {
+            nodes = Arrays.copyOf(nodes, nodeCount * 2);
+            nodeDistances = Arrays.copyOf(nodeDistances, nodeCount * 2);
+        }
+        int i = nodeCount++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (nodeDistances[parent] <= distanceSquared) {
+                break;
+            }
+            nodes[i] = nodes[parent];
+            nodeDistances[i] = nodeDistances[parent];
+            i = parent;
+        }
+        nodes[i] = node;
+        nodeDistances[i] = distanceSquared;
+    }
+
+    /**
+     * @return true if queued nodes remain
+     */
+    boolean hasNodes() {
+        return nodeCount > 0;
+    }
+
+    /**
+     * @return Squared distance of the closest queued node
+     */
+    float peekNodeDistance() {
+        return nodeDistances[0];
+    }
+
+    /**
+     * Removes and returns the closest queued node.
+     *
+     * @return The node
+     */
+    QuadtreeNode popNode() {
+        QuadtreeNode top = nodes[0];
+        int last = --nodeCount;
+        QuadtreeNode moved = nodes[last];
+        float movedDistance = nodeDistances[last];
+        nodes[last] = null;
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= last) {
+                break;
+            }
+            if (child + 1 < last && nodeDistances[child + 1] < nodeDistances[child]) {
+                child++;
+            }
+            if (nodeDistances[child] >= movedDistance) {
+                break;
+            }
+            nodes[i] = nodes[child];
+            nodeDistances[i] = nodeDistances[child];
+            i = child;
+        }
+        if (last > 0) {
+            nodes[i] = moved;
+            nodeDistances[i] = movedDistance;
+        }
+        return top;
+    }
+
+    /**
+     * @return Number of neighbors found by the last query
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param i Rank of the neighbor, 0 being the nearest
+     * @return The neighbor
+     */
+    public Unit get(int i) {
+        return units[i];
+    }
+
+    /**
+     * @param i Rank of the neighbor, 0 being the nearest
+     * @return Squared distance to the neighbor
+     */
+    public float getDistanceSquared(int i) {
+        return distancesSquared[i];
+    }
+
+    /**
+     * @return The nearest neighbor found by the last query, or null
+     */
+    public Unit nearest() {
+        return count > 0 ? units[0] : null;
+    }
+}
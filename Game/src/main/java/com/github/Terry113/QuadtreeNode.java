@@ -2,20 +2,49 @@ package com.github.Terry113;
 
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Implements a quadtree spatial partitioning data structure for efficient 
  * spatial queries of units in the simulation.
+ * 
+ * Each node covers [minX, maxX) x [minY, maxY), split exactly at its
+ * midpoint. Nodes on the right or bottom edge of the root also include that
+ * edge, so a unit clamped onto the far border of the field is still inside
+ * the tree and every point of the root belongs to exactly one leaf.
+ * 
+ * In a loose quadtree (looseness above 1) every node's bounds are enlarged
+ * by that factor around its center. Units are still placed by the exact
+ * bounds, but a unit only leaves its node once it moves outside the loose
+ * bounds, so small per-tick movements rarely restructure the tree. Queries
+ * prune with the loose bounds.
+ * 
+ * Every node keeps a mask of the teams present in its subtree, so nearest
+ * queries restricted to some teams skip subtrees holding none of them.
  */
-public class QuadtreeNode {
-    private int x, y; // Top-left corner of this quadrant
-    private int width, height; // Dimensions of this quadrant
-    private List<Unit> units; // Units within this quadrant
+public class QuadtreeNode implements SpatialIndex {
+    private final float minX, minY, maxX, maxY; // Exact bounds of this quadrant
+    private final float midX, midY; // Where this quadrant splits into children
+    private final float looseMinX, looseMinY, looseMaxX, looseMaxY; // Bounds enlarged by the looseness
+    private final boolean closedRight, closedBottom; // Whether maxX and maxY are inside this quadrant
+    private final float looseness; // Factor enlarging node bounds, 1 for a regular quadtree
+    private ArrayList<Unit> units; // Units within this quadrant, sized to the root's listCapacity
     private QuadtreeNode[] children; // Child quadrants
     private int maxObjects; // Max units before splitting
     private int maxDepth; // Maximum depth of the tree
     private int depth; // Current depth of this node
+    private QuadtreeNode parent; // Enclosing node, null for the root
+    private int count; // Units in this node and all of its descendants
+    private QuadtreeNode[] spareChildren; // Children kept from the last merge, reused on the next split
+    private ArrayList<Unit> pending; // Units detached during a refresh, created on the root when first needed
+    private BulkBuffers bulk; // Root only: partitioning space for rebuilds, created when first needed
+    private long structureVersion; // Root only: bumped whenever a node is split or merged
+    private long contentVersion; // Root only: bumped whenever a unit enters or leaves a node
+    private int listCapacity; // Root only: capacity of every node's list, doubled when one outgrows it
+    private int[] teamCounts = new int[0]; // Team id -> units of that team in this node's own list
+    private int[] subtreeTeamCounts = new int[0]; // Team id -> units of that team in this subtree
+    private long subtreeTeams; // Mask of the teams in this subtree, see TeamRelations.teamBit
     
     /**
      * Creates a new quadtree node.
@@ -28,16 +57,25 @@ public class QuadtreeNode {
      * @param maxDepth Maximum depth of the tree
      * @param depth Current depth of this node
      */
-    public QuadtreeNode(int x, int y, int width, int height, int maxObjects, int maxDepth, int depth) {
-        this.x = x;
-        this.y = y;
-        this.width = width;
-        this.height = height;
-        this.maxObjects = maxObjects;
-        this.maxDepth = maxDepth;
-        this.depth = depth;
-        this.units = new ArrayList<>();
-        this.children = null; // Children created only when needed
+    public QuadtreeNode(float x, float y, float width, float height, int maxObjects, int maxDepth, int depth) {
+        this(x, y, width, height, maxObjects, maxDepth, depth, Constants.QUADTREE_LOOSENESS);
+    }
+    
+    /**
+     * Creates a new, possibly loose, quadtree node.
+     * 
+     * @param x X coordinate of top-left corner
+     * @param y Y coordinate of top-left corner
+     * @param width Width of this quadrant
+     * @param height Height of this quadrant
+     * @param maxObjects Maximum number of objects before splitting
+     * @param maxDepth Maximum depth of the tree
+     * @param depth Current depth of this node
+     * @param looseness Factor enlarging node bounds, at least 1
+     */
+    public QuadtreeNode(float x, float y, float width, float height, int maxObjects, int maxDepth, int depth,
+            float looseness) {
+        this(null, x, y, x + width, y + height, true, true, maxObjects, maxDepth, depth, looseness);
     }
     
     /**
@@ -48,27 +86,89 @@ public class QuadtreeNode {
      * @param width Width of this quadrant
      * @param height Height of this quadrant
      */
-    public QuadtreeNode(int x, int y, int width, int height) {
+    public QuadtreeNode(float x, float y, float width, float height) {
         this(x, y, width, height, Constants.QUADTREE_MAX_OBJECTS, Constants.QUADTREE_MAX_DEPTH, 0);
     }
+    
+    /**
+     * Constructor for a loose quadtree with default values from Constants.
+     * 
+     * @param x X coordinate of top-left corner
+     * @param y Y coordinate of top-left corner
+     * @param width Width of this quadrant
+     * @param height Height of this quadrant
+     * @param looseness Factor enlarging node bounds, at least 1
+     */
+    public QuadtreeNode(float x, float y, float width, float height, float looseness) {
+        this(x, y, width, height, Constants.QUADTREE_MAX_OBJECTS, Constants.QUADTREE_MAX_DEPTH, 0, looseness);
+    }
+    
+    private QuadtreeNode(QuadtreeNode parent, float minX, float minY, float maxX, float maxY,
+            boolean closedRight, boolean closedBottom, int maxObjects, int maxDepth, int depth, float looseness) {
+        if (!(looseness >= 1)) {
+            throw new IllegalArgumentException("Looseness must be at least 1: " + looseness);
+        }
+        this.parent = parent;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.midX = minX + (maxX - minX) * 0.5f;
+        this.midY = minY + (maxY - minY) * 0.5f;
+        float marginX = (maxX - minX) * (looseness - 1) * 0.5f;
+        float marginY = (maxY - minY) * (looseness - 1) * 0.5f;
+        this.looseMinX = minX - marginX;
+        this.looseMinY = minY - marginY;
+        this.looseMaxX = maxX + marginX;
+        this.looseMaxY = maxY + marginY;
+        this.closedRight = closedRight;
+        this.closedBottom = closedBottom;
+        this.looseness = looseness;
+        this.maxObjects = maxObjects;
+        this.maxDepth = maxDepth;
+        this.depth = depth;
+        if (parent == null) {
+            this.listCapacity = Math.max(maxObjects + 1, 10);
+        }
+        this.units = new ArrayList<>(root().listCapacity);
+        this.children = null; // Children created only when needed
+    }
 
     /**
-     * Subdivides this node into four equal quadrants.
+     * Subdivides this node into four quadrants meeting at its midpoint.
      */
     private void subdivide() {
-        int halfWidth = this.width / 2;
-        int halfHeight = this.height / 2;
+        if (spareChildren != null) {
+            children = spareChildren;
+            spareChildren = null;
+            return;
+        }
+        
         int nextDepth = this.depth + 1;
 
+        // Children share the exact midpoint, so there is no gap or overlap between them
         children = new QuadtreeNode[4];
         // Top-left
-        children[0] = new QuadtreeNode(x, y, halfWidth, halfHeight, maxObjects, maxDepth, nextDepth);
+        children[0] = new QuadtreeNode(this, minX, minY, midX, midY,
+            false, false, maxObjects, maxDepth, nextDepth, looseness);
         // Top-right
-        children[1] = new QuadtreeNode(x + halfWidth, y, halfWidth, halfHeight, maxObjects, maxDepth, nextDepth);
+        children[1] = new QuadtreeNode(this, midX, minY, maxX, midY,
+            closedRight, false, maxObjects, maxDepth, nextDepth, looseness);
         // Bottom-left
-        children[2] = new QuadtreeNode(x, y + halfHeight, halfWidth, halfHeight, maxObjects, maxDepth, nextDepth);
+        children[2] = new QuadtreeNode(this, minX, midY, midX, maxY,
+            false, closedBottom, maxObjects, maxDepth, nextDepth, looseness);
         // Bottom-right
-        children[3] = new QuadtreeNode(x + halfWidth, y + halfHeight, halfWidth, halfHeight, maxObjects, maxDepth, nextDepth);
+        children[3] = new QuadtreeNode(this, midX, midY, maxX, maxY,
+            closedRight, closedBottom, maxObjects, maxDepth, nextDepth, looseness);
+    }
+
+    /**
+     * @param x X coordinate of a point inside this quadrant
+     * @param y Y coordinate of a point inside this quadrant
+     * @return The child quadrant containing the point
+     */
+    private QuadtreeNode childFor(float x, float y) {
+        return children[quadrantOf(x, y)];
     }
 
     /**
@@ -77,58 +177,378 @@ public class QuadtreeNode {
      * @param unit The unit to insert
      * @return true if insertion was successful, false otherwise
      */
+    @Override
     public boolean insert(Unit unit) {
+        float ux = unit.getX();
+        float uy = unit.getY();
         // If the unit does not belong in this quadrant
-        if (!belongsToQuadrant(unit.getX(), unit.getY())) {
+        if (!belongsToQuadrant(ux, uy)) {
             return false;
         }
+        
+        // Descend to the leaf containing the unit, counting it on the way
+        int team = unit.store.team[unit.index];
+        QuadtreeNode node = this;
+        while (node.children != null) {
+            node.count++;
+            node.countSubtreeTeam(team, 1);
+            node = node.childFor(ux, uy);
+        }
+        node.count++;
+        node.countSubtreeTeam(team, 1);
+        node.addLocal(unit);
+        
+        // Check if we need to split
+        if (node.units.size() > node.maxObjects && node.depth < node.maxDepth) {
+            node.split();
+        }
+        return true;
+    }
+
+    /**
+     * Creates the children of this leaf and moves its units down into them.
+     * In a loose tree, a unit that has drifted past the loose bounds of the
+     * child it falls in stays in this node until it is next relocated.
+     */
+    private void split() {
+        QuadtreeNode root = root();
+        root.structureVersion++;
+        root.contentVersion++;
+        subdivide();
+        int remaining = 0;
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            float ux = unit.getX();
+            float uy = unit.getY();
+            QuadtreeNode child = childFor(ux, uy);
+            if (child.looselyContains(ux, uy)) {
+                child.count++;
+                child.countSubtreeTeam(unit.store.team[unit.index], 1);
+                child.addLocal(unit);
+                countTeam(unit, -1);
+            } else {
+                units.set(remaining++, unit);
+            }
+        }
+        for (int i = units.size() - 1; i >= remaining; i--) {
+            units.remove(i);
+        }
+        
+        // A child that received every unit may need to split again
+        for (QuadtreeNode child : children) {
+            if (child.units.size() > maxObjects && child.depth < maxDepth) {
+                child.split();
+            }
+        }
+    }
+
+    /**
+     * Removes a unit from the quadtree using its current position.
+     * 
+     * @param unit The unit to remove
+     * @return true if the unit was found and removed, false otherwise
+     */
+    public boolean remove(Unit unit) {
+        return remove(unit, unit.getX(), unit.getY());
+    }
+
+    /**
+     * Removes a unit that was inserted at the given position. Nodes whose
+     * subtree drops under the split threshold are merged back into their parent.
+     * 
+     * @param unit The unit to remove
+     * @param x X coordinate the unit was inserted at
+     * @param y Y coordinate the unit was inserted at
+     * @return true if the unit was found and removed, false otherwise
+     */
+    @Override
+    public boolean remove(Unit unit, float x, float y) {
+        QuadtreeNode node = findNode(unit, x, y);
+        if (node == null) {
+            return false;
+        }
+        node.removeLocal(unit);
+        int team = unit.store.team[unit.index];
+        for (QuadtreeNode n = node; n != null; n = n.parent) {
+            n.count--;
+            n.countSubtreeTeam(team, -1);
+        }
+        node.mergeUpward();
+        return true;
+    }
+
+    /**
+     * Moves a unit from its previous position to its current one. A unit
+     * that is still inside the (loose) bounds of its leaf is left untouched;
+     * otherwise it is taken out and inserted again from the root.
+     * 
+     * The other units are expected to be where the tree last saw them, since
+     * reinserting can split a leaf; use {@link #refresh} after moving many
+     * units at once.
+     * 
+     * @param unit The unit that moved
+     * @param oldX X coordinate the unit was inserted at
+     * @param oldY Y coordinate the unit was inserted at
+     * @return true if the unit changed node, false if it stayed in place
+     */
+    @Override
+    public boolean relocate(Unit unit, float oldX, float oldY) {
+        if (!detach(unit, oldX, oldY)) {
+            return false;
+        }
+        // If the unit left the root it stays out of the tree, like a failed insert
+        insert(unit);
+        return true;
+    }
 
-        // If this node has children, try to insert into them
+    /**
+     * Takes a moved unit out of the tree unless it still fits its node.
+     * Detaching never splits nodes, so the remaining units stay findable
+     * by their old positions.
+     * 
+     * @param unit The unit that moved
+     * @param oldX X coordinate the unit was inserted at
+     * @param oldY Y coordinate the unit was inserted at
+     * @return true if the unit needs to be inserted again
+     */
+    private boolean detach(Unit unit, float oldX, float oldY) {
+        QuadtreeNode node = findNode(unit, oldX, oldY);
+        if (node == null) {
+            // Unit was not tracked (e.g. it was outside the root), insert it fresh
+            return true;
+        }
+        if (node.children == null && node.looselyContains(unit.getX(), unit.getY())) {
+            return false;
+        }
+        node.removeLocal(unit);
+        int team = unit.store.team[unit.index];
+        for (QuadtreeNode n = node; n != null; n = n.parent) {
+            n.count--;
+            n.countSubtreeTeam(team, -1);
+        }
+        node.mergeUpward();
+        return true;
+    }
+
+    /**
+     * Finds the node holding a unit by searching the nodes whose loose
+     * bounds contain the given position. In a regular quadtree this is a
+     * single path from the root down.
+     * 
+     * @param unit The unit to look for
+     * @param x X coordinate the unit was inserted at
+     * @param y Y coordinate the unit was inserted at
+     * @return The node holding the unit, or null if it is not in this subtree
+     */
+    private QuadtreeNode findNode(Unit unit, float x, float y) {
+        if (!looselyContains(x, y)) {
+            return null;
+        }
+        if (indexOf(unit) >= 0) {
+            return this;
+        }
         if (children != null) {
+            // Units are placed by exact bounds, so the child holding the point is the likely one
+            QuadtreeNode first = belongsToQuadrant(x, y) ? childFor(x, y) : null;
+            if (first != null) {
+                QuadtreeNode node = first.findNode(unit, x, y);
+                if (node != null) {
+                    return node;
+                }
+            }
             for (QuadtreeNode child : children) {
-                if (child.insert(unit)) {
-                    return true;
+                if (child != first) {
+                    QuadtreeNode node = child.findNode(unit, x, y);
+                    if (node != null) {
+                        return node;
+                    }
                 }
             }
-            
-            // If we get here, the unit couldn't be inserted into any child
-            // This can happen at boundaries, so add it to this node
-            units.add(unit);
-            return true;
         }
-        
-        // Add unit to this node
+        return null;
+    }
+
+    /**
+     * @param unit The unit to look for
+     * @return Position of the unit in this node's own list, or -1
+     */
+    private int indexOf(Unit unit) {
+        for (int i = 0; i < units.size(); i++) {
+            if (units.get(i) == unit) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a unit to this node's own list without touching subtree counts.
+     * 
+     * @param unit The unit to add
+     */
+    private void addLocal(Unit unit) {
+        QuadtreeNode root = root();
+        if (units.size() == root.listCapacity) {
+            root.reserveLists(root.listCapacity * 2);
+        }
         units.add(unit);
-        
-        // Check if we need to split
-        if (units.size() > maxObjects && depth < maxDepth) {
-            // Create the children if they don't exist
-            if (children == null) {
-                subdivide();
-            }
-            
-            // Try to redistribute existing units to children
-            List<Unit> remainingUnits = new ArrayList<>();
-            for (Unit existingUnit : units) {
-                boolean inserted = false;
-                for (QuadtreeNode child : children) {
-                    if (child.insert(existingUnit)) {
-                        inserted = true;
-                        break;
-                    }
-                }
-                // If unit couldn't be inserted into any child, keep it in this node
-                if (!inserted) {
-                    remainingUnits.add(existingUnit);
-                }
+        countTeam(unit, 1);
+        root.contentVersion++;
+    }
+
+    /**
+     * Grows the list of every node, including the parked spares, to the
+     * same capacity. Lists are only ever grown together, so a unit crowding
+     * into a node does not allocate unless it sets a new maximum for the
+     * whole tree.
+     * 
+     * @param capacity Units every list must hold without growing
+     */
+    private void reserveLists(int capacity) {
+        listCapacity = capacity;
+        ensureListCapacity(capacity);
+    }
+
+    private void ensureListCapacity(int capacity) {
+        units.ensureCapacity(capacity);
+        ensureListCapacity(children, capacity);
+        ensureListCapacity(spareChildren, capacity);
+    }
+
+    private static void ensureListCapacity(QuadtreeNode[] nodes, int capacity) {
+        if (nodes != null) {
+            for (QuadtreeNode node : nodes) {
+                node.ensureListCapacity(capacity);
             }
-            
-            // Update this node's units to only contain those that couldn't be moved to children
-            units.clear();
-            units.addAll(remainingUnits);
         }
-        
-        return true;
+    }
+
+    /**
+     * Removes a unit from this node's own list without touching subtree counts.
+     * Order within a node does not matter, so the last unit is swapped in.
+     * 
+     * @param unit The unit to remove
+     */
+    private void removeLocal(Unit unit) {
+        int index = indexOf(unit);
+        int last = units.size() - 1;
+        units.set(index, units.get(last));
+        units.remove(last);
+        countTeam(unit, -1);
+        root().contentVersion++;
+    }
+
+    /**
+     * Adjusts the count of the unit's team in this node's own list.
+     * 
+     * @param unit The unit added or removed
+     * @param delta 1 when added, -1 when removed
+     */
+    private void countTeam(Unit unit, int delta) {
+        int team = unit.store.team[unit.index];
+        if (team >= teamCounts.length) {
+            teamCounts = Arrays.copyOf(teamCounts, Math.max(team + 1, UnitStore.teamPalette().length));
+        }
+        teamCounts[team] += delta;
+    }
+
+    /**
+     * Adjusts the count of a team in this node's subtree, keeping the
+     * subtree's team mask in step.
+     * 
+     * @param team The team of the unit added or removed
+     * @param delta 1 when added, -1 when removed
+     */
+    private void countSubtreeTeam(int team, int delta) {
+        if (team >= subtreeTeamCounts.length) {
+            subtreeTeamCounts = Arrays.copyOf(subtreeTeamCounts, Math.max(team + 1, UnitStore.teamPalette().length));
+        }
+        if ((subtreeTeamCounts[team] += delta) > 0) {
+            subtreeTeams |= TeamRelations.teamBit(team);
+        } else if (team < 63) {
+            subtreeTeams &= ~TeamRelations.teamBit(team);
+        } else {
+            // Teams from 63 up share a bit, which stays while any of them is left
+            boolean left = false;
+            for (int t = 63; t < subtreeTeamCounts.length; t++) {
+                left |= subtreeTeamCounts[t] > 0;
+            }
+            if (!left) {
+                subtreeTeams &= ~TeamRelations.teamBit(63);
+            }
+        }
+    }
+
+    /**
+     * Collapses the highest ancestor (or this node) whose subtree has dropped
+     * under the split threshold.
+     */
+    private void mergeUpward() {
+        QuadtreeNode target = null;
+        for (QuadtreeNode n = this; n != null && n.count < maxObjects; n = n.parent) {
+            if (n.children != null) {
+                target = n;
+            }
+        }
+        if (target != null) {
+            target.collapse();
+        }
+    }
+
+    /**
+     * Pulls every unit of the subtree into this node and drops the children.
+     */
+    private void collapse() {
+        int first = units.size();
+        for (QuadtreeNode child : children) {
+            child.collectInto(units);
+        }
+        for (int i = first; i < units.size(); i++) {
+            countTeam(units.get(i), 1);
+        }
+        releaseChildren();
+    }
+
+    /**
+     * Adds all units of this subtree to the given list.
+     * 
+     * @param out List receiving the units
+     */
+    private void collectInto(List<Unit> out) {
+        for (int i = 0; i < units.size(); i++) {
+            out.add(units.get(i));
+        }
+        if (children != null) {
+            for (QuadtreeNode child : children) {
+                child.collectInto(out);
+            }
+        }
+    }
+
+    /**
+     * Empties the children and parks them for reuse, so that merging and
+     * splitting the same area again does not allocate new nodes.
+     */
+    private void releaseChildren() {
+        QuadtreeNode root = root();
+        root.structureVersion++;
+        root.contentVersion++;
+        for (QuadtreeNode child : children) {
+            child.clear();
+        }
+        spareChildren = children;
+        children = null;
+    }
+
+    /**
+     * @return The root of the tree this node belongs to
+     */
+    private QuadtreeNode root() {
+        QuadtreeNode node = this;
+        while (node.parent != null) {
+            node = node.parent;
+        }
+        return node;
     }
 
     /**
@@ -136,10 +556,21 @@ public class QuadtreeNode {
      * 
      * @param x X coordinate
      * @param y Y coordinate
-     * @return true if the point is inside this quadrant
+     * @return true if the point is inside this quadrant's exact bounds
      */
     private boolean belongsToQuadrant(float x, float y) {
-        return x >= this.x && y >= this.y && x < this.x + this.width && y < this.y + this.height;
+        return x >= minX && y >= minY
+            && (x < maxX || (closedRight && x == maxX))
+            && (y < maxY || (closedBottom && y == maxY));
+    }
+
+    /**
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return true if the point is inside this quadrant's loose bounds, edges included
+     */
+    private boolean looselyContains(float x, float y) {
+        return x >= looseMinX && y >= looseMinY && x <= looseMaxX && y <= looseMaxY;
     }
 
     /**
@@ -150,14 +581,38 @@ public class QuadtreeNode {
      * @return The list of found units
      */
     public List<Unit> query(Rectangle range, List<Unit> found) {
+        query(range.x, range.y, range.x + range.width, range.y + range.height, null, found);
+        return found;
+    }
+
+    /**
+     * Finds all units inside the half-open range [minX, maxX) x [minY, maxY)
+     * without allocating. Results are appended to a caller-owned buffer that
+     * can be cleared and reused between queries.
+     * 
+     * @param minX Left edge of the range
+     * @param minY Top edge of the range
+     * @param maxX Right edge of the range (exclusive)
+     * @param maxY Bottom edge of the range (exclusive)
+     * @param exclude Unit to leave out of the results, or null
+     * @param found Buffer receiving the found units
+     */
+    @Override
+    public void query(float minX, float minY, float maxX, float maxY, Unit exclude, List<Unit> found) {
         // Skip this node if it doesn't intersect with the query range
-        if (!range.intersects(new Rectangle(this.x, this.y, this.width, this.height))) {
-            return found;
+        if (maxX <= looseMinX || maxY <= looseMinY || minX > looseMaxX || minY > looseMaxY) {
+            return;
+        }
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.countNodeVisit(units.size());
         }
 
         // Add units from this node that are within the range
-        for (Unit unit : units) {
-            if (range.contains(unit.getX(), unit.getY())) {
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            float ux = unit.getX();
+            float uy = unit.getY();
+            if (unit != exclude && ux >= minX && uy >= minY && ux < maxX && uy < maxY) {
                 found.add(unit);
             }
         }
@@ -165,48 +620,389 @@ public class QuadtreeNode {
         // Check children if they exist
         if (children != null) {
             for (QuadtreeNode child : children) {
-                child.query(range, found);
+                child.query(minX, minY, maxX, maxY, exclude, found);
             }
         }
+    }
+    
+    /**
+     * Finds all units within a circle. Nodes whose bounds lie entirely
+     * outside the circle are skipped, and units are tested by squared
+     * distance, so corner candidates of the bounding box are never returned.
+     * 
+     * @param cx X coordinate of the center
+     * @param cy Y coordinate of the center
+     * @param radius Radius of the circle, inclusive
+     * @param exclude Unit to leave out of the results, or null
+     * @param found Buffer receiving the found units
+     */
+    @Override
+    public void queryRadius(float cx, float cy, float radius, Unit exclude, List<Unit> found) {
+        queryRadiusSquared(cx, cy, radius * radius, exclude, found);
+    }
 
-        return found;
+    private void queryRadiusSquared(float cx, float cy, float radiusSquared, Unit exclude, List<Unit> found) {
+        if (distanceSquaredTo(cx, cy) > radiusSquared) {
+            return;
+        }
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.countNodeVisit(units.size());
+        }
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            if (unit != exclude && Util.getDistanceSquared(unit.getX(), unit.getY(), cx, cy) <= radiusSquared) {
+                found.add(unit);
+            }
+        }
+        if (children != null) {
+            for (QuadtreeNode child : children) {
+                child.queryRadiusSquared(cx, cy, radiusSquared, exclude, found);
+            }
+        }
+    }
+
+    /**
+     * Finds the units closest to a point with a best-first traversal: nodes
+     * are visited in order of their distance to the point, and the search
+     * stops as soon as the closest remaining node is farther away than the
+     * k-th best unit found so far.
+     * 
+     * @param qx X coordinate of the query point
+     * @param qy Y coordinate of the query point
+     * @param radius Maximum distance of a neighbor, inclusive
+     * @param exclude Unit to leave out of the results, or null
+     * @param teams Mask of the teams to consider, -1 for all
+     * @param search Reusable search state receiving the results
+     */
+    @Override
+    public void nearest(float qx, float qy, float radius, Unit exclude, long teams, NeighborSearch search) {
+        search.begin(qx, qy, radius, exclude, teams);
+        float rootDistance = distanceSquaredTo(qx, qy);
+        if ((subtreeTeams & teams) != 0 && rootDistance <= search.bound()) {
+            search.pushNode(this, rootDistance);
+        }
+        while (search.hasNodes() && search.peekNodeDistance() <= search.bound()) {
+            QuadtreeNode node = search.popNode();
+            if (SimulationMetrics.ENABLED) {
+                SimulationMetrics.countNodeVisit(node.units.size());
+            }
+            for (int i = 0; i < node.units.size(); i++) {
+                search.offer(node.units.get(i));
+            }
+            if (node.children != null) {
+                for (QuadtreeNode child : node.children) {
+                    if ((child.subtreeTeams & teams) == 0) {
+                        continue;
+                    }
+                    float distance = child.distanceSquaredTo(qx, qy);
+                    if (distance <= search.bound()) {
+                        search.pushNode(child, distance);
+                    }
+                }
+            }
+        }
+        search.finish();
+    }
+
+    /**
+     * @param px X coordinate of a point
+     * @param py Y coordinate of a point
+     * @return Squared distance from the point to this quadrant's loose bounds, 0 if inside
+     */
+    private float distanceSquaredTo(float px, float py) {
+        float dx = Math.max(Math.max(looseMinX - px, px - looseMaxX), 0);
+        float dy = Math.max(Math.max(looseMinY - py, py - looseMaxY), 0);
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Detaches every unit that left its node, then inserts them all again;
+     * once more units have changed node than a rebuild would cost, the tree
+     * is rebuilt in a single pass instead. Reinserting only after all moved
+     * units are out means no split can misplace a unit that has not been
+     * looked at yet.
+     * 
+     * @param units All units, in the order their old positions are given
+     * @param oldX X positions at the start of the tick
+     * @param oldY Y positions at the start of the tick
+     */
+    @Override
+    public void refresh(List<Unit> units, float[] oldX, float[] oldY) {
+        int count = units.size();
+        int rebuildBudget = (int) (count * Constants.QUADTREE_REBUILD_THRESHOLD);
+        if (pending == null) {
+            pending = new ArrayList<>();
+        }
+        // A refresh detaches at most one unit over the budget before rebuilding instead
+        pending.ensureCapacity(rebuildBudget + 1);
+        for (int i = 0; i < count; i++) {
+            Unit unit = units.get(i);
+            // Only update the tree if the unit has moved
+            if (oldX[i] != unit.getX() || oldY[i] != unit.getY()) {
+                if (detach(unit, oldX[i], oldY[i])) {
+                    pending.add(unit);
+                    if (pending.size() > rebuildBudget) {
+                        pending.clear();
+                        rebuild(units);
+                        return;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            insert(pending.get(i));
+        }
+        pending.clear();
+    }
+
+    /**
+     * Rebuilds the whole tree from the current unit positions in one pass.
+     * Units are partitioned quadrant by quadrant, which puts them in Morton
+     * (Z-order) order, and every node takes its slice of that order: a node
+     * with more than maxObjects units below it is subdivided, any other
+     * becomes a leaf. The result is the tree that inserting the units one
+     * by one would give, down to the order within each leaf, but no leaf is
+     * ever filled and split again.
+     * 
+     * @param units The units to index
+     */
+    @Override
+    public void rebuild(List<Unit> units) {
+        clear();
+        int n = units.size();
+        if (bulk == null || bulk.units.length < n) {
+            bulk = new BulkBuffers(Math.max(n, bulk == null ? 0 : bulk.units.length * 2), maxDepth);
+        }
+        BulkBuffers b = bulk;
+        int inside = 0;
+        for (int i = 0; i < n; i++) {
+            Unit unit = units.get(i);
+            float ux = unit.getX();
+            float uy = unit.getY();
+            // Units outside the root stay out of the tree, as with insert
+            if (belongsToQuadrant(ux, uy)) {
+                b.units[inside] = unit;
+                b.x[inside] = ux;
+                b.y[inside] = uy;
+                inside++;
+            }
+        }
+        build(b.units, b.x, b.y, b.spareUnits, b.spareX, b.spareY, b.cursors, 0, inside);
+        Arrays.fill(b.units, 0, inside, null);
+        Arrays.fill(b.spareUnits, 0, inside, null);
+        QuadtreeNode root = root();
+        root.structureVersion++;
+        root.contentVersion++;
+    }
+
+    /**
+     * Fills this empty node with a range of units that all belong to it,
+     * subdividing it as far as the range requires.
+     * 
+     * @param units Units to place, with their positions in x and y
+     * @param spareUnits Space for partitioning the same range, with spareX and spareY
+     * @param cursors Partition bounds per depth, see BulkBuffers
+     * @param from First position of the range
+     * @param to Position after the last one of the range
+     */
+    private void build(Unit[] units, float[] x, float[] y, Unit[] spareUnits, float[] spareX, float[] spareY,
+            int[][] cursors, int from, int to) {
+        count = to - from;
+        if (count <= maxObjects || depth >= maxDepth) {
+            QuadtreeNode root = root();
+            if (count > root.listCapacity) {
+                root.reserveLists(Math.max(count, root.listCapacity * 2));
+            }
+            for (int i = from; i < to; i++) {
+                this.units.add(units[i]);
+                countTeam(units[i], 1);
+                countSubtreeTeam(units[i].store.team[units[i].index], 1);
+            }
+            return;
+        }
+
+        // Stable counting partition into the children, in child order
+        subdivide();
+        int[] start = cursors[depth];
+        Arrays.fill(start, 0);
+        for (int i = from; i < to; i++) {
+            start[quadrantOf(x[i], y[i]) + 1]++;
+        }
+        start[0] = from;
+        for (int q = 1; q < 5; q++) {
+            start[q] += start[q - 1];
+        }
+        System.arraycopy(start, 0, start, 5, 4);
+        for (int i = from; i < to; i++) {
+            int position = start[5 + quadrantOf(x[i], y[i])]++;
+            spareUnits[position] = units[i];
+            spareX[position] = x[i];
+            spareY[position] = y[i];
+        }
+
+        // The partitioned copy becomes the input of the children, the input their spare space
+        for (int q = 0; q < 4; q++) {
+            QuadtreeNode child = children[q];
+            child.build(spareUnits, spareX, spareY, units, x, y, cursors, start[q], start[q + 1]);
+            if (subtreeTeamCounts.length < child.subtreeTeamCounts.length) {
+                subtreeTeamCounts = Arrays.copyOf(subtreeTeamCounts, child.subtreeTeamCounts.length);
+            }
+            for (int t = 0; t < child.subtreeTeamCounts.length; t++) {
+                subtreeTeamCounts[t] += child.subtreeTeamCounts[t];
+            }
+            subtreeTeams |= child.subtreeTeams;
+        }
+    }
+
+    /**
+     * @return Index of the child quadrant containing a point, as used by childFor
+     */
+    private int quadrantOf(float x, float y) {
+        return (x < midX ? 0 : 1) + (y < midY ? 0 : 2);
+    }
+
+    /**
+     * Reusable arrays for partitioning units during a rebuild. A node being
+     * built keeps the start of each child's range, and after them the next
+     * free position of each child, in the cursor row for its depth; the
+     * children only use deeper rows.
+     */
+    private static final class BulkBuffers {
+        final Unit[] units, spareUnits;
+        final float[] x, y, spareX, spareY;
+        final int[][] cursors; // Depth -> 5 range starts, then 4 write positions
+
+        BulkBuffers(int capacity, int maxDepth) {
+            cursors = new int[maxDepth + 1][9];
+            units = new Unit[capacity];
+            spareUnits = new Unit[capacity];
+            x = new float[capacity];
+            y = new float[capacity];
+            spareX = new float[capacity];
+            spareY = new float[capacity];
+        }
     }
     
     /**
      * Clears all units from this quadtree.
      */
+    @Override
     public void clear() {
-        units.clear();
+        if (!units.isEmpty()) {
+            units.clear();
+            Arrays.fill(teamCounts, 0);
+            root().contentVersion++;
+        }
+        count = 0;
+        Arrays.fill(subtreeTeamCounts, 0);
+        subtreeTeams = 0;
         
         if (children != null) {
-            for (QuadtreeNode child : children) {
-                child.clear();
-            }
-            children = null; // Remove references to children
+            releaseChildren(); // Keep the emptied children around for the next split
         }
     }
 
-    public int getX() {
-        return x;
+    public float getX() {
+        return minX;
+    }
+
+    public float getY() {
+        return minY;
+    }
+
+    public float getWidth() {
+        return maxX - minX;
+    }
+
+    public float getHeight() {
+        return maxY - minY;
     }
 
-    public int getY() {
-        return y;
+    /**
+     * @return Factor by which node bounds are enlarged, 1 for a regular quadtree
+     */
+    public float getLooseness() {
+        return looseness;
     }
 
-    public int getWidth() {
-        return width;
+    /**
+     * @return Number of units a node holds before it splits
+     */
+    public int getMaxObjects() {
+        return maxObjects;
     }
 
-    public int getHeight() {
-        return height;
+    /**
+     * @return Depth below which nodes no longer split
+     */
+    public int getMaxDepth() {
+        return maxDepth;
     }
 
     public List<Unit> getUnits() {
         return units;
     }
 
+    /**
+     * @return Number of units in this node and all of its descendants
+     */
+    public int getCount() {
+        return count;
+    }
+
     public QuadtreeNode[] getChildren() {
         return children;
     }
+
+    /**
+     * Copies every leaf, with the number of units it holds and the team
+     * most of them belong to. The leaves tile the root, so their outlines
+     * draw the whole tree. Team counts are kept as units come and go, so
+     * this only visits nodes, not units.
+     */
+    @Override
+    public int exportRegions(float[] bounds, int[] counts, int[] dominantTeams) {
+        return exportRegions(bounds, counts, dominantTeams, 0);
+    }
+
+    private int exportRegions(float[] bounds, int[] counts, int[] dominantTeams, int next) {
+        if (children != null) {
+            for (QuadtreeNode child : children) {
+                next = child.exportRegions(bounds, counts, dominantTeams, next);
+            }
+            return next;
+        }
+        if (next < counts.length && next < dominantTeams.length && next * 4 + 3 < bounds.length) {
+            bounds[next * 4] = minX;
+            bounds[next * 4 + 1] = minY;
+            bounds[next * 4 + 2] = maxX - minX;
+            bounds[next * 4 + 3] = maxY - minY;
+            counts[next] = count;
+            int dominant = -1;
+            int most = 0;
+            for (int team = 0; team < teamCounts.length; team++) {
+                if (teamCounts[team] > most) {
+                    most = teamCounts[team];
+                    dominant = team;
+                }
+            }
+            dominantTeams[next] = dominant;
+        }
+        return next + 1;
+    }
+
+    /**
+     * @return Version of the tree's shape, changed whenever a node is split or merged
+     */
+    public long getStructureVersion() {
+        return root().structureVersion;
+    }
+
+    /**
+     * @return Version of the tree's contents, changed whenever a unit enters
+     *         or leaves a node; moving within a node does not change it
+     */
+    public long getContentVersion() {
+        return root().contentVersion;
+    }
 }
\ No newline at end of file
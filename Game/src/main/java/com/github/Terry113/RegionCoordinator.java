@@ -0,0 +1,477 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a simulation split into regions across {@link RegionWorker}s, one
+ * per region, usually each in a process of its own. The coordinator is the
+ * hub of a star: workers only talk to it, over socket channels on the
+ * loopback interface. Every tick it passes migrating units to the regions
+ * they moved into and border units to the neighbors that can see them,
+ * and each exchange is a barrier that all workers pass together, so the
+ * regions tick in lock-step and the run matches a {@link RegionedWorld}
+ * and a single {@link SimulationManager} (see {@link RegionProtocol}).
+ *
+ * When asked to, workers also send every unit at the end of a tick, and
+ * the coordinator publishes them as one render snapshot, so a
+ * {@link SimulationRenderer} draws the whole field like a local
+ * simulation. Units keep their ids from region to region, so a unit
+ * drawn after migrating is interpolated like any other.
+ *
+ * A worker that does not connect or answer within the timeout, or whose
+ * connection drops, fails the run with an IOException naming its region,
+ * rather than leaving the coordinator waiting at a barrier for good.
+ */
+public class RegionCoordinator implements SnapshotSource, Runnable, Closeable {
+    private static final int MAX_CATCH_UP_TICKS = 5; // Ticks run back to back before the schedule is reset
+    private static final long DEFAULT_TIMEOUT_MILLIS = 30_000; // How long a worker may take to connect or answer
+
+    private final RegionGrid grid;
+    private final ServerSocketChannel server;
+    private final Selector acceptor; // Wakes up when a worker connects
+    private final SocketChannel[] workers; // Region -> connection to its worker
+    private final SelectionKey[] keys; // Region -> its connection's key in a selector of its own
+    private final ByteBuffer[] in; // Region -> last message from its worker
+    private final ByteBuffer[] out; // Region -> next message to its worker
+    private final int[] arrivals; // Region -> migrants moving in on the current tick
+    private final int[][] borderStart; // Region, neighbor offset -> position of the border units in in[region]
+    private final int[][] borderCount; // Region, neighbor offset -> number of those units
+    private final TeamRelations relations = new TeamRelations();
+    private final SnapshotExchange snapshots = new SnapshotExchange();
+    private Color[] palette; // Team colors sent to the workers; team ids on the wire index it
+    private long tick; // Ticks run so far
+    private int unitCount; // Units in all regions after the last tick
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private boolean midTick; // Set while a tick is under way; after a failed one workers are cut off, not stopped
+
+    // Ticking on a thread of its own, for rendering
+    private long period = 1_000_000_000L / Constants.TICKS_PER_SECOND; // Nanoseconds per tick
+    private volatile boolean running;
+    private volatile IOException failure; // Why the ticking thread stopped early, null if it did not
+    private Thread thread;
+
+    /**
+     * Opens a loopback port for the workers to connect to.
+     *
+     * @param width Width of the simulation area
+     * @param height Height of the simulation area
+     * @param columns Number of regions across
+     * @param rows Number of regions down
+     * @throws IOException If no port can be opened
+     */
+    public RegionCoordinator(int width, int height, int columns, int rows) throws IOException {
+        this.grid = new RegionGrid(width, height, columns, rows);
+        int regions = grid.size();
+        this.workers = new SocketChannel[regions];
+        this.keys = new SelectionKey[regions];
+        this.in = new ByteBuffer[regions];
+        this.out = new ByteBuffer[regions];
+        for (int region = 0; region < regions; region++) {
+            in[region] = RegionProtocol.ensureCapacity(null, 0);
+            out[region] = RegionProtocol.ensureCapacity(null, 0);
+        }
+        this.arrivals = new int[regions];
+        this.borderStart = new int[regions][9];
+        this.borderCount = new int[regions][9];
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), regions);
+        server.configureBlocking(false);
+        this.acceptor = Selector.open();
+        server.register(acceptor, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Sets how long a worker may take to connect, and to answer each
+     * message of a tick, before the run fails.
+     *
+     * @param millis Timeout in milliseconds
+     */
+    public void setTimeout(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("Timeout must be positive: " + millis);
+        }
+        this.timeoutMillis = millis;
+    }
+
+    /**
+     * @return Address the workers connect to
+     * @throws IOException If the address cannot be read
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    /**
+     * Accepts one worker per region, in region order, and sends each the
+     * soldiers of its region. Soldiers are numbered in batch order, the
+     * ids a single simulation would give them.
+     *
+     * @param batch The soldiers of the whole field
+     * @param scheduler Which soldiers think on each tick, in every region
+     * @throws IOException If a worker does not connect in time or cannot
+     *         be reached
+     */
+    public void connect(SoldierBatch batch, ThinkScheduler scheduler) throws IOException {
+        palette = UnitStore.teamPalette();
+        int[] counts = new int[workers.length];
+        for (int k = 0; k < batch.size(); k++) {
+            counts[grid.regionOf(batch.x[k], batch.y[k])]++;
+        }
+        for (int region = 0; region < workers.length; region++) {
+            accept(region);
+
+            int bytes = 7 * 4 + 4 + 4 * palette.length + palette.length * palette.length + 4
+                + counts[region] * RegionProtocol.SPAWN_UNIT_BYTES;
+            ByteBuffer setup = RegionProtocol.begin(out[region], RegionProtocol.SETUP, bytes);
+            setup.putInt(grid.getWidth()).putInt(grid.getHeight());
+            setup.putInt(grid.getColumns()).putInt(grid.getRows()).putInt(region);
+            setup.putInt(scheduler.getInterval()).putInt(scheduler.getEngagedInterval());
+            setup.putInt(palette.length);
+            for (Color color : palette) {
+                setup.putInt(color.getRGB());
+            }
+            for (int a = 0; a < palette.length; a++) {
+                for (int b = 0; b < palette.length; b++) {
+                    setup.put((byte) relations.get(a, b).ordinal());
+                }
+            }
+            setup.putInt(counts[region]);
+            for (int k = 0; k < batch.size(); k++) {
+                if (grid.regionOf(batch.x[k], batch.y[k]) == region) {
+                    setup.putFloat(batch.x[k]).putFloat(batch.y[k]).putFloat(batch.vx[k]).putFloat(batch.vy[k]);
+                    setup.putFloat(batch.angle[k]).putInt(batch.team[k]).putInt(batch.size[k]);
+                    setup.putLong(batch.stream[k]).putInt(k);
+                }
+            }
+            out[region] = setup;
+            send(region, setup);
+        }
+        unitCount = batch.size();
+    }
+
+    /**
+     * Waits for the worker of a region to connect.
+     *
+     * @param region The region
+     * @throws IOException If no worker connects within the timeout
+     */
+    private void accept(int region) throws IOException {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        SocketChannel channel;
+        while ((channel = server.accept()) == null) {
+            long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+            if (remaining <= 0) {
+                throw new IOException("Worker for region " + region + " did not connect within "
+                    + timeoutMillis + " ms");
+            }
+            acceptor.select(remaining);
+            acceptor.selectedKeys().clear();
+        }
+        workers[region] = channel;
+        channel.socket().setTcpNoDelay(true);
+        channel.configureBlocking(false);
+        keys[region] = channel.register(Selector.open(), 0);
+    }
+
+    /**
+     * Sends a message to the worker of a region.
+     *
+     * @throws IOException If the worker does not take it in time
+     */
+    private void send(int region, ByteBuffer message) throws IOException {
+        try {
+            RegionProtocol.send(workers[region], message, keys[region], timeoutMillis);
+        } catch (IOException e) {
+            throw new IOException("Worker for region " + region + " stopped reading: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the next message from the worker of a region into in[region].
+     *
+     * @throws IOException If the worker does not answer in time
+     */
+    private void receive(int region, byte type) throws IOException {
+        try {
+            in[region] = RegionProtocol.receive(workers[region], in[region], type, keys[region], timeoutMillis);
+        } catch (IOException e) {
+            throw new IOException("Worker for region " + region + " stopped answering: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs one tick in every region.
+     *
+     * @param capture Whether to gather every unit afterwards and publish
+     *        them as a render snapshot
+     * @throws IOException If a worker does not answer in time or cannot be reached
+     */
+    public void update(boolean capture) throws IOException {
+        int regions = workers.length;
+        midTick = true;
+        for (int region = 0; region < regions; region++) {
+            out[region] = RegionProtocol.begin(out[region], RegionProtocol.TICK, 1);
+            out[region].put(capture ? RegionProtocol.CAPTURE : RegionProtocol.RUN);
+            send(region, out[region]);
+        }
+
+        // Migration: every region's emigrants, passed on in region order
+        for (int region = 0; region < regions; region++) {
+            receive(region, RegionProtocol.MIGRANTS);
+            arrivals[region] = 0;
+        }
+        for (int region = 0; region < regions; region++) {
+            ByteBuffer migrants = in[region];
+            for (int n = 0; n < migrants.getInt(0); n++) {
+                arrivals[migrants.getInt(4 + n * RegionProtocol.MIGRANT_BYTES)]++;
+            }
+        }
+        for (int target = 0; target < regions; target++) {
+            ByteBuffer message = RegionProtocol.begin(out[target], RegionProtocol.ARRIVALS,
+                4 + arrivals[target] * RegionProtocol.ARRIVAL_BYTES);
+            message.putInt(arrivals[target]);
+            for (int region = 0; region < regions; region++) {
+                ByteBuffer migrants = in[region];
+                for (int n = 0; n < migrants.getInt(0); n++) {
+                    int position = 4 + n * RegionProtocol.MIGRANT_BYTES;
+                    if (migrants.getInt(position) == target) {
+                        RegionProtocol.copy(migrants, position + 4, RegionProtocol.ARRIVAL_BYTES, message);
+                    }
+                }
+            }
+            out[target] = message;
+            send(target, message);
+        }
+
+        // Halo exchange: every region gets the border units its neighbors sorted out for it
+        for (int region = 0; region < regions; region++) {
+            receive(region, RegionProtocol.BORDER);
+            int position = 0;
+            for (int k = 0; k < 9; k++) {
+                borderCount[region][k] = in[region].getInt(position);
+                borderStart[region][k] = position + 4;
+                position += 4 + borderCount[region][k] * RegionProtocol.GHOST_BYTES;
+            }
+        }
+        for (int region = 0; region < regions; region++) {
+            int total = 0;
+            for (int offset = 0; offset < 9; offset++) {
+                int neighbor = grid.neighbor(region, offset);
+                if (offset != RegionGrid.SELF && neighbor >= 0) {
+                    total += borderCount[neighbor][8 - offset];
+                }
+            }
+            ByteBuffer message = RegionProtocol.begin(out[region], RegionProtocol.GHOSTS,
+                4 + total * RegionProtocol.GHOST_BYTES);
+            message.putInt(total);
+            for (int offset = 0; offset < 9; offset++) {
+                int neighbor = grid.neighbor(region, offset);
+                if (offset != RegionGrid.SELF && neighbor >= 0) {
+                    // The neighbor's list for the offset pointing back at this region
+                    RegionProtocol.copy(in[neighbor], borderStart[neighbor][8 - offset],
+                        borderCount[neighbor][8 - offset] * RegionProtocol.GHOST_BYTES, message);
+                }
+            }
+            out[region] = message;
+            send(region, message);
+        }
+
+        // End of the tick
+        int count = 0;
+        for (int region = 0; region < regions; region++) {
+            receive(region, RegionProtocol.DONE);
+            count += in[region].getInt(0);
+        }
+        unitCount = count;
+        tick++;
+        midTick = false;
+        if (capture) {
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Gathers the units sent with the DONE messages into one snapshot.
+     */
+    private void publishSnapshot() {
+        RenderSnapshot snapshot = snapshots.getBack();
+        snapshot.ensureCapacity(unitCount);
+        int i = 0;
+        for (int region = 0; region < workers.length; region++) {
+            ByteBuffer units = in[region];
+            units.position(4);
+            for (int n = units.getInt(0); n > 0; n--, i++) {
+                snapshot.id[i] = units.getInt();
+                snapshot.x[i] = units.getFloat();
+                snapshot.y[i] = units.getFloat();
+                snapshot.vx[i] = units.getFloat();
+                snapshot.vy[i] = units.getFloat();
+                snapshot.angle[i] = units.getFloat();
+                snapshot.team[i] = units.getInt();
+                snapshot.size[i] = units.getInt();
+                snapshot.state[i] = units.get();
+            }
+        }
+        snapshot.load(tick, tick, unitCount, grid.getWidth(), grid.getHeight(), palette);
+        snapshots.publish();
+    }
+
+    /**
+     * Starts ticking at a fixed rate on a new daemon thread, publishing a
+     * snapshot after every tick.
+     *
+     * @param ticksPerSecond Target tick rate
+     */
+    public synchronized void start(double ticksPerSecond) {
+        if (!(ticksPerSecond > 0)) {
+            throw new IllegalArgumentException("Tick rate must be positive: " + ticksPerSecond);
+        }
+        if (thread != null) {
+            throw new IllegalStateException("Coordinator already started");
+        }
+        period = (long) (1_000_000_000L / ticksPerSecond);
+        running = true;
+        thread = new Thread(this, "coordinator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime() + period;
+        while (running) {
+            long wait = nextTick - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            try {
+                update(true);
+            } catch (IOException e) {
+                // Leave the error for the application to report, and release the other workers
+                failure = e;
+                running = false;
+                try {
+                    disconnect();
+                } catch (IOException closing) {
+                    e.addSuppressed(closing);
+                }
+                return;
+            }
+
+            nextTick += period;
+            // After a long stall, resume from now instead of racing through the missed ticks
+            if (System.nanoTime() - nextTick > MAX_CATCH_UP_TICKS * period) {
+                nextTick = System.nanoTime() + period;
+            }
+        }
+    }
+
+    /**
+     * Stops the ticking thread, tells the workers to finish and closes the
+     * connections.
+     *
+     * @throws IOException If a connection cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (thread != null) {
+                running = false;
+                LockSupport.unpark(thread);
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                thread = null;
+            }
+        }
+        disconnect();
+        acceptor.close();
+        server.close();
+    }
+
+    /**
+     * Tells the workers to finish, unless a tick was cut short, and closes
+     * the connections to them.
+     *
+     * @throws IOException If a connection cannot be closed
+     */
+    private void disconnect() throws IOException {
+        for (int region = 0; region < workers.length; region++) {
+            if (workers[region] != null && workers[region].isOpen()) {
+                // Workers waiting inside a failed tick take the closed connection as the end of the run
+                if (!midTick) {
+                    try {
+                        out[region] = RegionProtocol.begin(out[region], RegionProtocol.TICK, 1);
+                        out[region].put(RegionProtocol.STOP);
+                        send(region, out[region]);
+                    } catch (IOException e) {
+                        // The worker is gone already
+                    }
+                }
+                keys[region].selector().close();
+                workers[region].close();
+            }
+        }
+    }
+
+    /**
+     * @return Why the thread started by start stopped ticking, or null
+     *         while it runs or if it was stopped by close
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return How teams regard each other; changes only reach the workers
+     *         when they connect
+     */
+    public TeamRelations getTeamRelations() {
+        return relations;
+    }
+
+    /**
+     * @return Ticks run so far
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return Number of units in all regions after the last tick
+     */
+    public int size() {
+        return unitCount;
+    }
+
+    public int getWidth() {
+        return grid.getWidth();
+    }
+
+    public int getHeight() {
+        return grid.getHeight();
+    }
+
+    @Override
+    public SnapshotExchange getSnapshots() {
+        return snapshots;
+    }
+
+    @Override
+    public long getPeriod() {
+        return period;
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.Terry113;
+
+import java.util.List;
+
+/**
+ * Geometry of a field split into a grid of equal rectangular regions,
+ * shared by {@link RegionedWorld} and the regions of a distributed run.
+ * Regions are numbered row by row. The eight neighbors of a region and the
+ * region itself are numbered 4 + dx + 3 * dy for column and row steps dx
+ * and dy from -1 to 1, so offset 4 is the region itself and 8 - offset
+ * points back from the neighbor.
+ */
+final class RegionGrid {
+    static final float HALO = Constants.DETECTION_RADIUS * 1.001f; // Margin for rounding in distances
+    static final int SELF = 4; // Neighbor offset of the region itself
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    private final float regionWidth;
+    private final float regionHeight;
+
+    /**
+     * @param width Width of the simulation area
+     * @param height Height of the simulation area
+     * @param columns Number of regions across
+     * @param rows Number of regions down
+     */
+    RegionGrid(int width, int height, int columns, int rows) {
+        if (columns < 1 || rows < 1) {
+            throw new IllegalArgumentException("Invalid region grid: " + columns + "x" + rows);
+        }
+        if ((float) width / columns < 2 * HALO || (float) height / rows < 2 * HALO) {
+            // A border unit must be seen from one region across, not from both sides
+            throw new IllegalArgumentException("Regions narrower than twice the detection radius: "
+                + columns + "x" + rows);
+        }
+        this.width = width;
+        this.height = height;
+        this.columns = columns;
+        this.rows = rows;
+        this.regionWidth = (float) width / columns;
+        this.regionHeight = (float) height / rows;
+    }
+
+    /**
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return Index of the region containing the point; points outside the
+     *         field belong to the nearest region
+     */
+    int regionOf(float x, float y) {
+        int column = Math.min(Math.max((int) (x / regionWidth), 0), columns - 1);
+        int row = Math.min(Math.max((int) (y / regionHeight), 0), rows - 1);
+        return row * columns + column;
+    }
+
+    /**
+     * @param region A region
+     * @param offset Neighbor offset, 4 + dx + 3 * dy
+     * @return The neighboring region, or -1 past the edge of the field
+     */
+    int neighbor(int region, int offset) {
+        int column = region % columns + offset % 3 - 1;
+        int row = region / columns + offset / 3 - 1;
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            return -1;
+        }
+        return row * columns + column;
+    }
+
+    /**
+     * Creates an empty index for a region. It covers the halo too, so ghosts
+     * and units about to migrate fit in it.
+     *
+     * @param region A region
+     * @return Quadtree over the region and its halo
+     */
+    QuadtreeNode createIndex(int region) {
+        return new QuadtreeNode(region % columns * regionWidth - HALO, region / columns * regionHeight - HALO,
+            regionWidth + 2 * HALO, regionHeight + 2 * HALO);
+    }
+
+    /**
+     * Sorts the units of a region near its border by the neighboring
+     * regions whose halo they lie in. A unit near a corner goes to the
+     * regions on both sides and the one diagonally across.
+     *
+     * @param region The region
+     * @param units Units of the region
+     * @param outbound Lists to add to, the one for neighbor offset k at
+     *        first + k; cleared first
+     * @param first Position of the list for offset 0
+     */
+    void sortBorderUnits(int region, List<Unit> units, List<List<Unit>> outbound, int first) {
+        for (int k = 0; k < 9; k++) {
+            outbound.get(first + k).clear();
+        }
+        int column = region % columns;
+        int row = region / columns;
+        float minX = column * regionWidth;
+        float minY = row * regionHeight;
+        float maxX = minX + regionWidth;
+        float maxY = minY + regionHeight;
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            float x = unit.getX();
+            float y = unit.getY();
+            int dx = column > 0 && x - minX <= HALO ? -1 : column < columns - 1 && maxX - x <= HALO ? 1 : 0;
+            int dy = row > 0 && y - minY <= HALO ? -1 : row < rows - 1 && maxY - y <= HALO ? 1 : 0;
+            if (dx != 0) {
+                outbound.get(first + SELF + dx).add(unit);
+            }
+            if (dy != 0) {
+                outbound.get(first + SELF + 3 * dy).add(unit);
+            }
+            if (dx != 0 && dy != 0) {
+                outbound.get(first + SELF + dx + 3 * dy).add(unit);
+            }
+        }
+    }
+
+    /**
+     * @return Number of regions
+     */
+    int size() {
+        return columns * rows;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getColumns() {
+        return columns;
+    }
+
+    int getRows() {
+        return rows;
+    }
+}
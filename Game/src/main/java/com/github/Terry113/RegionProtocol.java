@@ -0,0 +1,218 @@
+package com.github.Terry113;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Messages between a {@link RegionCoordinator} and its
+ * {@link RegionWorker}s. All values are little-endian. Every message is a
+ * payload length (int) and a type (byte) followed by the payload.
+ *
+ * One tick is three round trips, each a barrier across all workers:
+ * <ul>
+ * <li>TICK (mode byte: RUN, CAPTURE to also send the units for drawing,
+ *     or STOP to end the run) is answered by MIGRANTS: count, then per
+ *     unit its target region (int), its id (int) and its slot as written
+ *     by {@link UnitStore#writeSlot}.</li>
+ * <li>ARRIVALS (count, then id and slot of every unit moving in) is
+ *     answered by BORDER: for each of the nine neighbor offsets of
+ *     {@link RegionGrid}, a count and the x, y, team and id of every
+ *     border unit seen from there.</li>
+ * <li>GHOSTS (count, then x, y, team and id of every neighbor's unit in
+ *     the halo) is answered by DONE: unit count, then in CAPTURE mode the
+ *     id, x, y, vx, vy, angle, team, size and state of every unit.</li>
+ * </ul>
+ *
+ * Before the first tick, SETUP sends a worker its region: field width and
+ * height, grid columns and rows, region index, the two think intervals,
+ * the team colors as a count and RGB values, the relation of every pair
+ * of those teams as a byte, then the soldiers as a count and x, y, vx,
+ * vy, angle, team, size, random stream key and id each. Team ids on the
+ * wire are indexes into that palette. Unit ids are assigned once, in the
+ * order of the coordinator's batch as a single simulation would, and a
+ * unit keeps its id from worker to worker, so thinking stagger and
+ * nearest-unit ties come out the same in every region.
+ */
+final class RegionProtocol {
+    static final int HEADER_SIZE = 5;
+    static final int SPAWN_UNIT_BYTES = 5 * 4 + 4 + 4 + 8 + 4;
+    static final int ARRIVAL_BYTES = 4 + UnitStore.SLOT_BYTES;
+    static final int MIGRANT_BYTES = 4 + ARRIVAL_BYTES;
+    static final int GHOST_BYTES = 4 * 4;
+    static final int RENDER_UNIT_BYTES = 4 + 5 * 4 + 4 + 4 + 1;
+
+    static final byte SETUP = 1;
+    static final byte TICK = 2;
+    static final byte MIGRANTS = 3;
+    static final byte ARRIVALS = 4;
+    static final byte BORDER = 5;
+    static final byte GHOSTS = 6;
+    static final byte DONE = 7;
+
+    // Modes of a TICK
+    static final byte RUN = 0;
+    static final byte CAPTURE = 1;
+    static final byte STOP = 2;
+
+    /**
+     * Starts a message in a buffer, replacing the buffer with a larger one
+     * if the payload would not fit.
+     *
+     * @param buffer Buffer to reuse
+     * @param type Message type
+     * @param payloadBytes Largest payload that will be written
+     * @return The buffer to write the payload to, positioned after the header
+     */
+    static ByteBuffer begin(ByteBuffer buffer, byte type, int payloadBytes) {
+        buffer = ensureCapacity(buffer, HEADER_SIZE + payloadBytes);
+        buffer.clear();
+        buffer.putInt(0);
+        buffer.put(type);
+        return buffer;
+    }
+
+    /**
+     * Fills in the length of a message started with begin and writes it.
+     *
+     * @param channel Blocking channel to write to
+     * @param buffer The message, positioned after its payload
+     * @throws IOException If the message cannot be written
+     */
+    static void send(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        send(channel, buffer, null, 0);
+    }
+
+    /**
+     * Fills in the length of a message started with begin and writes it,
+     * giving up if the peer stops reading for too long.
+     *
+     * @param channel Channel to write to; non-blocking if a key is given
+     * @param buffer The message, positioned after its payload
+     * @param key The channel's key in a selector of its own, or null for
+     *        a blocking channel
+     * @param timeoutMillis How long the peer may keep the message waiting
+     * @throws IOException If the message cannot be written in time
+     */
+    static void send(SocketChannel channel, ByteBuffer buffer, SelectionKey key, long timeoutMillis)
+            throws IOException {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        buffer.putInt(0, buffer.position() - HEADER_SIZE);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0 && key != null) {
+                await(key, SelectionKey.OP_WRITE, deadline);
+            }
+        }
+    }
+
+    /**
+     * Reads the next message, which must be of the given type.
+     *
+     * @param channel Blocking channel to read from
+     * @param buffer Buffer to reuse
+     * @param type Expected message type
+     * @return The buffer holding the payload, positioned at its start;
+     *         a larger one if the payload did not fit
+     * @throws IOException If the channel closes or the message is of another type
+     */
+    static ByteBuffer receive(SocketChannel channel, ByteBuffer buffer, byte type) throws IOException {
+        return receive(channel, buffer, type, null, 0);
+    }
+
+    /**
+     * Reads the next message, which must be of the given type, giving up
+     * if it does not arrive in time.
+     *
+     * @param channel Channel to read from; non-blocking if a key is given
+     * @param buffer Buffer to reuse
+     * @param type Expected message type
+     * @param key The channel's key in a selector of its own, or null for
+     *        a blocking channel
+     * @param timeoutMillis How long the message may take to arrive
+     * @return The buffer holding the payload, positioned at its start;
+     *         a larger one if the payload did not fit
+     * @throws IOException If the channel closes, the message is of another
+     *         type or it does not arrive in time
+     */
+    static ByteBuffer receive(SocketChannel channel, ByteBuffer buffer, byte type, SelectionKey key,
+            long timeoutMillis) throws IOException {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        buffer.clear().limit(HEADER_SIZE);
+        readFully(channel, buffer, key, deadline);
+        int length = buffer.getInt(0);
+        byte actual = buffer.get(4);
+        if (actual != type || length < 0) {
+            throw new IOException("Expected message " + type + ", got " + actual + " of " + length + " bytes");
+        }
+        buffer = ensureCapacity(buffer, length);
+        buffer.clear().limit(length);
+        readFully(channel, buffer, key, deadline);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Appends bytes of one buffer to another, leaving the source untouched.
+     *
+     * @param from Source buffer
+     * @param offset Position of the first byte to copy
+     * @param length Number of bytes to copy
+     * @param to Buffer to append to
+     */
+    static void copy(ByteBuffer from, int offset, int length, ByteBuffer to) {
+        ByteBuffer view = from.duplicate();
+        view.limit(offset + length).position(offset);
+        to.put(view);
+    }
+
+    /**
+     * @param buffer A buffer, or null
+     * @param bytes Capacity needed
+     * @return The buffer if it holds the given number of bytes, otherwise a
+     *         new, larger one
+     */
+    static ByteBuffer ensureCapacity(ByteBuffer buffer, int bytes) {
+        if (buffer != null && buffer.capacity() >= bytes) {
+            return buffer;
+        }
+        int capacity = Math.max(bytes, buffer == null ? 1 << 16 : buffer.capacity() * 2);
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer, SelectionKey key, long deadline)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                throw new EOFException("Connection closed");
+            }
+            if (read == 0 && key != null) {
+                await(key, SelectionKey.OP_READ, deadline);
+            }
+        }
+    }
+
+    /**
+     * Waits until a channel is ready for an operation.
+     *
+     * @param key The channel's key in a selector of its own
+     * @param operation SelectionKey.OP_READ or OP_WRITE
+     * @param deadline System.nanoTime() by which the channel must be ready
+     * @throws SocketTimeoutException If the deadline passes first
+     */
+    private static void await(SelectionKey key, int operation, long deadline) throws IOException {
+        long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("No progress within the timeout");
+        }
+        key.interestOps(operation);
+        // A zero timeout would block for good, so wait at least a millisecond
+        key.selector().select(Math.max(remaining, 1));
+        key.selector().selectedKeys().clear();
+    }
+}
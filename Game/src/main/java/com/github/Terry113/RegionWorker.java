@@ -0,0 +1,282 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One region of a distributed simulation, usually in a process of its own.
+ * A worker owns the units of its region in a {@link SimulationManager} and
+ * ticks them in lock-step with the other regions, as directed by a
+ * {@link RegionCoordinator}: it moves its units, hands over those that
+ * left the region, takes in those that arrived, shares its border units
+ * and senses with the neighbors' border units as ghosts in its index, the
+ * same steps a {@link RegionedWorld} takes in one process.
+ *
+ * Usage: RegionWorker HOST:PORT
+ */
+public class RegionWorker implements Runnable {
+    private final SocketChannel channel;
+    private ByteBuffer in = RegionProtocol.ensureCapacity(null, 0);
+    private ByteBuffer out = RegionProtocol.ensureCapacity(null, 0);
+    private RegionGrid grid;
+    private int region;
+    private SimulationManager simManager;
+    private int[] toLocal; // Team id on the wire -> team id in this process
+    private int[] toWire; // Team id in this process -> team id on the wire
+    private final List<List<Unit>> border = new ArrayList<>(9); // Neighbor offset -> border units seen from there
+    private final UnitStore ghostStore = new UnitStore(64); // Neighbors' border units, refilled every tick
+    private final SoldierBatch ghostBatch = new SoldierBatch(64);
+    private int[] ghostIds = new int[64]; // Ids of the ghosts in ghostBatch
+    private final List<Unit> ghosts = new ArrayList<>(); // Ghosts currently in the index
+
+    /**
+     * @param channel Connection to the coordinator
+     */
+    public RegionWorker(SocketChannel channel) {
+        this.channel = channel;
+        for (int k = 0; k < 9; k++) {
+            border.add(new ArrayList<Unit>());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length != 1 || args[0].lastIndexOf(':') < 0) {
+            System.err.println("Usage: RegionWorker HOST:PORT");
+            System.exit(2);
+        }
+        int colon = args[0].lastIndexOf(':');
+        InetSocketAddress address = new InetSocketAddress(args[0].substring(0, colon),
+            Integer.parseInt(args[0].substring(colon + 1)));
+        new RegionWorker(SocketChannel.open(address)).run();
+    }
+
+    /**
+     * Starts a worker in a new JVM with the same class path as this one.
+     *
+     * @param coordinator Address the coordinator accepts workers on
+     * @return The worker process
+     * @throws IOException If the process cannot be started
+     */
+    public static Process launch(InetSocketAddress coordinator) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            RegionWorker.class.getName(), coordinator.getHostString() + ":" + coordinator.getPort())
+            .inheritIO().start();
+    }
+
+    /**
+     * Serves the coordinator until it ends the run or the connection drops.
+     */
+    @Override
+    public void run() {
+        try {
+            in = RegionProtocol.receive(channel, in, RegionProtocol.SETUP);
+            setUp(in);
+            while (true) {
+                in = RegionProtocol.receive(channel, in, RegionProtocol.TICK);
+                byte mode = in.get();
+                if (mode == RegionProtocol.STOP) {
+                    return;
+                }
+                tick(mode == RegionProtocol.CAPTURE);
+            }
+        } catch (EOFException e) {
+            // The coordinator went away without stopping the run, as when its window is closed
+        } catch (IOException e) {
+            throw new IllegalStateException("Region " + region + " lost its coordinator: " + e.getMessage(), e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing is left to send
+            }
+        }
+    }
+
+    /**
+     * Builds the region's simulation from a SETUP payload.
+     */
+    private void setUp(ByteBuffer in) {
+        int width = in.getInt();
+        int height = in.getInt();
+        grid = new RegionGrid(width, height, in.getInt(), in.getInt());
+        region = in.getInt();
+        ThinkScheduler scheduler = new ThinkScheduler(in.getInt(), in.getInt());
+        simManager = new SimulationManager(width, height, grid.createIndex(region));
+        simManager.setThinkScheduler(scheduler);
+        ghostStore.setField(width, height);
+
+        toLocal = new int[in.getInt()];
+        for (int t = 0; t < toLocal.length; t++) {
+            toLocal[t] = UnitStore.teamOf(new Color(in.getInt(), true));
+        }
+        int localTeams = 0;
+        for (int team : toLocal) {
+            localTeams = Math.max(localTeams, team + 1);
+        }
+        toWire = new int[localTeams];
+        for (int t = 0; t < toLocal.length; t++) {
+            toWire[toLocal[t]] = t;
+        }
+        TeamRelations.Relation[] relations = TeamRelations.Relation.values();
+        for (int a = 0; a < toLocal.length; a++) {
+            for (int b = 0; b < toLocal.length; b++) {
+                TeamRelations.Relation relation = relations[in.get()];
+                // Only changed pairs are set, as when restoring a checkpoint
+                if (relation != (a == b ? TeamRelations.Relation.ALLY : TeamRelations.Relation.ENEMY)) {
+                    simManager.getTeamRelations().set(toLocal[a], toLocal[b], relation);
+                }
+            }
+        }
+
+        int n = in.getInt();
+        SoldierBatch batch = new SoldierBatch(n);
+        int[] ids = new int[n];
+        for (int k = 0; k < n; k++) {
+            batch.append(in.getFloat(), in.getFloat(), in.getFloat(), in.getFloat(), in.getFloat(),
+                toLocal[in.getInt()], in.getInt(), in.getLong());
+            ids[k] = in.getInt();
+        }
+        simManager.addSoldiers(batch, ids);
+    }
+
+    /**
+     * Runs one tick, exchanging units with the coordinator between phases.
+     *
+     * @param capture Whether to send every unit for drawing at the end
+     */
+    private void tick(boolean capture) throws IOException {
+        simManager.moveUnits();
+        simManager.refreshSpatialIndex();
+        sendMigrants();
+
+        in = RegionProtocol.receive(channel, in, RegionProtocol.ARRIVALS);
+        UnitStore store = simManager.getUnitStore();
+        SpatialIndex index = simManager.getSpatialIndex();
+        for (int n = in.getInt(); n > 0; n--) {
+            index.insert(store.readSoldier(in, in.getInt(), toLocal));
+        }
+        sendBorder();
+
+        in = RegionProtocol.receive(channel, in, RegionProtocol.GHOSTS);
+        insertGhosts(in);
+        simManager.senseAndDecide();
+        for (int n = 0; n < ghosts.size(); n++) {
+            Unit ghost = ghosts.get(n);
+            index.remove(ghost, ghost.getX(), ghost.getY());
+        }
+        ghosts.clear();
+        sendDone(capture);
+    }
+
+    /**
+     * Takes the units that left the region out of it and sends them on.
+     */
+    private void sendMigrants() throws IOException {
+        UnitStore store = simManager.getUnitStore();
+        List<Unit> units = simManager.getUnits();
+        out = RegionProtocol.begin(out, RegionProtocol.MIGRANTS, 4 + units.size() * RegionProtocol.MIGRANT_BYTES);
+        int countPosition = out.position();
+        out.putInt(0);
+        int count = 0;
+        // Walk down, since a removal moves the last unit into the gap
+        for (int i = units.size() - 1; i >= 0; i--) {
+            Unit unit = units.get(i);
+            int target = grid.regionOf(unit.getX(), unit.getY());
+            if (target != region) {
+                simManager.getSpatialIndex().remove(unit, unit.getX(), unit.getY());
+                out.putInt(target).putInt(store.getId(i));
+                store.writeSlot(i, out, toWire);
+                store.discard(i);
+                count++;
+            }
+        }
+        out.putInt(countPosition, count);
+        RegionProtocol.send(channel, out);
+    }
+
+    /**
+     * Sends the units near the region's border, sorted by the neighbors
+     * that can see them.
+     */
+    private void sendBorder() throws IOException {
+        UnitStore store = simManager.getUnitStore();
+        grid.sortBorderUnits(region, simManager.getUnits(), border, 0);
+        int total = 0;
+        for (int k = 0; k < 9; k++) {
+            total += border.get(k).size();
+        }
+        out = RegionProtocol.begin(out, RegionProtocol.BORDER, 9 * 4 + total * RegionProtocol.GHOST_BYTES);
+        for (int k = 0; k < 9; k++) {
+            List<Unit> units = border.get(k);
+            out.putInt(units.size());
+            for (int n = 0; n < units.size(); n++) {
+                Unit unit = units.get(n);
+                out.putFloat(unit.getX()).putFloat(unit.getY()).putInt(toWire[store.team[unit.index]]);
+                out.putInt(store.getId(unit.index));
+            }
+        }
+        RegionProtocol.send(channel, out);
+    }
+
+    /**
+     * Puts the neighbors' border units into the index for this tick's
+     * sensing. Ghosts only carry what sensing reads: position, team and
+     * the id that breaks ties between equally distant units.
+     */
+    private void insertGhosts(ByteBuffer in) {
+        ghostBatch.clear();
+        int n = in.getInt();
+        if (ghostIds.length < n) {
+            ghostIds = new int[Math.max(n, ghostIds.length * 2)];
+        }
+        for (int k = 0; k < n; k++) {
+            ghostBatch.append(in.getFloat(), in.getFloat(), 0, 0, 0, toLocal[in.getInt()], 0, 0);
+            ghostIds[k] = in.getInt();
+        }
+        ghostStore.clear();
+        ghostStore.addSoldiers(ghostBatch, ghostIds);
+        SpatialIndex index = simManager.getSpatialIndex();
+        List<Unit> views = ghostStore.asList();
+        for (int i = 0; i < views.size(); i++) {
+            if (index.insert(views.get(i))) {
+                ghosts.add(views.get(i));
+            }
+        }
+    }
+
+    /**
+     * Ends the tick, sending every unit for drawing if asked to.
+     */
+    private void sendDone(boolean capture) throws IOException {
+        UnitStore store = simManager.getUnitStore();
+        int n = store.size();
+        out = RegionProtocol.begin(out, RegionProtocol.DONE, 4 + (capture ? n * RegionProtocol.RENDER_UNIT_BYTES : 0));
+        out.putInt(n);
+        if (capture) {
+            for (int i = 0; i < n; i++) {
+                out.putInt(store.getId(i));
+                out.putFloat(store.x[i]).putFloat(store.y[i]).putFloat(store.vx[i]).putFloat(store.vy[i]);
+                out.putFloat(store.angle[i]);
+                out.putInt(toWire[store.team[i]]).putInt(store.size[i]);
+                out.put(store.state[i]);
+            }
+        }
+        RegionProtocol.send(channel, out);
+    }
+
+    /**
+     * @return The simulation of this worker's region, once set up
+     */
+    SimulationManager getSimulationManager() {
+        return simManager;
+    }
+}
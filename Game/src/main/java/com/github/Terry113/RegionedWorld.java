@@ -0,0 +1,312 @@
+package com.github.Terry113;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A field split into a grid of rectangular regions, each a
+ * {@link SimulationManager} with its own unit store and spatial index.
+ * Regions tick side by side on worker threads and only meet at two serial
+ * points per tick:
+ *
+ * - Migration: after moving, units that left their region are handed to
+ *   the region they are now in, keeping their random stream and state.
+ * - Halo exchange: units within DETECTION_RADIUS of a region's border are
+ *   inserted as ghosts into the indexes of the neighboring regions they
+ *   can be seen from. Ghosts are the neighbor's own unit views, not
+ *   copies; a region senses them but never moves them, and they leave its
+ *   index again once sensing is done.
+ *
+ * Every region's field is the whole world, so random targets and the
+ * bounce off the edges are the same as in a single simulation, and so are
+ * the nearest units soldiers react to. All regions take unit ids from one
+ * pool and units keep their ids when they migrate, so ties between equally
+ * distant units and the think scheduler's stagger come out as in a single
+ * simulation too. Sensing always uses one nearest query per soldier, since
+ * the pairwise pass does not see ghosts.
+ */
+public class RegionedWorld {
+    private final RegionGrid grid;
+    private final TeamRelations relations = new TeamRelations(); // Shared by all regions
+    private final UnitIds ids = new UnitIds(64); // Shared by all regions
+    private final SimulationManager[] regions; // Row-major
+    private final List<List<Unit>> outbound; // Region * 9 + neighbor offset -> border units seen from there
+    private final List<List<Unit>> ghosts; // Region -> ghosts currently in its index
+    private ForkJoinPool pool; // Null when ticking on the calling thread only
+
+    /**
+     * Creates an empty world.
+     *
+     * @param width Width of the simulation area
+     * @param height Height of the simulation area
+     * @param columns Number of regions across
+     * @param rows Number of regions down
+     */
+    public RegionedWorld(int width, int height, int columns, int rows) {
+        this.grid = new RegionGrid(width, height, columns, rows);
+        this.regions = new SimulationManager[grid.size()];
+        this.outbound = new ArrayList<>(regions.length * 9);
+        this.ghosts = new ArrayList<>(regions.length);
+        for (int region = 0; region < regions.length; region++) {
+            regions[region] = new SimulationManager(width, height, grid.createIndex(region), relations, ids);
+        }
+        for (int i = 0; i < regions.length * 9; i++) {
+            outbound.add(new ArrayList<Unit>());
+        }
+        for (int i = 0; i < regions.length; i++) {
+            ghosts.add(new ArrayList<Unit>());
+        }
+    }
+
+    /**
+     * Adds a new unit to the region containing it.
+     *
+     * @param unit The unit to add
+     */
+    public void addUnit(Unit unit) {
+        regions[grid.regionOf(unit.getX(), unit.getY())].addUnit(unit);
+    }
+
+    /**
+     * Adds every soldier of a batch to the regions containing them, in
+     * batch order within each region. The soldiers get their ids in batch
+     * order, as in a single simulation.
+     *
+     * @param batch The soldiers to add; the batch can be reused afterwards
+     */
+    public void addSoldiers(SoldierBatch batch) {
+        UnitStore spawned = new UnitStore(batch.size(), ids);
+        spawned.setField(getWidth(), getHeight());
+        spawned.addSoldiers(batch);
+        Unit[] soldiers = spawned.asList().toArray(new Unit[0]);
+        for (Unit soldier : soldiers) {
+            addUnit(soldier);
+        }
+    }
+
+    /**
+     * Advances every region by one tick.
+     */
+    public void update() {
+        long tickStart = SimulationMetrics.ENABLED ? System.nanoTime() : 0;
+        run(RegionTask.MOVE);
+        migrate();
+        run(RegionTask.COLLECT);
+        run(RegionTask.SENSE);
+
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.endTick(System.nanoTime() - tickStart);
+        }
+    }
+
+    /**
+     * Runs one phase for every region, in parallel when a pool is set.
+     */
+    private void run(int phase) {
+        if (pool == null) {
+            for (int region = 0; region < regions.length; region++) {
+                runRegion(phase, region);
+            }
+        } else {
+            pool.invoke(new RegionTask(phase, 0, regions.length));
+        }
+    }
+
+    /**
+     * Runs one phase for one region.
+     */
+    private void runRegion(int phase, int region) {
+        SimulationManager manager = regions[region];
+        if (phase == RegionTask.MOVE) {
+            manager.moveUnits();
+            manager.refreshSpatialIndex();
+        } else if (phase == RegionTask.COLLECT) {
+            grid.sortBorderUnits(region, manager.getUnits(), outbound, region * 9);
+        } else {
+            insertGhosts(region);
+            manager.senseAndDecide();
+            removeGhosts(region);
+        }
+    }
+
+    /**
+     * Hands every unit that left its region to the region it is now in.
+     * Runs serially, region by region, so the slots units end up in do not
+     * depend on the thread count.
+     */
+    private void migrate() {
+        for (int region = 0; region < regions.length; region++) {
+            SimulationManager source = regions[region];
+            List<Unit> units = source.getUnits();
+            // Walk down, since a removal moves the last unit into the gap
+            for (int i = units.size() - 1; i >= 0; i--) {
+                Unit unit = units.get(i);
+                int target = grid.regionOf(unit.getX(), unit.getY());
+                if (target != region) {
+                    source.getSpatialIndex().remove(unit, unit.getX(), unit.getY());
+                    regions[target].addUnit(unit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts the border units of the neighboring regions that can be seen
+     * from a region into its index.
+     */
+    private void insertGhosts(int region) {
+        SpatialIndex index = regions[region].getSpatialIndex();
+        List<Unit> inserted = ghosts.get(region);
+        for (int offset = 0; offset < 9; offset++) {
+            int neighbor = grid.neighbor(region, offset);
+            if (offset == RegionGrid.SELF || neighbor < 0) {
+                continue;
+            }
+            // The neighbor's list for the offset pointing back at this region
+            List<Unit> border = outbound.get(neighbor * 9 + 8 - offset);
+            for (int n = 0; n < border.size(); n++) {
+                Unit ghost = border.get(n);
+                if (index.insert(ghost)) {
+                    inserted.add(ghost);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a region's ghosts out of its index again. Their owners have not
+     * moved them since they were inserted, so they are found at the same
+     * positions.
+     */
+    private void removeGhosts(int region) {
+        SpatialIndex index = regions[region].getSpatialIndex();
+        List<Unit> inserted = ghosts.get(region);
+        for (int n = 0; n < inserted.size(); n++) {
+            Unit ghost = inserted.get(n);
+            index.remove(ghost, ghost.getX(), ghost.getY());
+        }
+        inserted.clear();
+    }
+
+    /**
+     * Sets how many threads tick regions at the same time.
+     *
+     * @param threads Number of worker threads, 1 to tick on the calling thread
+     */
+    public void setThreadCount(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     * @return Number of threads ticking regions at the same time
+     */
+    public int getThreadCount() {
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    /**
+     * Sets how often soldiers sense and decide, in every region.
+     *
+     * @param scheduler Which soldiers think on each tick
+     */
+    public void setThinkScheduler(ThinkScheduler scheduler) {
+        for (SimulationManager region : regions) {
+            region.setThinkScheduler(scheduler);
+        }
+    }
+
+    /**
+     * @return How teams regard each other in every region; changes apply
+     *         from the next tick
+     */
+    public TeamRelations getTeamRelations() {
+        return relations;
+    }
+
+    /**
+     * @param column Column of the region, from the left
+     * @param row Row of the region, from the top
+     * @return The region's simulation
+     */
+    public SimulationManager getRegion(int column, int row) {
+        return regions[row * grid.getColumns() + column];
+    }
+
+    /**
+     * @return Number of regions across
+     */
+    public int getColumns() {
+        return grid.getColumns();
+    }
+
+    /**
+     * @return Number of regions down
+     */
+    public int getRows() {
+        return grid.getRows();
+    }
+
+    /**
+     * @return Number of units in all regions
+     */
+    public int size() {
+        int size = 0;
+        for (SimulationManager region : regions) {
+            size += region.getUnits().size();
+        }
+        return size;
+    }
+
+    /**
+     * @return Width of the simulation area
+     */
+    public int getWidth() {
+        return grid.getWidth();
+    }
+
+    /**
+     * @return Height of the simulation area
+     */
+    public int getHeight() {
+        return grid.getHeight();
+    }
+
+    /**
+     * Runs one phase of a tick over a range of regions, one task per region.
+     */
+    private class RegionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        static final int MOVE = 0;
+        static final int COLLECT = 1;
+        static final int SENSE = 2;
+
+        private final int phase;
+        private final int from;
+        private final int to;
+
+        RegionTask(int phase, int from, int to) {
+            this.phase = phase;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RegionTask(phase, from, mid), new RegionTask(phase, mid, to));
+            } else {
+                runRegion(phase, from);
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.util.List;
+
+/**
+ * Copy of everything needed to draw one simulation tick, held in primitive
+ * arrays indexed like the store slots at capture time. Snapshots are
+ * recycled by {@link SnapshotExchange}: once published, a snapshot is not
+ * written again until the renderer has handed it back, so readers can treat
+ * it as immutable.
+ */
+public final class RenderSnapshot {
+    static final byte NO_STATE = -1; // State recorded for units that are not soldiers
+
+    private volatile long sequence = -1; // Increases with every snapshot published, -1 before the first
+    private long tick = -1; // Tick the snapshot shows, -1 before the first capture
+    private long time; // System.nanoTime() at capture
+    private int count; // Number of units
+    private int largestSize; // Largest drawn size of any unit
+    private int fieldWidth, fieldHeight;
+    private Color[] palette = new Color[0]; // Team id -> color at capture
+
+    // Unit columns, valid for [0, count)
+    int[] id = new int[0]; // Stable unit id, used to match units across snapshots
+    float[] x = new float[0], y = new float[0];
+    float[] vx = new float[0], vy = new float[0]; // Velocity, zero for snapshots loaded from replays
+    float[] angle = new float[0]; // Facing angle while not moving, see angleOf
+    int[] team = new int[0];
+    int[] size = new int[0];
+    byte[] state = new byte[0]; // Soldier.State ordinal, or NO_STATE
+
+    // Regions of the spatial index; a quadtree's leaves are only copied when the tree has changed
+    private SpatialIndex regionSource; // Index the regions were copied from
+    private long structureVersion = -1; // Quadtree versions at capture, -1 for other indexes
+    private long contentVersion = -1;
+    private int regionCount;
+    float[] regionBounds = new float[0]; // x, y, width, height per region
+    int[] regionCounts = new int[0]; // Units per region
+    int[] regionTeams = new int[0]; // Team with the most units per region, -1 if empty
+
+    /**
+     * Copies the current state of a simulation into this snapshot.
+     *
+     * @param simManager The simulation, not ticking while it is copied
+     * @param tick Number of ticks the simulation has run
+     */
+    void capture(SimulationManager simManager, long tick) {
+        UnitStore store = simManager.getUnitStore();
+        int n = store.size();
+        ensureCapacity(n);
+        int largest = 0;
+        for (int i = 0; i < n; i++) {
+            id[i] = store.getId(i);
+            largest = Math.max(largest, store.size[i]);
+        }
+        System.arraycopy(store.x, 0, x, 0, n);
+        System.arraycopy(store.y, 0, y, 0, n);
+        System.arraycopy(store.vx, 0, vx, 0, n);
+        System.arraycopy(store.vy, 0, vy, 0, n);
+        System.arraycopy(store.angle, 0, angle, 0, n);
+        System.arraycopy(store.team, 0, team, 0, n);
+        System.arraycopy(store.size, 0, size, 0, n);
+        System.arraycopy(store.state, 0, state, 0, n);
+        if (!store.allSoldiers()) {
+            List<Unit> units = store.asList();
+            for (int i = 0; i < n; i++) {
+                if (!(units.get(i) instanceof Soldier)) {
+                    state[i] = NO_STATE;
+                }
+            }
+        }
+        this.count = n;
+        this.largestSize = largest;
+        captureRegions(simManager.getSpatialIndex());
+        this.fieldWidth = simManager.getWidth();
+        this.fieldHeight = simManager.getHeight();
+        this.palette = UnitStore.teamPalette();
+        this.time = System.nanoTime();
+        this.tick = tick;
+        this.sequence = tick; // Written last; readers only compare sequences of published snapshots
+    }
+
+    /**
+     * Finishes a snapshot whose unit columns were filled from a replay.
+     * Replays carry no spatial index, so the snapshot has no regions.
+     *
+     * @param tick Recorded tick the snapshot shows
+     * @param sequence Number larger than that of any snapshot published before
+     * @param count Number of units filled in
+     * @param fieldWidth Width of the recorded simulation
+     * @param fieldHeight Height of the recorded simulation
+     * @param palette Team id -> color of the recording
+     */
+    void load(long tick, long sequence, int count, int fieldWidth, int fieldHeight, Color[] palette) {
+        this.count = count;
+        int largest = 0;
+        for (int i = 0; i < count; i++) {
+            largest = Math.max(largest, size[i]);
+        }
+        this.largestSize = largest;
+        regionSource = null;
+        structureVersion = -1;
+        contentVersion = -1;
+        regionCount = 0;
+        this.fieldWidth = fieldWidth;
+        this.fieldHeight = fieldHeight;
+        this.palette = palette;
+        this.time = System.nanoTime();
+        this.tick = tick;
+        this.sequence = sequence; // Written last, as in capture
+    }
+
+    /**
+     * Works out a unit's facing angle, which is left to drawing time since
+     * most captured ticks are never drawn.
+     *
+     * @param i Index of the unit
+     * @return Facing angle in radians, as from {@link UnitStore#angleOf}
+     */
+    float angleOf(int i) {
+        float u = vx[i];
+        float v = vy[i];
+        return u != 0 || v != 0 ? (float) Math.atan2(v, u) : angle[i];
+    }
+
+    /**
+     * Makes room for the given number of units in every column.
+     *
+     * @param n Number of units
+     */
+    void ensureCapacity(int n) {
+        if (x.length < n) {
+            int capacity = Math.max(n, x.length * 2);
+            id = new int[capacity];
+            x = new float[capacity];
+            y = new float[capacity];
+            vx = new float[capacity];
+            vy = new float[capacity];
+            angle = new float[capacity];
+            team = new int[capacity];
+            size = new int[capacity];
+            state = new byte[capacity];
+        }
+    }
+
+    /**
+     * Copies the regions of a spatial index. A quadtree is skipped if this
+     * snapshot already holds the same version of the same tree.
+     *
+     * @param index The simulation's spatial index
+     */
+    private void captureRegions(SpatialIndex index) {
+        QuadtreeNode tree = index instanceof QuadtreeNode ? (QuadtreeNode) index : null;
+        if (tree != null && tree == regionSource && tree.getStructureVersion() == structureVersion
+                && tree.getContentVersion() == contentVersion) {
+            return;
+        }
+        regionCount = index.exportRegions(regionBounds, regionCounts, regionTeams);
+        if (regionCount > regionCounts.length) {
+            regionBounds = new float[regionCount * 4];
+            regionCounts = new int[regionCount];
+            regionTeams = new int[regionCount];
+            index.exportRegions(regionBounds, regionCounts, regionTeams);
+        }
+        regionSource = index;
+        structureVersion = tree != null ? tree.getStructureVersion() : -1;
+        contentVersion = tree != null ? tree.getContentVersion() : -1;
+    }
+
+    /**
+     * @return Publication order of the snapshot, -1 before the first capture
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return Tick the snapshot shows, or -1 if nothing was captured yet
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return System.nanoTime() at which the snapshot was captured
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return Number of units in the snapshot
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return Largest drawn size of any unit, in simulation units
+     */
+    public int getLargestSize() {
+        return largestSize;
+    }
+
+    /**
+     * @return Number of spatial index regions in the snapshot
+     */
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    /**
+     * @return Structure version of the captured quadtree, -1 without a quadtree
+     */
+    public long getStructureVersion() {
+        return structureVersion;
+    }
+
+    /**
+     * @return Content version of the captured quadtree, -1 without a quadtree
+     */
+    public long getContentVersion() {
+        return contentVersion;
+    }
+
+    public int getFieldWidth() {
+        return fieldWidth;
+    }
+
+    public int getFieldHeight() {
+        return fieldHeight;
+    }
+
+    /**
+     * @param i Index of a unit in the snapshot
+     * @return The unit's team color
+     */
+    public Color getColor(int i) {
+        return palette[team[i]];
+    }
+
+    /**
+     * @param team A team id
+     * @return The team's color
+     */
+    public Color getTeamColor(int team) {
+        return palette[team];
+    }
+}
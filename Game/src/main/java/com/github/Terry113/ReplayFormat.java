@@ -0,0 +1,59 @@
+package com.github.Terry113;
+
+/**
+ * Layout of replay files written by {@link ReplayRecorder} and read by
+ * {@link ReplayPlayer}. All values are little-endian.
+ *
+ * A file starts with a header: magic, version, header size (shorts),
+ * field width, field height, keyframe interval, a reserved int and the
+ * offset of the index, 0 until the recording is closed.
+ *
+ * Frames follow back to back, each with a header of type (byte), tick
+ * (long), unit count (int) and payload length (int). Payloads are stored
+ * column by column:
+ * <ul>
+ * <li>Keyframe: team count and RGB of every team, then ids, x and y as
+ *     fixed-point ints, vx, vy, angle, team and size as shorts, and state
+ *     as bytes.</li>
+ * <li>Delta: x and y as short differences from the previous frame, then
+ *     vx, vy and angle as shorts and state as bytes. A delta frame holds
+ *     the same units in the same slots as the frame before it.</li>
+ * </ul>
+ *
+ * The index lists every keyframe: keyframe count (int), last tick (long),
+ * then tick and file offset (longs) per keyframe. Seeking decodes from the
+ * nearest keyframe at or before the wanted tick.
+ */
+final class ReplayFormat {
+    static final int MAGIC = 0x59504C52; // "RPLY" in little-endian byte order
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int INDEX_OFFSET_POSITION = 24; // Position of the index offset in the header
+    static final int FRAME_HEADER_SIZE = 17;
+    static final int KEYFRAME_UNIT_BYTES = 23;
+    static final int DELTA_UNIT_BYTES = 11;
+    static final int INDEX_ENTRY_BYTES = 16;
+
+    static final byte KEYFRAME = 1;
+    static final byte DELTA = 2;
+
+    static final float POSITION_SCALE = 16; // Fixed-point steps per simulation unit
+    static final float VELOCITY_SCALE = 1024; // Fixed-point steps per unit per tick
+    static final float ANGLE_SCALE = (float) (65536 / (Math.PI * 2)); // Steps per radian, wrapping at a full turn
+
+    static int quantizePosition(float value) {
+        return Math.round(value * POSITION_SCALE);
+    }
+
+    static short quantizeVelocity(float value) {
+        int q = Math.round(value * VELOCITY_SCALE);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+    }
+
+    /**
+     * @return The angle in 1/65536 turns; the cast wraps it to one turn
+     */
+    static short quantizeAngle(float angle) {
+        return (short) Math.round(angle * ANGLE_SCALE);
+    }
+}
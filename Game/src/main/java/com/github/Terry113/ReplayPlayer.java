@@ -0,0 +1,516 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays back a file written by {@link ReplayRecorder}. Frames are decoded
+ * straight from the memory-mapped file into render snapshots, without
+ * creating any units, and published like a running {@link SimulationLoop}
+ * would, so a {@link SimulationRenderer} can show a replay unchanged.
+ *
+ * The file is mapped one keyframe segment at a time. Seeking decodes from
+ * the nearest keyframe at or before the wanted tick, so scrubbing to any
+ * tick costs at most one keyframe interval of frames.
+ *
+ * Decoding is done on the player's own thread once started; until then the
+ * decoding methods may be called directly.
+ */
+public class ReplayPlayer implements Runnable, SnapshotSource, Closeable {
+    private static final long NO_SEEK = Long.MIN_VALUE;
+    private static final long IDLE_WAIT = 10_000_000L; // Nanoseconds to wait while paused or at the end
+    private static final int MAX_CATCH_UP_TICKS = 5; // Frames played back to back before the schedule is reset
+
+    private final FileChannel channel;
+    private final int fieldWidth, fieldHeight;
+    private final int keyframeInterval;
+    private long framesEnd; // File offset just past the last complete frame
+    private long lastTick = -1;
+    private long[] keyTicks = new long[0];
+    private long[] keyOffsets = new long[0];
+    private int keyCount;
+
+    // Mapped keyframe segment holding the frames being decoded
+    private MappedByteBuffer segment;
+    private long segmentStart = -1, segmentEnd = -1;
+
+    // Decoded state of the current frame, quantized as in the file
+    private volatile long tick = -1; // Read by other threads for display
+    private long nextFrame; // File offset of the frame after the current one
+    private int count;
+    private Color[] palette = new Color[0];
+    private int[] ids = new int[0], qx = new int[0], qy = new int[0];
+    private short[] vx = new short[0], vy = new short[0], angle = new short[0];
+    private short[] dx = new short[0], dy = new short[0];
+    private short[] team = new short[0], size = new short[0];
+    private byte[] state = new byte[0];
+
+    // Playback on the player thread
+    private final SnapshotExchange snapshots = new SnapshotExchange();
+    private final long basePeriod = 1_000_000_000L / Constants.TICKS_PER_SECOND;
+    private final AtomicLong seekRequest = new AtomicLong(NO_SEEK);
+    private volatile double speed = 1;
+    private volatile boolean paused;
+    private volatile boolean running;
+    private Thread thread;
+    private long published; // Snapshots published so far
+
+    /**
+     * Opens a replay file and reads its keyframe index. A recording that
+     * was not closed has no index; it is rebuilt by scanning the frames.
+     *
+     * @param path The replay file
+     * @throws IOException If the file cannot be read or is not a replay
+     */
+    public ReplayPlayer(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, ReplayFormat.HEADER_SIZE);
+            if (header.getInt() != ReplayFormat.MAGIC) {
+                throw new IOException("Not a replay file: " + path);
+            }
+            short version = header.getShort();
+            if (version != ReplayFormat.VERSION) {
+                throw new IOException("Unsupported replay version " + version + ": " + path);
+            }
+            header.getShort();
+            fieldWidth = header.getInt();
+            fieldHeight = header.getInt();
+            keyframeInterval = header.getInt();
+            header.getInt();
+            long indexOffset = header.getLong();
+            if (indexOffset > 0) {
+                readIndex(indexOffset);
+            } else {
+                scanFrames();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the keyframe index written when the recording was closed.
+     */
+    private void readIndex(long indexOffset) throws IOException {
+        ByteBuffer index = read(indexOffset, 12);
+        keyCount = index.getInt();
+        lastTick = index.getLong();
+        keyTicks = new long[keyCount];
+        keyOffsets = new long[keyCount];
+        index = read(indexOffset + 12, keyCount * ReplayFormat.INDEX_ENTRY_BYTES);
+        for (int k = 0; k < keyCount; k++) {
+            keyTicks[k] = index.getLong();
+            keyOffsets[k] = index.getLong();
+        }
+        framesEnd = indexOffset;
+    }
+
+    /**
+     * Rebuilds the keyframe index from the frame headers, ignoring a last
+     * frame that was only partly written.
+     */
+    private void scanFrames() throws IOException {
+        long size = channel.size();
+        long offset = ReplayFormat.HEADER_SIZE;
+        keyTicks = new long[16];
+        keyOffsets = new long[16];
+        while (offset + ReplayFormat.FRAME_HEADER_SIZE <= size) {
+            ByteBuffer frame = read(offset, ReplayFormat.FRAME_HEADER_SIZE);
+            byte type = frame.get();
+            long frameTick = frame.getLong();
+            frame.getInt();
+            long end = offset + ReplayFormat.FRAME_HEADER_SIZE + frame.getInt();
+            if (end > size || (type != ReplayFormat.KEYFRAME && type != ReplayFormat.DELTA)) {
+                break;
+            }
+            if (type == ReplayFormat.KEYFRAME) {
+                if (keyCount == keyTicks.length) {
+                    keyTicks = Arrays.copyOf(keyTicks, keyCount * 2);
+                    keyOffsets = Arrays.copyOf(keyOffsets, keyCount * 2);
+                }
+                keyTicks[keyCount] = frameTick;
+                keyOffsets[keyCount] = offset;
+                keyCount++;
+            }
+            if (keyCount > 0) {
+                lastTick = frameTick;
+                framesEnd = end;
+            }
+            offset = end;
+        }
+    }
+
+    private ByteBuffer read(long offset, int bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Replay file ends early");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes the frame of a tick, or of the last recorded tick before it.
+     * Seeking forward within a segment decodes on from the current frame;
+     * anything else starts over from the nearest keyframe.
+     *
+     * @param target The tick to show, clamped to the recorded range
+     * @return The tick of the decoded frame, -1 if the replay is empty
+     * @throws IOException If the file cannot be mapped
+     */
+    long seek(long target) throws IOException {
+        if (keyCount == 0) {
+            return -1;
+        }
+        int k = keyframeBefore(target);
+        if (tick < 0 || target < tick || keyTicks[k] > tick) {
+            tick = -1;
+            nextFrame = keyOffsets[k];
+        }
+        while (nextFrame < framesEnd && peekTick(nextFrame) <= target) {
+            decodeNext();
+        }
+        if (tick < 0) {
+            decodeNext(); // Before the first tick: show the first frame
+        }
+        return tick;
+    }
+
+    /**
+     * Decodes the frame after the current one.
+     *
+     * @return false if the current frame is the last one
+     * @throws IOException If the file cannot be mapped
+     */
+    boolean step() throws IOException {
+        if (nextFrame >= framesEnd || (tick < 0 && keyCount == 0)) {
+            return false;
+        }
+        if (tick < 0) {
+            nextFrame = keyOffsets[0];
+        }
+        decodeNext();
+        return true;
+    }
+
+    /**
+     * @return Index of the last keyframe at or before a tick, or the first keyframe
+     */
+    private int keyframeBefore(long target) {
+        int k = Arrays.binarySearch(keyTicks, 0, keyCount, target);
+        if (k < 0) {
+            k = -k - 2;
+        }
+        return Math.max(k, 0);
+    }
+
+    private long peekTick(long offset) throws IOException {
+        ByteBuffer frame = map(offset);
+        return frame.getLong((int) (offset - segmentStart) + 1);
+    }
+
+    /**
+     * Maps the keyframe segment holding a frame, unless it is already mapped.
+     *
+     * @return The mapped segment
+     */
+    private ByteBuffer map(long offset) throws IOException {
+        if (offset < segmentStart || offset >= segmentEnd) {
+            int k = keyframeAt(offset);
+            long start = keyOffsets[k];
+            long end = k + 1 < keyCount ? keyOffsets[k + 1] : framesEnd;
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Replay segment too large to map: " + (end - start) + " bytes");
+            }
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segmentStart = start;
+            segmentEnd = end;
+        }
+        return segment;
+    }
+
+    /**
+     * @return Index of the keyframe whose segment holds a file offset
+     */
+    private int keyframeAt(long offset) {
+        int k = Arrays.binarySearch(keyOffsets, 0, keyCount, offset);
+        return k >= 0 ? k : Math.max(-k - 2, 0);
+    }
+
+    /**
+     * Decodes the frame at nextFrame on top of the current one.
+     */
+    private void decodeNext() throws IOException {
+        ByteBuffer frame = map(nextFrame);
+        frame.position((int) (nextFrame - segmentStart));
+        byte type = frame.get();
+        long frameTick = frame.getLong();
+        int n = frame.getInt();
+        int payload = frame.getInt();
+        if (type == ReplayFormat.KEYFRAME) {
+            ensureCapacity(n);
+            Color[] colors = new Color[frame.getInt()];
+            for (int t = 0; t < colors.length; t++) {
+                colors[t] = new Color(frame.getInt());
+            }
+            palette = colors;
+            frame.asIntBuffer().get(ids, 0, n);
+            frame.position(frame.position() + 4 * n);
+            frame.asIntBuffer().get(qx, 0, n);
+            frame.position(frame.position() + 4 * n);
+            frame.asIntBuffer().get(qy, 0, n);
+            frame.position(frame.position() + 4 * n);
+        } else {
+            if (tick < 0 || n != count) {
+                throw new IOException("Delta frame at " + nextFrame + " does not follow a matching frame");
+            }
+            getShorts(frame, dx, n);
+            getShorts(frame, dy, n);
+            for (int i = 0; i < n; i++) {
+                qx[i] += dx[i];
+                qy[i] += dy[i];
+            }
+        }
+        getShorts(frame, vx, n);
+        getShorts(frame, vy, n);
+        getShorts(frame, angle, n);
+        if (type == ReplayFormat.KEYFRAME) {
+            getShorts(frame, team, n);
+            getShorts(frame, size, n);
+        }
+        frame.get(state, 0, n);
+        count = n;
+        tick = frameTick;
+        nextFrame += ReplayFormat.FRAME_HEADER_SIZE + payload;
+    }
+
+    private static void getShorts(ByteBuffer frame, short[] into, int n) {
+        frame.asShortBuffer().get(into, 0, n);
+        frame.position(frame.position() + 2 * n);
+    }
+
+    private void ensureCapacity(int n) {
+        if (ids.length < n) {
+            int capacity = Math.max(n, ids.length * 2);
+            ids = new int[capacity];
+            qx = new int[capacity];
+            qy = new int[capacity];
+            vx = new short[capacity];
+            vy = new short[capacity];
+            angle = new short[capacity];
+            dx = new short[capacity];
+            dy = new short[capacity];
+            team = new short[capacity];
+            size = new short[capacity];
+            state = new byte[capacity];
+        }
+    }
+
+    /**
+     * Copies the current frame into a snapshot.
+     *
+     * @param snapshot The snapshot to fill
+     * @param sequence Publication order of the snapshot
+     */
+    void fill(RenderSnapshot snapshot, long sequence) {
+        snapshot.ensureCapacity(count);
+        float positionStep = 1 / ReplayFormat.POSITION_SCALE;
+        float angleStep = 1 / ReplayFormat.ANGLE_SCALE;
+        for (int i = 0; i < count; i++) {
+            snapshot.id[i] = ids[i];
+            snapshot.x[i] = qx[i] * positionStep;
+            snapshot.y[i] = qy[i] * positionStep;
+            snapshot.vx[i] = 0;
+            snapshot.vy[i] = 0;
+            snapshot.angle[i] = angle[i] * angleStep;
+            snapshot.team[i] = team[i];
+            snapshot.size[i] = size[i];
+            snapshot.state[i] = state[i];
+        }
+        snapshot.load(tick, sequence, count, fieldWidth, fieldHeight, palette);
+    }
+
+    /**
+     * Starts playing on a new daemon thread, from the first frame.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Replay already started");
+        }
+        running = true;
+        thread = new Thread(this, "replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops playing and waits for the player thread to finish.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        try {
+            seek(Long.MIN_VALUE);
+            publish();
+            long nextTick = System.nanoTime() + getPeriod();
+            while (running) {
+                long target = seekRequest.getAndSet(NO_SEEK);
+                if (target != NO_SEEK) {
+                    seek(target);
+                    publish();
+                    nextTick = System.nanoTime() + getPeriod();
+                    continue;
+                }
+                if (paused || nextFrame >= framesEnd) {
+                    LockSupport.parkNanos(IDLE_WAIT);
+                    nextTick = System.nanoTime() + getPeriod();
+                    continue;
+                }
+                long wait = nextTick - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+
+                step();
+                publish();
+                nextTick += getPeriod();
+                if (System.nanoTime() - nextTick > MAX_CATCH_UP_TICKS * getPeriod()) {
+                    nextTick = System.nanoTime() + getPeriod();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void publish() {
+        if (tick < 0) {
+            return;
+        }
+        fill(snapshots.getBack(), published++);
+        snapshots.publish();
+    }
+
+    /**
+     * Asks the player thread to jump to a tick. Requests made before the
+     * player catches up replace each other, so dragging a slider only
+     * decodes the latest position.
+     *
+     * @param target The tick to show, clamped to the recorded range
+     */
+    public void requestSeek(long target) {
+        seekRequest.set(target);
+        Thread playing = thread;
+        if (playing != null) {
+            LockSupport.unpark(playing);
+        }
+    }
+
+    /**
+     * @param paused true to hold the current frame, false to play on
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @param speed Playback speed, 1 for the recorded tick rate
+     */
+    public void setSpeed(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+        this.speed = speed;
+    }
+
+    @Override
+    public SnapshotExchange getSnapshots() {
+        return snapshots;
+    }
+
+    @Override
+    public long getPeriod() {
+        return (long) (basePeriod / speed);
+    }
+
+    /**
+     * @return Tick of the current frame, -1 before the first frame is decoded
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return Tick of the first frame, -1 if the replay is empty
+     */
+    public long getFirstTick() {
+        return keyCount > 0 ? keyTicks[0] : -1;
+    }
+
+    /**
+     * @return Tick of the last frame, -1 if the replay is empty
+     */
+    public long getLastTick() {
+        return lastTick;
+    }
+
+    public int getFieldWidth() {
+        return fieldWidth;
+    }
+
+    public int getFieldHeight() {
+        return fieldHeight;
+    }
+
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Stops playing and closes the file.
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segment = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,281 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams the unit state of every recorded tick to a replay file in the
+ * compact binary layout described by {@link ReplayFormat}. Positions are
+ * quantized to fixed point and, between keyframes, written as differences
+ * from the previous frame, so a tick costs 11 bytes per unit. A keyframe
+ * is written every keyframe interval, and whenever units were added or
+ * removed, so a player can start decoding at any keyframe.
+ *
+ * Frames are encoded into a direct buffer and written through a
+ * {@link FileChannel}; no unit objects are touched. Must only be used by
+ * the thread that ticks the simulation.
+ */
+public class ReplayRecorder implements Closeable {
+    private final FileChannel channel;
+    private final int keyframeInterval;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private long position = ReplayFormat.HEADER_SIZE; // File offset of the next frame
+    private long lastTick = -1;
+    private int framesSinceKeyframe;
+
+    // Quantized state of the previous frame, the base of the next delta
+    private int count = -1;
+    private int teamCount;
+    private int[] ids = new int[0];
+    private int[] qx = new int[0], qy = new int[0];
+    private int[] nextQx = new int[0], nextQy = new int[0];
+    private short[] column = new short[0]; // Scratch column, copied into the buffer in bulk
+    private byte[] states = new byte[0];
+
+    // Keyframe index, written when the recording is closed
+    private long[] keyTicks = new long[16];
+    private long[] keyOffsets = new long[16];
+    private int keyCount;
+
+    /**
+     * Creates a recording, replacing any existing file.
+     *
+     * @param path File to write
+     * @param fieldWidth Width of the recorded simulation
+     * @param fieldHeight Height of the recorded simulation
+     * @param keyframeInterval Most frames from one keyframe to the next
+     * @throws IOException If the file cannot be created
+     */
+    public ReplayRecorder(Path path, int fieldWidth, int fieldHeight, int keyframeInterval) throws IOException {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be at least 1: " + keyframeInterval);
+        }
+        this.keyframeInterval = keyframeInterval;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(ReplayFormat.MAGIC);
+        buffer.putShort(ReplayFormat.VERSION);
+        buffer.putShort((short) ReplayFormat.HEADER_SIZE);
+        buffer.putInt(fieldWidth);
+        buffer.putInt(fieldHeight);
+        buffer.putInt(keyframeInterval);
+        buffer.putInt(0);
+        buffer.putLong(0); // Index offset, filled in by close()
+        write(0);
+    }
+
+    /**
+     * Constructor with a keyframe every Constants.REPLAY_KEYFRAME_INTERVAL frames.
+     *
+     * @param path File to write
+     * @param simManager The simulation that will be recorded
+     * @throws IOException If the file cannot be created
+     */
+    public ReplayRecorder(Path path, SimulationManager simManager) throws IOException {
+        this(path, simManager.getWidth(), simManager.getHeight(), Constants.REPLAY_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Appends the current state of the simulation as the frame of a tick.
+     *
+     * @param simManager The simulation, not ticking while it is recorded
+     * @param tick Number of ticks the simulation has run, larger than any recorded before
+     * @throws IOException If the frame cannot be written
+     */
+    public void record(SimulationManager simManager, long tick) throws IOException {
+        if (tick <= lastTick) {
+            throw new IllegalArgumentException("Tick " + tick + " is not after " + lastTick);
+        }
+        UnitStore store = simManager.getUnitStore();
+        int n = store.size();
+        Color[] palette = UnitStore.teamPalette();
+        if (nextQx.length < n) {
+            int capacity = Math.max(n, nextQx.length * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            qx = Arrays.copyOf(qx, capacity);
+            qy = Arrays.copyOf(qy, capacity);
+            nextQx = new int[capacity];
+            nextQy = new int[capacity];
+            column = new short[capacity];
+            states = new byte[capacity];
+        }
+
+        // A delta needs the same units in the same slots and steps that fit in a short
+        boolean keyframe = framesSinceKeyframe >= keyframeInterval || n != count || palette.length != teamCount;
+        for (int i = 0; i < n; i++) {
+            int x = ReplayFormat.quantizePosition(store.x[i]);
+            int y = ReplayFormat.quantizePosition(store.y[i]);
+            nextQx[i] = x;
+            nextQy[i] = y;
+            if (!keyframe && (ids[i] != store.getId(i) || x - qx[i] != (short) (x - qx[i])
+                    || y - qy[i] != (short) (y - qy[i]))) {
+                keyframe = true;
+            }
+        }
+
+        int payload = keyframe
+            ? 4 + 4 * palette.length + n * ReplayFormat.KEYFRAME_UNIT_BYTES
+            : n * ReplayFormat.DELTA_UNIT_BYTES;
+        ensureCapacity(ReplayFormat.FRAME_HEADER_SIZE + payload);
+        buffer.put(keyframe ? ReplayFormat.KEYFRAME : ReplayFormat.DELTA);
+        buffer.putLong(tick);
+        buffer.putInt(n);
+        buffer.putInt(payload);
+        if (keyframe) {
+            buffer.putInt(palette.length);
+            for (Color color : palette) {
+                buffer.putInt(color.getRGB());
+            }
+            for (int i = 0; i < n; i++) {
+                ids[i] = store.getId(i);
+            }
+            putInts(ids, n);
+            putInts(nextQx, n);
+            putInts(nextQy, n);
+        } else {
+            for (int i = 0; i < n; i++) {
+                column[i] = (short) (nextQx[i] - qx[i]);
+            }
+            putShorts(n);
+            for (int i = 0; i < n; i++) {
+                column[i] = (short) (nextQy[i] - qy[i]);
+            }
+            putShorts(n);
+        }
+        for (int i = 0; i < n; i++) {
+            column[i] = ReplayFormat.quantizeVelocity(store.vx[i]);
+        }
+        putShorts(n);
+        for (int i = 0; i < n; i++) {
+            column[i] = ReplayFormat.quantizeVelocity(store.vy[i]);
+        }
+        putShorts(n);
+        for (int i = 0; i < n; i++) {
+            column[i] = ReplayFormat.quantizeAngle(store.angleOf(i));
+        }
+        putShorts(n);
+        if (keyframe) {
+            for (int i = 0; i < n; i++) {
+                column[i] = (short) store.team[i];
+            }
+            putShorts(n);
+            for (int i = 0; i < n; i++) {
+                column[i] = (short) store.size[i];
+            }
+            putShorts(n);
+        }
+        System.arraycopy(store.state, 0, states, 0, n);
+        if (!store.allSoldiers()) {
+            for (int i = 0; i < n; i++) {
+                if (!(store.asList().get(i) instanceof Soldier)) {
+                    states[i] = RenderSnapshot.NO_STATE;
+                }
+            }
+        }
+        buffer.put(states, 0, n);
+
+        if (keyframe) {
+            addKeyframe(tick, position);
+            framesSinceKeyframe = 0;
+            count = n;
+            teamCount = palette.length;
+        }
+        position += write(position);
+        framesSinceKeyframe++;
+        lastTick = tick;
+        int[] swap = qx;
+        qx = nextQx;
+        nextQx = swap;
+        swap = qy;
+        qy = nextQy;
+        nextQy = swap;
+    }
+
+    /**
+     * Writes the keyframe index and closes the file. A recording that was
+     * never closed can still be played; its index is rebuilt by scanning.
+     *
+     * @throws IOException If the index cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            ensureCapacity(12 + keyCount * ReplayFormat.INDEX_ENTRY_BYTES);
+            buffer.putInt(keyCount);
+            buffer.putLong(lastTick);
+            for (int k = 0; k < keyCount; k++) {
+                buffer.putLong(keyTicks[k]);
+                buffer.putLong(keyOffsets[k]);
+            }
+            long indexOffset = position;
+            position += write(position);
+
+            buffer.putLong(indexOffset);
+            write(ReplayFormat.INDEX_OFFSET_POSITION);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return Bytes written so far, including the header
+     */
+    public long getSize() {
+        return position;
+    }
+
+    private void putInts(int[] values, int n) {
+        buffer.asIntBuffer().put(values, 0, n);
+        buffer.position(buffer.position() + 4 * n);
+    }
+
+    private void putShorts(int n) {
+        buffer.asShortBuffer().put(column, 0, n);
+        buffer.position(buffer.position() + 2 * n);
+    }
+
+    private void addKeyframe(long tick, long offset) {
+        if (keyCount == keyTicks.length) {
+            keyTicks = Arrays.copyOf(keyTicks, keyCount * 2);
+            keyOffsets = Arrays.copyOf(keyOffsets, keyCount * 2);
+        }
+        keyTicks[keyCount] = tick;
+        keyOffsets[keyCount] = offset;
+        keyCount++;
+    }
+
+    /**
+     * Makes room for a frame, dropping anything not yet written.
+     */
+    private void ensureCapacity(int bytes) {
+        if (buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocateDirect(Math.max(bytes, buffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the filled part of the buffer at a file offset and clears it.
+     *
+     * @return Number of bytes written
+     */
+    private int write(long offset) throws IOException {
+        buffer.flip();
+        int bytes = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+        buffer.clear();
+        return bytes;
+    }
+}
@@ -0,0 +1,381 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Starting setup of a simulation, read from a small text file: the field,
+ * the spatial index, the teams, and where and how many soldiers spawn.
+ * Soldiers are either generated from distributions or streamed from a
+ * binary unit table (see {@link UnitTableWriter}), so a scenario of
+ * millions of units is never held as a list of objects. Units are spawned
+ * in fixed-size batches straight into the unit store, and the spatial
+ * index is built once at the end.
+ *
+ * One directive per line; blank lines and lines starting with # are ignored.
+ * <pre>
+ * field WIDTH HEIGHT
+ * seed SEED                            seed for generated units, default 1
+ * quadtree [MAX_OBJECTS MAX_DEPTH [LOOSENESS]]
+ * grid [CELL_SIZE]
+ * team NAME RRGGBB
+ * size PIXELS                          size of the soldiers spawned by later lines
+ * unit TEAM X Y [VX VY]
+ * uniform TEAM COUNT [X Y WIDTH HEIGHT]
+ * cluster TEAM COUNT X Y SPREAD        normal distribution around a point
+ * table FILE                           relative to the scenario file
+ * </pre>
+ * Generated soldiers face a random direction and move along it at unit
+ * speed. Spawns run in file order, so a scenario always produces the same
+ * simulation.
+ */
+public class Scenario {
+    static final int BATCH_SIZE = 1 << 14; // Soldiers spawned per batch
+
+    private static final int UNIT = 1;
+    private static final int UNIFORM = 2;
+    private static final int CLUSTER = 3;
+    private static final int TABLE = 4;
+
+    private int width = Constants.FIELD_WIDTH;
+    private int height = Constants.FIELD_HEIGHT;
+    private long seed = 1;
+    private boolean grid; // Whether the index is a uniform grid rather than a quadtree
+    private int maxObjects = Constants.QUADTREE_MAX_OBJECTS;
+    private int maxDepth = Constants.QUADTREE_MAX_DEPTH;
+    private float looseness = Constants.QUADTREE_LOOSENESS;
+    private float cellSize = Constants.DETECTION_RADIUS;
+    private final List<Color> teams = new ArrayList<>(); // Team colors in declaration order
+    private final Map<String, Integer> teamIndex = new HashMap<>(); // Team name -> position in teams
+    private final List<Spawn> spawns = new ArrayList<>();
+
+    /**
+     * One spawning directive.
+     */
+    private static final class Spawn {
+        final int kind; // UNIT, UNIFORM, CLUSTER or TABLE
+        final int team; // Position in teams, unused for tables
+        final long count; // Soldiers to spawn, unused for tables
+        final float[] args; // Position and velocity, area or cluster parameters
+        final int size; // Size of the spawned soldiers, unused for tables
+        final Path table; // Unit table file, only for tables
+
+        Spawn(int kind, int team, long count, float[] args, int size, Path table) {
+            this.kind = kind;
+            this.team = team;
+            this.count = count;
+            this.args = args;
+            this.size = size;
+            this.table = table;
+        }
+    }
+
+    /**
+     * Reads a scenario file.
+     *
+     * @param path The scenario file
+     * @return The scenario
+     * @throws IOException If the file cannot be read
+     * @throws IllegalArgumentException If the file is not a valid scenario
+     */
+    public static Scenario read(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            Path base = path.toAbsolutePath().getParent();
+            return parse(reader, base, path.toString());
+        }
+    }
+
+    /**
+     * Reads a scenario from text.
+     *
+     * @param reader Source of the scenario text
+     * @param base Directory that unit table paths are relative to
+     * @param name Name of the source, for error messages
+     * @return The scenario
+     * @throws IOException If the text cannot be read
+     * @throws IllegalArgumentException If the text is not a valid scenario
+     */
+    public static Scenario parse(Reader reader, Path base, String name) throws IOException {
+        Scenario scenario = new Scenario();
+        BufferedReader lines = new BufferedReader(reader);
+        int size = 10;
+        String line;
+        for (int number = 1; (line = lines.readLine()) != null; number++) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            try {
+                size = scenario.parseDirective(words, base, size);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name + ":" + number + ": invalid number in: " + line);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(name + ":" + number + ": " + e.getMessage());
+            }
+        }
+        return scenario;
+    }
+
+    /**
+     * Applies one directive to this scenario.
+     *
+     * @param words The directive and its arguments
+     * @param base Directory that unit table paths are relative to
+     * @param size Size of the soldiers spawned so far
+     * @return Size of the soldiers spawned from now on
+     */
+    private int parseDirective(String[] words, Path base, int size) {
+        String directive = words[0];
+        switch (directive) {
+            case "field":
+                expectArguments(words, 2, 2);
+                width = positive(words[1]);
+                height = positive(words[2]);
+                break;
+            case "seed":
+                expectArguments(words, 1, 1);
+                seed = Long.parseLong(words[1]);
+                break;
+            case "quadtree":
+                expectArguments(words, 0, 3);
+                grid = false;
+                if (words.length == 2) {
+                    throw new IllegalArgumentException("quadtree takes no arguments or MAX_OBJECTS MAX_DEPTH");
+                }
+                if (words.length > 2) {
+                    maxObjects = positive(words[1]);
+                    maxDepth = Integer.parseInt(words[2]);
+                }
+                if (words.length > 3) {
+                    looseness = Float.parseFloat(words[3]);
+                    if (!(looseness >= 1)) {
+                        throw new IllegalArgumentException("Looseness must be at least 1: " + words[3]);
+                    }
+                }
+                break;
+            case "grid":
+                expectArguments(words, 0, 1);
+                grid = true;
+                if (words.length > 1) {
+                    cellSize = Float.parseFloat(words[1]);
+                    if (!(cellSize > 0)) {
+                        throw new IllegalArgumentException("Cell size must be positive: " + words[1]);
+                    }
+                }
+                break;
+            case "team":
+                expectArguments(words, 2, 2);
+                if (teamIndex.containsKey(words[1])) {
+                    throw new IllegalArgumentException("Team declared twice: " + words[1]);
+                }
+                teamIndex.put(words[1], teams.size());
+                teams.add(new Color(Integer.parseInt(words[2], 16)));
+                break;
+            case "size":
+                expectArguments(words, 1, 1);
+                return positive(words[1]);
+            case "unit":
+                expectArguments(words, 3, 5);
+                if (words.length == 5) {
+                    throw new IllegalArgumentException("unit takes both VX and VY or neither");
+                }
+                spawns.add(new Spawn(UNIT, team(words[1]), 1, floats(words, 2), size, null));
+                break;
+            case "uniform":
+                expectArguments(words, 2, 6);
+                if (words.length != 3 && words.length != 7) {
+                    throw new IllegalArgumentException("uniform takes an area of X Y WIDTH HEIGHT or none");
+                }
+                float[] area = words.length == 7 ? floats(words, 3) : null; // Null for the whole field
+                spawns.add(new Spawn(UNIFORM, team(words[1]), count(words[2]), area, size, null));
+                break;
+            case "cluster":
+                expectArguments(words, 5, 5);
+                spawns.add(new Spawn(CLUSTER, team(words[1]), count(words[2]), floats(words, 3), size, null));
+                break;
+            case "table":
+                expectArguments(words, 1, 1);
+                spawns.add(new Spawn(TABLE, -1, 0, null, size, base.resolve(words[1])));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown directive: " + directive);
+        }
+        return size;
+    }
+
+    private static void expectArguments(String[] words, int min, int max) {
+        int arguments = words.length - 1;
+        if (arguments < min || arguments > max) {
+            throw new IllegalArgumentException(words[0] + " takes "
+                + (min == max ? String.valueOf(min) : min + " to " + max) + " arguments, not " + arguments);
+        }
+    }
+
+    private static int positive(String word) {
+        int value = Integer.parseInt(word);
+        if (value <= 0) {
+            throw new IllegalArgumentException("Value must be positive: " + word);
+        }
+        return value;
+    }
+
+    private static long count(String word) {
+        long value = Long.parseLong(word);
+        if (value < 0) {
+            throw new IllegalArgumentException("Count must not be negative: " + word);
+        }
+        return value;
+    }
+
+    private static float[] floats(String[] words, int from) {
+        float[] values = new float[words.length - from];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Float.parseFloat(words[from + i]);
+        }
+        return values;
+    }
+
+    private int team(String name) {
+        Integer team = teamIndex.get(name);
+        if (team == null) {
+            throw new IllegalArgumentException("Unknown team: " + name);
+        }
+        return team;
+    }
+
+    /**
+     * Creates the simulation described by this scenario.
+     *
+     * @return A new simulation holding every spawned soldier
+     * @throws IOException If a unit table cannot be read
+     * @throws IllegalArgumentException If a unit table is not valid
+     */
+    public SimulationManager createSimulation() throws IOException {
+        SpatialIndex spatialIndex = grid
+            ? new UniformGrid(0, 0, width, height, cellSize)
+            : new QuadtreeNode(0, 0, width, height, maxObjects, maxDepth, 0, looseness);
+        SimulationManager simManager = new SimulationManager(width, height, spatialIndex);
+        SoldierBatch batch = new SoldierBatch(BATCH_SIZE);
+        Random random = new Random(seed);
+        for (Spawn spawn : spawns) {
+            if (spawn.kind == TABLE) {
+                spawnTable(spawn.table, simManager, batch);
+                continue;
+            }
+            Color color = teams.get(spawn.team);
+            float[] args = spawn.args != null ? spawn.args : new float[] { 0, 0, width, height };
+            for (long n = 0; n < spawn.count; n++) {
+                if (spawn.kind == UNIT) {
+                    float vx = args.length > 2 ? args[2] : 0;
+                    float vy = args.length > 2 ? args[3] : 0;
+                    batch.add(args[0], args[1], vx, vy, (float) Math.atan2(vy, vx), color, spawn.size,
+                        random.nextLong());
+                } else {
+                    float x, y;
+                    if (spawn.kind == UNIFORM) {
+                        x = args[0] + random.nextFloat() * args[2];
+                        y = args[1] + random.nextFloat() * args[3];
+                    } else {
+                        x = args[0] + (float) random.nextGaussian() * args[2];
+                        y = args[1] + (float) random.nextGaussian() * args[2];
+                    }
+                    float angle = random.nextFloat() * (float) (Math.PI * 2);
+                    batch.add(Util.clamp(x, 0, width), Util.clamp(y, 0, height),
+                        (float) Math.cos(angle), (float) Math.sin(angle), angle, color, spawn.size,
+                        random.nextLong());
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    simManager.appendSoldiers(batch);
+                    batch.clear();
+                }
+            }
+        }
+        simManager.appendSoldiers(batch);
+        simManager.rebuildSpatialIndex();
+        return simManager;
+    }
+
+    /**
+     * Streams the soldiers of a unit table into a simulation through a
+     * read-only memory mapping, one window of the file at a time.
+     */
+    private void spawnTable(Path path, SimulationManager simManager, SoldierBatch batch) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                Math.min(fileSize, UnitTableWriter.HEADER_SIZE));
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (fileSize < UnitTableWriter.HEADER_SIZE || header.getInt() != UnitTableWriter.MAGIC) {
+                throw new IllegalArgumentException("Not a unit table: " + path);
+            }
+            short version = header.getShort();
+            if (version != UnitTableWriter.VERSION) {
+                throw new IllegalArgumentException("Unsupported unit table version " + version + ": " + path);
+            }
+            header.getShort();
+            long count = header.getLong();
+            if (count < 0 || UnitTableWriter.HEADER_SIZE + count * UnitTableWriter.RECORD_SIZE > fileSize) {
+                throw new IllegalArgumentException("Truncated unit table: " + path);
+            }
+
+            long recordsPerWindow = UnitTableWriter.WINDOW_SIZE / UnitTableWriter.RECORD_SIZE;
+            for (long first = 0; first < count; first += recordsPerWindow) {
+                int records = (int) Math.min(recordsPerWindow, count - first);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    UnitTableWriter.HEADER_SIZE + first * UnitTableWriter.RECORD_SIZE,
+                    (long) records * UnitTableWriter.RECORD_SIZE);
+                window.order(ByteOrder.LITTLE_ENDIAN);
+                for (int r = 0; r < records; r++) {
+                    int at = r * UnitTableWriter.RECORD_SIZE;
+                    int team = window.getShort(at + 20);
+                    if (team < 0 || team >= teams.size()) {
+                        throw new IllegalArgumentException("Unknown team " + team + " in unit table: " + path);
+                    }
+                    batch.add(window.getFloat(at), window.getFloat(at + 4),
+                        window.getFloat(at + 8), window.getFloat(at + 12), window.getFloat(at + 16),
+                        teams.get(team), window.getShort(at + 22), window.getLong(at + 24));
+                    if (batch.size() == BATCH_SIZE) {
+                        simManager.appendSoldiers(batch);
+                        batch.clear();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Width of the field
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return Height of the field
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Team colors in declaration order; unit tables refer to teams by this position
+     */
+    public List<Color> getTeams() {
+        return teams;
+    }
+}
@@ -1,41 +1,172 @@
 package com.github.Terry113;
 
 import java.awt.Color;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
 
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.Timer;
 
 /**
  * Main application class that sets up the simulation and rendering.
+ * 
+ * Usage: SimulationApp [--scenario FILE | --replay FILE | --distribute CxR]
+ * 
+ * With --scenario, the simulation starts from a {@link Scenario} file
+ * instead of the built-in handful of soldiers. With --replay, a recording
+ * made by HeadlessRunner --record is played instead. Space pauses, the
+ * left and right arrow keys jump back and forward by one keyframe
+ * interval, and Home returns to the start. With --distribute, a field of
+ * the built-in size filled with soldiers is split into C by R regions,
+ * each ticked by a worker process of its own, and the window draws the
+ * snapshots the {@link RegionCoordinator} gathers from them.
  */
 public class SimulationApp {
-    public static void main(String[] args) {
-        // Create simulation manager with dimensions from constants
-        SimulationManager simManager = new SimulationManager(
-            Constants.FIELD_WIDTH, 
-            Constants.FIELD_HEIGHT
-        );
+    private static final int DISTRIBUTED_UNITS = 2000; // Soldiers spread over the field with --distribute
+    private static final int FAILURE_CHECK_INTERVAL_MS = 250; // How often a distributed run is checked for a lost worker
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("--replay")) {
+            playReplay(args[1]);
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--distribute")) {
+            runDistributed(args[1]);
+            return;
+        }
+        
+        SimulationManager simManager;
+        if (args.length == 2 && args[0].equals("--scenario")) {
+            simManager = Scenario.read(Paths.get(args[1])).createSimulation();
+        } else {
+            // Create simulation manager with dimensions from constants
+            simManager = new SimulationManager(
+                Constants.FIELD_WIDTH, 
+                Constants.FIELD_HEIGHT
+            );
+            
+            // Add some initial units to the simulation
+            simManager.addUnit(new Soldier(100, 100, 1, 1, 0, Color.RED, 10));
+            simManager.addUnit(new Soldier(300, 200, -1, 0.5f, 0, Color.BLUE, 10));
+            simManager.addUnit(new Soldier(500, 400, 0, -1, 0, Color.GREEN, 10));
+            simManager.addUnit(new Soldier(450, 400, 0, -1, 0, Color.GREEN, 10));
+        }
+        
+        // Run the simulation on its own thread
+        SimulationLoop loop = new SimulationLoop(simManager, Constants.TICKS_PER_SECOND);
         
         // Create renderer
-        SimulationRenderer renderer = new SimulationRenderer(simManager);
+        SimulationRenderer renderer = new SimulationRenderer(loop);
+        showWindow(renderer, simManager.getWidth(), simManager.getHeight());
+
+        loop.start();
+    }
+
+    /**
+     * Plays a replay file in a window.
+     * 
+     * @param path The replay file
+     * @throws IOException If the file cannot be read
+     */
+    private static void playReplay(String path) throws IOException {
+        ReplayPlayer player = new ReplayPlayer(Paths.get(path));
+        SimulationRenderer renderer = new SimulationRenderer(player);
+        JFrame frame = showWindow(renderer, player.getFieldWidth(), player.getFieldHeight());
+        frame.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                long jump = player.getKeyframeInterval();
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_SPACE:
+                        player.setPaused(!player.isPaused());
+                        break;
+                    case KeyEvent.VK_LEFT:
+                        player.requestSeek(player.getTick() - jump);
+                        break;
+                    case KeyEvent.VK_RIGHT:
+                        player.requestSeek(player.getTick() + jump);
+                        break;
+                    case KeyEvent.VK_HOME:
+                        player.requestSeek(player.getFirstTick());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        });
+        player.start();
+    }
+
+    /**
+     * Runs a field of soldiers split into regions across worker processes
+     * and draws it.
+     * 
+     * @param grid Regions across and down, as CxR
+     * @throws IOException If the workers cannot be started or reached
+     */
+    private static void runDistributed(String grid) throws IOException {
+        String[] size = grid.split("x");
+        if (size.length != 2) {
+            throw new IllegalArgumentException("Invalid region grid: " + grid);
+        }
+        int columns = Integer.parseInt(size[0]);
+        int rows = Integer.parseInt(size[1]);
+        RegionCoordinator coordinator = new RegionCoordinator(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT,
+            columns, rows);
+        for (int i = 0; i < columns * rows; i++) {
+            RegionWorker.launch(coordinator.getAddress());
+        }
 
+        Color[] teams = { Color.RED, Color.BLUE, Color.GREEN };
+        Random random = new Random(1);
+        SoldierBatch batch = new SoldierBatch(DISTRIBUTED_UNITS);
+        for (int i = 0; i < DISTRIBUTED_UNITS; i++) {
+            batch.add(random.nextFloat() * Constants.FIELD_WIDTH, random.nextFloat() * Constants.FIELD_HEIGHT,
+                random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1, 0, teams[i % teams.length], 10,
+                random.nextLong());
+        }
+        coordinator.connect(batch, new ThinkScheduler(1, 1));
+
+        // Workers end once the coordinator's connections close with this process
+        SimulationRenderer renderer = new SimulationRenderer(coordinator);
+        JFrame frame = showWindow(renderer, coordinator.getWidth(), coordinator.getHeight());
+        coordinator.start(Constants.TICKS_PER_SECOND);
+
+        // The field stops moving when a worker fails, so say why
+        new Timer(FAILURE_CHECK_INTERVAL_MS, e -> {
+            IOException failure = coordinator.getFailure();
+            if (failure != null) {
+                ((Timer) e.getSource()).stop();
+                failure.printStackTrace();
+                frame.setTitle("Simulation (stopped)");
+                JOptionPane.showMessageDialog(frame, "The simulation stopped: " + failure.getMessage(),
+                    "Simulation", JOptionPane.ERROR_MESSAGE);
+            }
+        }).start();
+    }
+
+    /**
+     * Shows a renderer in a new window and repaints it at the display rate.
+     * 
+     * @param renderer The renderer to show
+     * @param width Width of the window
+     * @param height Height of the window
+     * @return The window
+     */
+    private static JFrame showWindow(SimulationRenderer renderer, int width, int height) {
         // Set up the main window
         JFrame frame = new JFrame("Simulation");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.add(renderer);
-        frame.setSize(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
+        frame.setSize(width, height);
         frame.setVisible(true);
 
-        // Add some initial units to the simulation
-        simManager.addUnit(new Soldier(100, 100, 1, 1, 0, Color.RED, 10));
-        simManager.addUnit(new Soldier(300, 200, -1, 0.5f, 0, Color.BLUE, 10));
-        simManager.addUnit(new Soldier(500, 400, 0, -1, 0, Color.GREEN, 10));
-        simManager.addUnit(new Soldier(450, 400, 0, -1, 0, Color.GREEN, 10));
-
-        // Timer to update and repaint at approximately 60 FPS
-        new Timer(16, e -> {
-            simManager.update();
-            renderer.repaint();
-        }).start();
+        // Timer to repaint at approximately 60 FPS; painting interpolates between ticks
+        new Timer(Constants.REPAINT_INTERVAL_MS, e -> renderer.repaint()).start();
+        return frame;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+package com.github.Terry113;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a simulation at a fixed tick rate on its own thread and publishes a
+ * render snapshot after every tick, so that painting and ticking never
+ * block each other. While the loop runs, the simulation must only be
+ * changed through {@link #submit}; commands run on the simulation thread
+ * before the next tick.
+ */
+public class SimulationLoop implements Runnable, SnapshotSource {
+    private static final int MAX_CATCH_UP_TICKS = 5; // Ticks run back to back before the schedule is reset
+
+    private final SimulationManager simManager;
+    private final SnapshotExchange snapshots = new SnapshotExchange();
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final long period; // Nanoseconds per tick
+    private volatile boolean running;
+    private Thread thread;
+    private long tick; // Ticks run so far, only touched by the simulation thread
+
+    /**
+     * Creates a loop for the given simulation.
+     *
+     * @param simManager The simulation to run
+     * @param ticksPerSecond Target tick rate
+     */
+    public SimulationLoop(SimulationManager simManager, double ticksPerSecond) {
+        if (!(ticksPerSecond > 0)) {
+            throw new IllegalArgumentException("Tick rate must be positive: " + ticksPerSecond);
+        }
+        this.simManager = simManager;
+        this.period = (long) (1_000_000_000L / ticksPerSecond);
+    }
+
+    /**
+     * Starts ticking on a new daemon thread.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Simulation loop already started");
+        }
+        running = true;
+        thread = new Thread(this, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops ticking and waits for the current tick to finish.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+        thread = null;
+    }
+
+    /**
+     * Queues a change to the simulation, such as adding a unit, to run on
+     * the simulation thread before the next tick.
+     *
+     * @param command The change to make
+     */
+    public void submit(Runnable command) {
+        commands.add(command);
+    }
+
+    @Override
+    public void run() {
+        publishSnapshot(); // Give the renderer the starting state right away
+        long nextTick = System.nanoTime() + period;
+        while (running) {
+            long wait = nextTick - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+
+            Runnable command;
+            while ((command = commands.poll()) != null) {
+                command.run();
+            }
+            simManager.update();
+            tick++;
+            publishSnapshot();
+
+            nextTick += period;
+            // After a long stall, resume from now instead of racing through the missed ticks
+            if (System.nanoTime() - nextTick > MAX_CATCH_UP_TICKS * period) {
+                nextTick = System.nanoTime() + period;
+            }
+        }
+    }
+
+    private void publishSnapshot() {
+        snapshots.getBack().capture(simManager, tick);
+        snapshots.publish();
+    }
+
+    @Override
+    public SnapshotExchange getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * @return The simulation run by this loop
+     */
+    public SimulationManager getSimulationManager() {
+        return simManager;
+    }
+
+    @Override
+    public long getPeriod() {
+        return period;
+    }
+}
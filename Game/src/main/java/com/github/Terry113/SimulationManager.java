@@ -1,29 +1,93 @@
 package com.github.Terry113;
-import java.awt.Color;
-import java.awt.Rectangle;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Manages the simulation state including units and spatial partitioning.
+ * 
+ * A tick runs in phases separated by barriers: integration and boundaries,
+ * spatial index maintenance, then sensing and decisions. In the integration
+ * and sensing phases every unit writes only its own state, so both can be
+ * split across threads without changing the outcome; index maintenance is
+ * always serial. Random numbers are drawn per unit and tick, so a parallel
+ * run is bit-identical to a single-threaded one.
+ * 
+ * Sensing either queries the spatial index once per soldier, or, with
+ * pairwise interactions, tests pairs of nearby units once each (see
+ * {@link InteractionPairs}); both find the same nearest units. The pair
+ * pass is serial, and only the decisions after it run in parallel. Either
+ * way, only the soldiers the {@link ThinkScheduler} picks for the tick
+ * sense and decide; movement runs for all of them.
  */
 public class SimulationManager {
-    private List<Unit> units;
-    private QuadtreeNode quadtree;
+    private final UnitStore store; // Structure-of-arrays state of all units
+    private final List<Unit> units; // Unit views in store slot order
+    private final SpatialIndex spatialIndex;
     private final int width;
     private final int height;
+    private final TeamRelations relations; // How teams react to each other
+    private float[] oldX = new float[0]; // Positions at the start of the current tick
+    private float[] oldY = new float[0];
+    private final NeighborSearch search = new NeighborSearch(1); // Reused nearest query for interactions
+    private final ThreadLocal<NeighborSearch> workerSearch = new ThreadLocal<NeighborSearch>() {
+        @Override
+        protected NeighborSearch initialValue() {
+            return new NeighborSearch(1);
+        }
+    };
+    private final ThreadLocal<NeighborSearch> lookupSearch = new ThreadLocal<NeighborSearch>() {
+        @Override
+        protected NeighborSearch initialValue() {
+            return new NeighborSearch(1);
+        }
+    }; // Queries of nearestEnemy and nearestAlly, apart from the tick's own
+    private ForkJoinPool pool; // Null when ticking on the calling thread only
+    private InteractionPairs pairs; // Null when sensing with one nearest query per soldier
+    private ThinkScheduler scheduler = new ThinkScheduler(1, 1); // Which soldiers sense on each tick
 
     /**
-     * Creates a new simulation manager.
+     * Creates a new simulation manager backed by a quadtree.
      * 
      * @param width Width of the simulation area
      * @param height Height of the simulation area
      */
     public SimulationManager(int width, int height) {
+        this(width, height, new QuadtreeNode(0, 0, width, height));
+    }
+
+    /**
+     * Creates a new simulation manager using the given spatial index.
+     * 
+     * @param width Width of the simulation area
+     * @param height Height of the simulation area
+     * @param spatialIndex Empty index covering the simulation area
+     */
+    public SimulationManager(int width, int height, SpatialIndex spatialIndex) {
+        this(width, height, spatialIndex, new TeamRelations(), new UnitIds(64));
+    }
+
+    /**
+     * Creates a new simulation manager sharing team relations and unit ids
+     * with others, as the regions of a {@link RegionedWorld} do.
+     * 
+     * @param width Width of the simulation area
+     * @param height Height of the simulation area
+     * @param spatialIndex Empty index covering the part of the area this
+     *        manager senses in
+     * @param relations How teams react to each other
+     * @param ids Pool handing out the ids of new units
+     */
+    SimulationManager(int width, int height, SpatialIndex spatialIndex, TeamRelations relations, UnitIds ids) {
         this.width = width;
         this.height = height;
-        this.units = new ArrayList<>();
-        this.quadtree = new QuadtreeNode(0, 0, width, height);
+        this.store = new UnitStore(64, ids);
+        this.store.setField(width, height);
+        this.relations = relations;
+        this.store.relations = relations;
+        this.units = store.asList();
+        this.spatialIndex = spatialIndex;
     }
 
     /**
@@ -32,111 +96,472 @@ public class SimulationManager {
      * @param unit The unit to add
      */
     public void addUnit(Unit unit) {
-        units.add(unit);
-        quadtree.insert(unit);
+        store.adopt(unit);
+        spatialIndex.insert(unit);
+    }
+
+    /**
+     * Adds every soldier of a batch to the simulation, in batch order. When
+     * the batch is at least as large as the current population, the spatial
+     * index is rebuilt in bulk rather than taking one insert per soldier.
+     * 
+     * @param batch The soldiers to add; the batch can be reused afterwards
+     */
+    public void addSoldiers(SoldierBatch batch) {
+        addSoldiers(batch, null);
+    }
+
+    /**
+     * Adds every soldier of a batch with ids given by the caller, as a
+     * region worker does with the ids its coordinator assigned.
+     * 
+     * @param batch The soldiers to add
+     * @param ids Id of every soldier of the batch, null to assign new ones
+     */
+    void addSoldiers(SoldierBatch batch, int[] ids) {
+        int before = units.size();
+        int first = store.addSoldiers(batch, ids);
+        if (batch.size() >= before) {
+            rebuildSpatialIndex();
+        } else {
+            for (int i = first; i < units.size(); i++) {
+                spatialIndex.insert(units.get(i));
+            }
+        }
+    }
+
+    /**
+     * Adds every soldier of a batch to the unit store only. Loaders that
+     * spawn in several batches call this for each, then rebuild the index
+     * once with rebuildSpatialIndex before the next tick.
+     * 
+     * @param batch The soldiers to add
+     */
+    void appendSoldiers(SoldierBatch batch) {
+        store.addSoldiers(batch);
+    }
+
+    /**
+     * Builds the spatial index from scratch for the current units.
+     */
+    void rebuildSpatialIndex() {
+        spatialIndex.rebuild(units);
+    }
+
+    /**
+     * Removes a unit from the simulation. The unit keeps its last state and
+     * can be added again later.
+     * 
+     * @param unit The unit to remove
+     * @return true if the unit was part of the simulation, false otherwise
+     */
+    public boolean removeUnit(Unit unit) {
+        if (unit.store != store) {
+            return false;
+        }
+        spatialIndex.remove(unit, unit.getX(), unit.getY());
+        return store.remove(unit);
+    }
+
+    /**
+     * Fills this empty simulation with the units of a checkpoint and
+     * rebuilds the spatial index from them in one pass.
+     * 
+     * @param in Buffer positioned at the units of the checkpoint
+     * @param teamIds Team id in the checkpoint -> team id in this process
+     */
+    void restoreUnits(ByteBuffer in, int[] teamIds) {
+        store.readCheckpoint(in, teamIds);
+        spatialIndex.rebuild(units);
     }
 
     /**
      * Updates all units and the spatial partitioning structure.
      */
     public void update() {
-        // Update all units
-        for (Unit unit : units) {
-            // Store old position
-            float oldX = unit.getX();
-            float oldY = unit.getY();
-            
-            // Update the unit
-            unit.update();
-            
-            // Handle boundary conditions
-            handleBoundaries(unit);
-            
-            // Only update quadtree if the unit has moved
-            if (oldX != unit.getX() || oldY != unit.getY()) {
-                updateUnitInQuadtree(unit, oldX, oldY);
-            }
+        long tickStart = SimulationMetrics.ENABLED ? System.nanoTime() : 0;
+        moveUnits();
+        refreshSpatialIndex();
+        senseAndDecide();
+        
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.endTick(System.nanoTime() - tickStart);
+        }
+    }
+    
+    /**
+     * Starts a tick: remembers where the units were, advances the random
+     * numbers to the new tick and moves every unit.
+     */
+    void moveUnits() {
+        int count = units.size();
+        if (oldX.length < count) {
+            oldX = new float[Math.max(count, oldX.length * 2)];
+            oldY = new float[oldX.length];
         }
         
-        // Handle unit interactions
-        handleUnitInteractions();
+        // Store old positions
+        System.arraycopy(store.x, 0, oldX, 0, count);
+        System.arraycopy(store.y, 0, oldY, 0, count);
+        store.advanceTick();
+        
+        if (pool == null) {
+            integrate(0, count);
+        } else {
+            pool.invoke(new PhaseTask(PhaseTask.INTEGRATE, 0, count));
+        }
     }
     
     /**
-     * Keeps units within the simulation boundaries.
+     * Brings the spatial index in line with the positions moveUnits left.
+     */
+    void refreshSpatialIndex() {
+        long start = SimulationMetrics.ENABLED ? System.nanoTime() : 0;
+        spatialIndex.refresh(units, oldX, oldY);
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.record(SimulationMetrics.Phase.INDEX, System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Ends a tick: the soldiers picked by the think scheduler find the unit
+     * they react to and update their state and target.
+     */
+    void senseAndDecide() {
+        int count = units.size();
+        if (pool == null) {
+            if (pairs != null) {
+                pairs.find(store, relations, scheduler, count);
+                handlePairInteractions(0, count);
+            } else {
+                handleUnitInteractions(0, count, search);
+            }
+        } else {
+            if (pairs != null) {
+                pairs.find(store, relations, scheduler, count);
+                pool.invoke(new PhaseTask(PhaseTask.DECIDE, 0, count));
+            } else {
+                pool.invoke(new PhaseTask(PhaseTask.INTERACT, 0, count));
+            }
+        }
+    }
+    
+    /**
+     * Sets how many threads run the parallel phases of a tick.
      * 
-     * @param unit The unit to check and constrain
+     * @param threads Number of worker threads, 1 to tick on the calling thread
      */
-    private void handleBoundaries(Unit unit) {
-        // Constrain X position
-        if (unit.getX() < 0) {
-            unit.setX(0);
-            unit.setVx(-unit.getVx() * 0.5f); // Bounce with damping
-        } else if (unit.getX() > width) {
-            unit.setX(width);
-            unit.setVx(-unit.getVx() * 0.5f); // Bounce with damping
+    public void setThreadCount(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+        }
+        if (pool != null) {
+            pool.shutdown();
         }
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+    
+    /**
+     * @return Number of threads running the parallel phases of a tick
+     */
+    public int getThreadCount() {
+        return pool == null ? 1 : pool.getParallelism();
+    }
+    
+    /**
+     * Chooses how soldiers find the unit they react to. Both ways find the
+     * same units; the pairwise pass evaluates each distance once for both
+     * units and skips the index traversals.
+     * 
+     * @param pairwise true to enumerate pairs of units in range once per
+     *        tick, false to run one nearest query per soldier
+     */
+    public void setPairwiseInteractions(boolean pairwise) {
+        pairs = pairwise ? new InteractionPairs(width, height, Constants.DETECTION_RADIUS) : null;
+    }
+    
+    /**
+     * @return true if soldiers sense with the pairwise pass
+     */
+    public boolean isPairwiseInteractions() {
+        return pairs != null;
+    }
+    
+    /**
+     * Sets how often soldiers sense and decide. Unlike the thread count and
+     * the interaction pass, this changes the outcome of a run.
+     * 
+     * @param scheduler Which soldiers think on each tick
+     */
+    public void setThinkScheduler(ThinkScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * @return Which soldiers think on each tick
+     */
+    public ThinkScheduler getThinkScheduler() {
+        return scheduler;
+    }
+    
+    /**
+     * Moves units in the slot range [from, to) and keeps them inside the field.
+     * 
+     * @param from First slot to update
+     * @param to Slot after the last one to update
+     */
+    private void integrate(int from, int to) {
+        long start = SimulationMetrics.ENABLED ? System.nanoTime() : 0;
+        
+        // Update all units, as one linear pass that also keeps them inside the
+        // field when they are all soldiers
+        if (store.allSoldiers()) {
+            Soldier.update(store, from, to, true, width, height);
+        } else {
+            for (int i = from; i < to; i++) {
+                units.get(i).update();
+            }
+        }
+        
+        long integrated = SimulationMetrics.ENABLED ? System.nanoTime() : 0;
         
-        // Constrain Y position
-        if (unit.getY() < 0) {
-            unit.setY(0);
-            unit.setVy(-unit.getVy() * 0.5f); // Bounce with damping
-        } else if (unit.getY() > height) {
-            unit.setY(height);
-            unit.setVy(-unit.getVy() * 0.5f); // Bounce with damping
+        // Handle boundary conditions
+        if (!store.allSoldiers()) {
+            handleBoundaries(from, to);
+        }
+        
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.addChunkTime(SimulationMetrics.Phase.INTEGRATE, integrated - start);
+            SimulationMetrics.addChunkTime(SimulationMetrics.Phase.BOUNDARIES, System.nanoTime() - integrated);
         }
     }
     
     /**
-     * Updates a unit's position in the quadtree if it has moved.
+     * Keeps units within the simulation boundaries.
      * 
-     * @param unit The unit to update
-     * @param oldX The unit's previous X position
-     * @param oldY The unit's previous Y position
+     * @param from First slot to check and constrain
+     * @param to Slot after the last one to check
      */
-    private void updateUnitInQuadtree(Unit unit, float oldX, float oldY) {
-        // For simplicity, we'll rebuild the entire quadtree
-        // In a more optimized version, we would remove and reinsert only the moved unit
-        quadtree.clear();
-        for (Unit u : units) {
-            quadtree.insert(u);
+    private void handleBoundaries(int from, int to) {
+        float[] x = store.x;
+        float[] y = store.y;
+        float[] vx = store.vx;
+        float[] vy = store.vy;
+        for (int i = from; i < to; i++) {
+            // Constrain X position
+            if (x[i] < 0) {
+                x[i] = 0;
+                vx[i] = -vx[i] * 0.5f; // Bounce with damping
+            } else if (x[i] > width) {
+                x[i] = width;
+                vx[i] = -vx[i] * 0.5f; // Bounce with damping
+            }
+            
+            // Constrain Y position
+            if (y[i] < 0) {
+                y[i] = 0;
+                vy[i] = -vy[i] * 0.5f; // Bounce with damping
+            } else if (y[i] > height) {
+                y[i] = height;
+                vy[i] = -vy[i] * 0.5f; // Bounce with damping
+            }
         }
     }
     
     /**
-     * Handles interactions between units.
+     * Handles interactions between units in the slot range [from, to).
+     * 
+     * @param from First slot to handle
+     * @param to Slot after the last one to handle
+     * @param search Nearest-neighbor query state owned by the calling thread
      */
-    private void handleUnitInteractions() {
-        // For each unit, find nearby units and handle interactions
-        for (Unit unit : units) {
-            if (unit instanceof Soldier) {
+    private void handleUnitInteractions(int from, int to, NeighborSearch search) {
+        long start = SimulationMetrics.ENABLED ? System.nanoTime() : 0;
+        
+        // For each unit, find the closest other unit and handle interactions
+        for (int i = from; i < to; i++) {
+            Unit unit = units.get(i);
+            if (unit instanceof Soldier && scheduler.thinks(store, i)) {
                 Soldier soldier = (Soldier) unit;
                 
-                // Query for nearby units
-                Rectangle queryRange = new Rectangle(
-                    (int)(soldier.getX() - Constants.DETECTION_RADIUS),
-                    (int)(soldier.getY() - Constants.DETECTION_RADIUS),
-                    Constants.DETECTION_RADIUS * 2,
-                    Constants.DETECTION_RADIUS * 2
-                );
+                // Only the closest unit within detection radius matters, leaving out the soldier
+                // itself and units of teams it is neutral toward
+                spatialIndex.nearest(soldier.getX(), soldier.getY(), Constants.DETECTION_RADIUS, soldier,
+                    relations.reactingTo(store.team[i]), search);
                 
-                List<Unit> nearbyUnits = new ArrayList<>();
-                quadtree.query(queryRange, nearbyUnits);
+                if (SimulationMetrics.ENABLED) {
+                    SimulationMetrics.countNeighbors(search.size());
+                }
                 
-                // Remove self from the list
-                nearbyUnits.remove(soldier);
-                
-                // Let the soldier handle its response to nearby units
-                soldier.handleNearbyUnits(nearbyUnits);
+                // Let the soldier handle its response to the closest unit
+                soldier.handleNearestUnit(search.nearest());
+            }
+        }
+        
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.addChunkTime(SimulationMetrics.Phase.INTERACTIONS, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Lets soldiers in the slot range [from, to) react to the nearest unit
+     * found by the last pairwise pass.
+     * 
+     * @param from First slot to handle
+     * @param to Slot after the last one to handle
+     */
+    private void handlePairInteractions(int from, int to) {
+        long start = SimulationMetrics.ENABLED ? System.nanoTime() : 0;
+        
+        for (int i = from; i < to; i++) {
+            Unit unit = units.get(i);
+            if (unit instanceof Soldier && scheduler.thinks(store, i)) {
+                int nearest = pairs.nearest(i);
+                if (SimulationMetrics.ENABLED) {
+                    SimulationMetrics.countNeighbors(nearest < 0 ? 0 : 1);
+                }
+                ((Soldier) unit).handleNearestUnit(nearest < 0 ? null : units.get(nearest));
             }
         }
+        
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.addChunkTime(SimulationMetrics.Phase.INTERACTIONS, System.nanoTime() - start);
+        }
     }
 
     /**
-     * @return The quadtree used for spatial partitioning
+     * Finds the closest unit of a team hostile to the given unit's team.
+     * Must not be called while a tick is running, since the index may be
+     * changing under the query.
+     * 
+     * @param unit The unit searching
+     * @param radius Maximum distance to search
+     * @return The closest enemy unit within the radius, or null if none
+     */
+    public Unit nearestEnemy(Unit unit, float radius) {
+        return nearestOf(unit, radius, TeamRelations.Relation.ENEMY, relations.enemiesOf(unit.getTeam()));
+    }
+
+    /**
+     * Finds the closest other unit of a team allied with the given unit's team.
+     * Must not be called while a tick is running, since the index may be
+     * changing under the query.
+     * 
+     * @param unit The unit searching
+     * @param radius Maximum distance to search
+     * @return The closest allied unit within the radius, or null if none
+     */
+    public Unit nearestAlly(Unit unit, float radius) {
+        return nearestOf(unit, radius, TeamRelations.Relation.ALLY, relations.alliesOf(unit.getTeam()));
+    }
+
+    /**
+     * Finds the closest unit with the given relation to a unit. The mask
+     * prunes the search; since teams from 63 up share a mask bit, each
+     * candidate's relation is still checked, widening the search until the
+     * closest matching unit is among the results. The calling thread's own
+     * search object is grown for the wider queries and reused afterwards.
+     * 
+     * @param unit The unit searching
+     * @param radius Maximum distance to search
+     * @param relation Relation the found unit's team must have
+     * @param teams Mask of the teams with that relation
+     * @return The closest matching unit within the radius, or null if none
+     */
+    private Unit nearestOf(Unit unit, float radius, TeamRelations.Relation relation, long teams) {
+        int team = unit.getTeam();
+        NeighborSearch query = lookupSearch.get();
+        for (int k = 1; ; k *= 2) {
+            query.setK(k);
+            spatialIndex.nearest(unit.getX(), unit.getY(), radius, unit, teams, query);
+            for (int n = 0; n < query.size(); n++) {
+                if (relations.get(team, query.get(n).getTeam()) == relation) {
+                    return query.get(n);
+                }
+            }
+            if (query.size() < k) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Runs one parallel phase of a tick over a slot range, splitting it into
+     * work-stealing chunks of at most PARALLEL_CHUNK_SIZE units.
+     */
+    private class PhaseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        static final int INTEGRATE = 0;
+        static final int INTERACT = 1;
+        static final int DECIDE = 2;
+        
+        private final int phase;
+        private final int from;
+        private final int to;
+        
+        PhaseTask(int phase, int from, int to) {
+            this.phase = phase;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > Constants.PARALLEL_CHUNK_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PhaseTask(phase, from, mid), new PhaseTask(phase, mid, to));
+            } else if (phase == INTEGRATE) {
+                integrate(from, to);
+            } else if (phase == DECIDE) {
+                handlePairInteractions(from, to);
+            } else {
+                handleUnitInteractions(from, to, workerSearch.get());
+            }
+        }
+    }
+
+    /**
+     * @return How teams regard each other; changes apply from the next tick
+     */
+    public TeamRelations getTeamRelations() {
+        return relations;
+    }
+
+    /**
+     * @return The spatial index used to find nearby units
+     */
+    public SpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    /**
+     * @return The quadtree used for spatial partitioning, or null if the
+     *         simulation uses a different spatial index
      */
     public QuadtreeNode getQuadtreeNode() {
-        return quadtree;
+        return spatialIndex instanceof QuadtreeNode ? (QuadtreeNode) spatialIndex : null;
+    }
+    
+    /**
+     * @return The structure-of-arrays store holding every unit's state
+     */
+    public UnitStore getUnitStore() {
+        return store;
+    }
+    
+    /**
+     * @return Width of the simulation area
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * @return Height of the simulation area
+     */
+    public int getHeight() {
+        return height;
     }
     
     /**
@@ -0,0 +1,280 @@
+package com.github.Terry113;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide timers and counters for the simulation hot paths.
+ *
+ * Instrumentation is enabled with -Dsimulation.metrics=true. Every call
+ * site is guarded by the ENABLED constant, so when it is off the JIT drops
+ * the guarded code entirely. When enabled, the metrics are also published
+ * over JMX as com.github.Terry113:type=SimulationMetrics.
+ *
+ * Phases that run in chunks on several threads record the summed time of
+ * all chunks for the tick, i.e. the CPU time spent in the phase.
+ */
+public final class SimulationMetrics {
+    public static final boolean ENABLED = Boolean.getBoolean("simulation.metrics");
+
+    /**
+     * Timed sections of the simulation.
+     */
+    public enum Phase {
+        TICK,           // Whole SimulationManager.update call
+        INTEGRATE,      // Unit updates
+        BOUNDARIES,     // Keeping units inside the field
+        INDEX,          // Spatial index maintenance
+        INTERACTIONS,   // Neighbor queries and decisions
+        PAINT           // SimulationRenderer.paintComponent
+    }
+
+    private static final Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+    private static final LongAdder[] pendingTime = new LongAdder[Phase.values().length]; // Chunk time of the running tick
+    private static final LongAdder nodesVisited = new LongAdder();
+    private static final LongAdder candidatesTested = new LongAdder();
+    private static final LongAdder neighborsFound = new LongAdder();
+
+    static {
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+            pendingTime[phase.ordinal()] = new LongAdder();
+        }
+        if (ENABLED) {
+            register();
+        }
+    }
+
+    private SimulationMetrics() {
+    }
+
+    /**
+     * Records a complete measurement of a phase.
+     *
+     * @param phase The measured phase
+     * @param nanos Duration in nanoseconds
+     */
+    public static void record(Phase phase, long nanos) {
+        histograms.get(phase).record(nanos);
+    }
+
+    /**
+     * Adds the duration of one chunk of a phase to the running tick.
+     *
+     * @param phase The measured phase
+     * @param nanos Duration of the chunk in nanoseconds
+     */
+    static void addChunkTime(Phase phase, long nanos) {
+        pendingTime[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * Records the chunked phases and the whole tick once a tick has finished.
+     *
+     * @param tickNanos Duration of the tick in nanoseconds
+     */
+    static void endTick(long tickNanos) {
+        for (Phase phase : Phase.values()) {
+            long pending = pendingTime[phase.ordinal()].sumThenReset();
+            if (pending > 0) {
+                record(phase, pending);
+            }
+        }
+        record(Phase.TICK, tickNanos);
+    }
+
+    /**
+     * Counts one visited index node or cell and the units it held.
+     *
+     * @param candidates Units tested against the query range
+     */
+    static void countNodeVisit(int candidates) {
+        nodesVisited.increment();
+        candidatesTested.add(candidates);
+    }
+
+    /**
+     * Counts a batch of visited index nodes or cells.
+     *
+     * @param nodes Nodes or cells visited
+     * @param candidates Units tested against the query range
+     */
+    static void countNodeVisits(int nodes, int candidates) {
+        nodesVisited.add(nodes);
+        candidatesTested.add(candidates);
+    }
+
+    /**
+     * @param neighbors Neighbors returned by one query
+     */
+    static void countNeighbors(int neighbors) {
+        neighborsFound.add(neighbors);
+    }
+
+    /**
+     * @return A copy of the current metrics
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /**
+     * Clears all histograms and counters.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        nodesVisited.reset();
+        candidatesTested.reset();
+        neighborsFound.reset();
+    }
+
+    private static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBeanImpl(),
+                new ObjectName("com.github.Terry113:type=SimulationMetrics"));
+        } catch (JMException e) {
+            System.err.println("Could not register simulation metrics over JMX: " + e);
+        }
+    }
+
+    /**
+     * Point-in-time copy of the metrics.
+     */
+    public static final class Snapshot {
+        private final Map<Phase, long[]> percentiles = new EnumMap<>(Phase.class); // count, p50, p90, p99, max
+        private final long ticks;
+        private final long nodesVisited;
+        private final long candidatesTested;
+        private final long neighborsFound;
+
+        private Snapshot() {
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = histograms.get(phase);
+                percentiles.put(phase, new long[] {
+                    histogram.getTotalCount(),
+                    histogram.getValueAtQuantile(0.50),
+                    histogram.getValueAtQuantile(0.90),
+                    histogram.getValueAtQuantile(0.99),
+                    histogram.getMax()
+                });
+            }
+            this.ticks = histograms.get(Phase.TICK).getTotalCount();
+            this.nodesVisited = SimulationMetrics.nodesVisited.sum();
+            this.candidatesTested = SimulationMetrics.candidatesTested.sum();
+            this.neighborsFound = SimulationMetrics.neighborsFound.sum();
+        }
+
+        public long getCount(Phase phase) {
+            return percentiles.get(phase)[0];
+        }
+
+        public long getP50Nanos(Phase phase) {
+            return percentiles.get(phase)[1];
+        }
+
+        public long getP90Nanos(Phase phase) {
+            return percentiles.get(phase)[2];
+        }
+
+        public long getP99Nanos(Phase phase) {
+            return percentiles.get(phase)[3];
+        }
+
+        public long getMaxNanos(Phase phase) {
+            return percentiles.get(phase)[4];
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        public long getNodesVisited() {
+            return nodesVisited;
+        }
+
+        public long getCandidatesTested() {
+            return candidatesTested;
+        }
+
+        public long getNeighborsFound() {
+            return neighborsFound;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (Phase phase : Phase.values()) {
+                if (getCount(phase) == 0) {
+                    continue;
+                }
+                text.append(String.format("%-12s n=%d p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms%n",
+                    phase.name().toLowerCase(), getCount(phase), getP50Nanos(phase) / 1e6,
+                    getP90Nanos(phase) / 1e6, getP99Nanos(phase) / 1e6, getMaxNanos(phase) / 1e6));
+            }
+            double perTick = Math.max(1, ticks);
+            text.append(String.format("per tick: nodes visited=%.0f candidates=%.0f neighbors=%.0f%n",
+                nodesVisited / perTick, candidatesTested / perTick, neighborsFound / perTick));
+            return text.toString();
+        }
+    }
+
+    /**
+     * JMX view of the metrics.
+     */
+    public interface SimulationMetricsMXBean {
+        /**
+         * @return Percentiles per phase in microseconds, keyed like "tick.p99"
+         */
+        Map<String, Double> getLatencyMicros();
+
+        /**
+         * @return Totals of the query counters and the tick count
+         */
+        Map<String, Long> getCounters();
+
+        /**
+         * Clears all histograms and counters.
+         */
+        void reset();
+    }
+
+    private static final class MXBeanImpl implements SimulationMetricsMXBean {
+        @Override
+        public Map<String, Double> getLatencyMicros() {
+            Snapshot snapshot = snapshot();
+            Map<String, Double> latency = new LinkedHashMap<>();
+            for (Phase phase : Phase.values()) {
+                String name = phase.name().toLowerCase();
+                latency.put(name + ".p50", snapshot.getP50Nanos(phase) / 1e3);
+                latency.put(name + ".p90", snapshot.getP90Nanos(phase) / 1e3);
+                latency.put(name + ".p99", snapshot.getP99Nanos(phase) / 1e3);
+                latency.put(name + ".max", snapshot.getMaxNanos(phase) / 1e3);
+            }
+            return latency;
+        }
+
+        @Override
+        public Map<String, Long> getCounters() {
+            Snapshot snapshot = snapshot();
+            Map<String, Long> counters = new LinkedHashMap<>();
+            counters.put("ticks", snapshot.getTicks());
+            counters.put("nodesVisited", snapshot.getNodesVisited());
+            counters.put("candidatesTested", snapshot.getCandidatesTested());
+            counters.put("neighborsFound", snapshot.getNeighborsFound());
+            return counters;
+        }
+
+        @Override
+        public void reset() {
+            SimulationMetrics.reset();
+        }
+    }
+}
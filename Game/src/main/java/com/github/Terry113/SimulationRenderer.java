@@ -2,75 +2,207 @@ package com.github.Terry113;
 
 import javax.swing.JPanel;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Color;
-import java.util.List;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 
 /**
  * Handles the rendering of the simulation to the screen.
+ * 
+ * Units are drawn from the snapshots published by a {@link SnapshotSource},
+ * a running {@link SimulationLoop} or a {@link ReplayPlayer}, never from the
+ * live simulation. Painting interpolates between the two
+ * most recent snapshots, so motion stays smooth at any display rate at the
+ * cost of showing the simulation one tick late.
+ * 
+ * A frame is composed in a back buffer: units are copied in as cached
+ * sprites by a {@link SpriteRenderer}, culled to the area being repainted,
+ * and the finished buffer is drawn to the screen in a single call.
+ * 
+ * The quadtree overlay comes from the snapshots as well. It is drawn once
+ * into a cached background and only redrawn when the tree's version
+ * changes; every frame starts from a copy of that background.
+ * 
+ * The view can be zoomed with the mouse wheel. Once units would be drawn
+ * smaller than the level-of-detail size, individual units are no longer
+ * drawn; instead each quadtree leaf or grid cell is filled with the color
+ * of its dominant team, darker where units are packed more densely. The
+ * spatial index keeps the counts, so such a frame costs one fill per
+ * region no matter how many units there are.
  */
 public class SimulationRenderer extends JPanel {
-    private SimulationManager simManager;
+    private SnapshotSource source;
+    private SnapshotExchange snapshots;
     private boolean showQuadtree = true; // Toggle to show/hide quadtree boundaries
+    private boolean showOccupancy = false; // Toggle to shade quadtree leaves by unit count
+    private float scale = 1; // Screen pixels per simulation unit
+    private int lodUnitSize = Constants.LOD_UNIT_SIZE; // On-screen unit size below which density is drawn
+    private final SpriteRenderer spriteRenderer = new SpriteRenderer();
+    private BufferedImage backBuffer; // Frame being composed, resized with the panel
+    private int[] backPixels; // Pixels of the back buffer
+    private BufferedImage background; // White with the quadtree overlay, same size as the back buffer
+    private int[] backgroundPixels; // Pixels of the background
+    private boolean backgroundValid; // False when the background needs redrawing
+    private long backgroundStructure = -1; // Structure version the background was drawn from
+    private long backgroundContent = -1; // Content version the background was drawn from
 
     /**
-     * Creates a new renderer for the given simulation manager.
+     * Creates a new renderer for the snapshots of the given source.
      * 
-     * @param simManager The simulation manager to render
+     * @param source The running simulation or replay publishing the snapshots to render
      */
-    public SimulationRenderer(SimulationManager simManager) {
-        this.simManager = simManager;
+    public SimulationRenderer(SnapshotSource source) {
+        this.source = source;
+        this.snapshots = source.getSnapshots();
         setBackground(Color.WHITE); // Set background color
+        addMouseWheelListener(e -> setScale(scale * (float) Math.pow(Constants.ZOOM_STEP, -e.getPreciseWheelRotation())));
     }
 
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
+        long start = SimulationMetrics.ENABLED ? System.nanoTime() : 0;
+        snapshots.acquire();
         
-        // Draw background
-        g.setColor(Color.WHITE);
-        g.fillRect(0, 0, getWidth(), getHeight());
+        int width = getWidth();
+        int height = getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (backBuffer == null || backBuffer.getWidth() != width || backBuffer.getHeight() != height) {
+            backBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            backPixels = ((DataBufferInt) backBuffer.getRaster().getDataBuffer()).getData();
+            background = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            backgroundPixels = ((DataBufferInt) background.getRaster().getDataBuffer()).getData();
+            backgroundValid = false;
+        }
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, width, height);
+        }
         
-        // Draw quadtree boundaries if enabled
-        if (showQuadtree) {
-            g.setColor(Color.LIGHT_GRAY);
-            drawQuadtreeBoundaries(simManager.getQuadtreeNode(), g);
+        // Draw background, with the quadtree boundaries if enabled
+        RenderSnapshot current = snapshots.getCurrent();
+        updateBackground(current);
+        System.arraycopy(backgroundPixels, 0, backPixels, 0, backPixels.length);
+        
+        // Draw all units, or their density when they would be too small to make out
+        if (current.getLargestSize() * scale < lodUnitSize) {
+            DensityRenderer.draw(backPixels, width, height, clip.x, clip.y, clip.width, clip.height,
+                current, scale);
+        } else {
+            renderSimulation(clip, snapshots.getPrevious(), current);
         }
+        g.drawImage(backBuffer, 0, 0, null);
         
-        // Draw all units
-        renderSimulation(g);
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.record(SimulationMetrics.Phase.PAINT, System.nanoTime() - start);
+        }
     }
 
     /**
-     * Renders all units in the simulation.
+     * Renders all units into the back buffer, interpolated between two snapshots.
      * 
-     * @param g The graphics context to render to
+     * @param clip Area being repainted
+     * @param previous The older snapshot
+     * @param current The newer snapshot
      */
-    private void renderSimulation(Graphics g) {
-        List<Unit> units = simManager.getUnits();
-        for (Unit unit : units) {
-            unit.render(g); // Delegate the rendering to the unit itself
+    private void renderSimulation(Rectangle clip, RenderSnapshot previous, RenderSnapshot current) {
+        if (current.getTick() < 0) {
+            return;
+        }
+        
+        // Fraction of a tick since the current snapshot, drawn as the way from the previous one to it.
+        // Only consecutive ticks are interpolated; skipped ticks or a replay seek show the current one as is.
+        float alpha = 1;
+        if (previous.getTick() >= 0 && current.getTick() - previous.getTick() == 1) {
+            alpha = Util.clamp((System.nanoTime() - current.getTime()) / (float) source.getPeriod(), 0, 1);
         }
+        spriteRenderer.draw(backPixels, backBuffer.getWidth(), backBuffer.getHeight(),
+            clip.x, clip.y, clip.width, clip.height, previous, current, alpha, scale);
     }
 
     /**
-     * Recursively draws the boundaries of the quadtree.
+     * Redraws the cached background if the overlay it shows is out of date.
+     * Boundaries only depend on the tree's structure, occupancy shading also
+     * on which leaf each unit is in. Other spatial indexes have no overlay.
      * 
-     * @param node The quadtree node to draw
-     * @param g The graphics context to render to
+     * @param snapshot The snapshot holding the quadtree leaves to draw
      */
-    private void drawQuadtreeBoundaries(QuadtreeNode node, Graphics g) {
-        if (node == null) {
+    private void updateBackground(RenderSnapshot snapshot) {
+        long structure = showQuadtree ? snapshot.getStructureVersion() : -1;
+        long content = showQuadtree && showOccupancy ? snapshot.getContentVersion() : -1;
+        if (backgroundValid && structure == backgroundStructure && content == backgroundContent) {
             return;
         }
         
-        g.drawRect(node.getX(), node.getY(), node.getWidth(), node.getHeight());
+        Arrays.fill(backgroundPixels, Color.WHITE.getRGB());
+        if (structure >= 0) {
+            Graphics2D g = background.createGraphics();
+            drawQuadtreeLeaves(snapshot, g);
+            g.dispose();
+        }
+        backgroundStructure = structure;
+        backgroundContent = content;
+        backgroundValid = true;
+    }
+
+    /**
+     * Draws the boundaries of the quadtree leaves in a snapshot, shaded by
+     * the number of units in each leaf if occupancy display is enabled.
+     * 
+     * @param snapshot The snapshot holding the leaves
+     * @param g The graphics context to render to
+     */
+    private void drawQuadtreeLeaves(RenderSnapshot snapshot, Graphics2D g) {
+        int leaves = snapshot.getRegionCount();
+        int[] counts = snapshot.regionCounts;
         
-        QuadtreeNode[] children = node.getChildren();
-        if (children != null) {
-            for (QuadtreeNode child : children) {
-                drawQuadtreeBoundaries(child, g);
+        if (showOccupancy) {
+            // Shade relative to the fullest leaf, so hotspots stand out at any unit count
+            int maxCount = 1;
+            for (int i = 0; i < leaves; i++) {
+                maxCount = Math.max(maxCount, counts[i]);
+            }
+            for (int i = 0; i < leaves; i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                g.setColor(occupancyColor(counts[i] / (float) maxCount));
+                drawRegion(snapshot, i, g, true);
             }
         }
+        
+        g.setColor(Color.LIGHT_GRAY);
+        for (int i = 0; i < leaves; i++) {
+            drawRegion(snapshot, i, g, false);
+        }
+    }
+
+    /**
+     * Fills or outlines a region of a snapshot at the current scale.
+     */
+    private void drawRegion(RenderSnapshot snapshot, int i, Graphics2D g, boolean fill) {
+        float[] bounds = snapshot.regionBounds;
+        int left = (int) (bounds[i * 4] * scale);
+        int top = (int) (bounds[i * 4 + 1] * scale);
+        int right = (int) ((bounds[i * 4] + bounds[i * 4 + 2]) * scale);
+        int bottom = (int) ((bounds[i * 4 + 1] + bounds[i * 4 + 3]) * scale);
+        if (fill) {
+            g.fillRect(left, top, right - left, bottom - top);
+        } else {
+            g.drawRect(left, top, right - left, bottom - top);
+        }
+    }
+
+    /**
+     * @param occupancy Units in a leaf relative to the fullest leaf, from 0 to 1
+     * @return Shade from white for an empty leaf to orange for the fullest
+     */
+    private static Color occupancyColor(float occupancy) {
+        return new Color(255, (int) (255 - 100 * occupancy), (int) (255 - 215 * occupancy));
     }
     
     /**
@@ -78,6 +210,45 @@ public class SimulationRenderer extends JPanel {
      */
     public void toggleQuadtreeDisplay() {
         showQuadtree = !showQuadtree;
+        backgroundValid = false;
+        repaint();
+    }
+
+    /**
+     * Toggles shading of quadtree leaves by the number of units they hold.
+     */
+    public void toggleOccupancyDisplay() {
+        showOccupancy = !showOccupancy;
+        backgroundValid = false;
+        repaint();
+    }
+
+    /**
+     * Zooms the view, keeping the top-left corner of the field in place.
+     * 
+     * @param scale Screen pixels per simulation unit
+     */
+    public void setScale(float scale) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("Scale must be positive: " + scale);
+        }
+        this.scale = scale;
+        backgroundValid = false;
+        repaint();
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * Sets the on-screen size below which units are drawn as density
+     * instead of individually.
+     * 
+     * @param lodUnitSize Size in pixels, 0 to always draw individual units
+     */
+    public void setLodUnitSize(int lodUnitSize) {
+        this.lodUnitSize = lodUnitSize;
         repaint();
     }
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+package com.github.Terry113;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free handoff of render snapshots from the simulation thread to the
+ * painting thread. Four snapshots circulate: one being written, one ready
+ * in the exchange slot, and the two most recent ones held by the reader for
+ * interpolation. Publishing and acquiring each swap a snapshot through the
+ * slot, so neither side ever waits for the other and a snapshot is never
+ * written while the reader holds it.
+ *
+ * There must be a single writer thread and a single reader thread.
+ */
+public class SnapshotExchange {
+    private final AtomicReference<RenderSnapshot> ready = new AtomicReference<>(new RenderSnapshot());
+    private RenderSnapshot back = new RenderSnapshot(); // Owned by the writer
+    private RenderSnapshot previous = new RenderSnapshot(); // Owned by the reader
+    private RenderSnapshot current = new RenderSnapshot(); // Owned by the reader
+
+    /**
+     * @return The snapshot the writer may fill next
+     */
+    RenderSnapshot getBack() {
+        return back;
+    }
+
+    /**
+     * Publishes the filled back snapshot and takes over whichever snapshot
+     * was waiting in the slot as the next one to fill. An unread snapshot is
+     * simply replaced by the newer one.
+     */
+    void publish() {
+        back = ready.getAndSet(back);
+    }
+
+    /**
+     * Takes the newest published snapshot if it was published after the
+     * current one. The current snapshot becomes the previous one, and the old
+     * previous snapshot goes back to the writer.
+     *
+     * @return true if a new snapshot was acquired
+     */
+    public boolean acquire() {
+        // Only the writer puts newer snapshots in the slot, so once one is
+        // seen the swap below is guaranteed to return a new snapshot
+        if (ready.get().getSequence() <= current.getSequence()) {
+            return false;
+        }
+        RenderSnapshot latest = ready.getAndSet(previous);
+        previous = current;
+        current = latest;
+        return true;
+    }
+
+    /**
+     * @return The newest snapshot acquired by the reader
+     */
+    public RenderSnapshot getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return The snapshot acquired before the current one
+     */
+    public RenderSnapshot getPrevious() {
+        return previous;
+    }
+}
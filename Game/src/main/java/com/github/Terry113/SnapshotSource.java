@@ -0,0 +1,17 @@
+package com.github.Terry113;
+
+/**
+ * Something that publishes render snapshots at a steady rate, such as a
+ * running simulation or a replay being played back.
+ */
+public interface SnapshotSource {
+    /**
+     * @return The exchange the renderer takes snapshots from
+     */
+    SnapshotExchange getSnapshots();
+
+    /**
+     * @return Nanoseconds between two published ticks
+     */
+    long getPeriod();
+}
@@ -3,18 +3,21 @@ package com.github.Terry113;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.util.List;
-import java.util.Random;
 
 /**
- * Represents a soldier unit in the simulation.
+ * Represents a soldier unit in the simulation. The soldier's state, target
+ * and timer live in its {@link UnitStore} slot; the behavior is written over
+ * slot ranges so that a whole store can be updated in one linear pass.
  */
 public class Soldier extends Unit {
-    private int size;
-    private State currentState;
-    private Random random = new Random();
-    private float targetX, targetY; // Target position for movement
-    private static final float MAX_SPEED = 2.0f;
-    private int stateTimer = 0; // Timer for state transitions
+    private static final int BLOCK_SIZE = 256; // Soldiers updated per block, see update
+    private static final ThreadLocal<int[]> RETARGETS = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[BLOCK_SIZE];
+        }
+    };
+    private static final State[] STATES = State.values();
     
     /**
      * Possible states for the soldier.
@@ -26,8 +29,25 @@ public class Soldier extends Unit {
         FLEEING     // Moving away from another unit
     }
 
+    // State ordinals as stored in UnitStore.state
+    private static final byte IDLE_ORDINAL = 0;
+    private static final byte WANDERING_ORDINAL = 1;
+    private static final byte CHASING_ORDINAL = 2;
+    private static final byte FLEEING_ORDINAL = 3;
+
+    // Draw slots of the random numbers a soldier may use in one tick, see UnitRandom;
+    // a new target takes two slots, one per coordinate
+    private static final int STATE_CHANGE_DRAW = 0;
+    private static final int IDLE_DRAW = 1;
+    private static final int WANDER_TARGET_DRAW = 2;
+    private static final int REACHED_TARGET_DRAW = 4;
+    private static final int FLEE_OVER_TARGET_DRAW = 6;
+    private static final int ALONE_TARGET_DRAW = 8;
+    private static final int SPAWN_TARGET_DRAW = 10;
+
     /**
-     * Creates a new soldier.
+     * Creates a new soldier. Its random stream is the next of a fixed
+     * sequence, so soldiers created in the same order behave the same way.
      * 
      * @param x Initial X position
      * @param y Initial Y position
@@ -39,19 +59,67 @@ public class Soldier extends Unit {
      */
     public Soldier(float x, float y, float vx, float vy, float angle, Color color, int size) {
         super(x, y, vx, vy, angle, color);
-        this.size = size;
-        this.currentState = State.IDLE;
-        
-        // Initialize with random movement target
-        setRandomTarget();
+        spawn(store, index, size, UnitRandom.unseededStream());
+    }
+
+    /**
+     * Creates a new soldier whose random decisions are reproducible.
+     * 
+     * @param x Initial X position
+     * @param y Initial Y position
+     * @param vx Initial X velocity
+     * @param vy Initial Y velocity
+     * @param angle Initial angle
+     * @param color Color of the soldier
+     * @param size Size of the soldier
+     * @param seed Seed for the soldier's random stream
+     */
+    public Soldier(float x, float y, float vx, float vy, float angle, Color color, int size, long seed) {
+        super(x, y, vx, vy, angle, color);
+        spawn(store, index, size, UnitRandom.stream(seed));
+    }
+    
+    /**
+     * Fills in the soldier columns of a new slot, which starts idle with a
+     * random movement target. The target is drawn for tick 0, as for a
+     * soldier constructed on its own, so it does not depend on when the
+     * soldier joins a simulation.
+     * 
+     * @param s The store holding the soldier
+     * @param i Slot of the soldier
+     * @param size Size of the soldier
+     * @param stream Key of the soldier's random stream
+     */
+    static void spawn(UnitStore s, int i, int size, long stream) {
+        s.size[i] = size;
+        s.state[i] = IDLE_ORDINAL;
+        s.stateTimer[i] = 0;
+        s.random[i] = stream;
+        s.targetX[i] = UnitRandom.nextInt(stream, 0, SPAWN_TARGET_DRAW, s.getFieldWidth());
+        s.targetY[i] = UnitRandom.nextInt(stream, 0, SPAWN_TARGET_DRAW + 1, s.getFieldHeight());
     }
     
     /**
-     * Sets a random target position for the soldier to move toward.
+     * Creates a view of a slot that already holds a soldier's state.
+     * 
+     * @param store The store holding the state
+     * @param index Slot of the soldier in the store
+     */
+    Soldier(UnitStore store, int index) {
+        super(store, index);
+    }
+    
+    /**
+     * Sets a random target position for a stored soldier to move toward.
+     * 
+     * @param s The store holding the soldier
+     * @param i Slot of the soldier
+     * @param draw First of the two draw slots to take the coordinates from
      */
-    private void setRandomTarget() {
-        targetX = random.nextInt(Constants.FIELD_WIDTH);
-        targetY = random.nextInt(Constants.FIELD_HEIGHT);
+    private static void setRandomTarget(UnitStore s, int i, int draw) {
+        long tick = s.getTick();
+        s.targetX[i] = UnitRandom.nextInt(s.random[i], tick, draw, s.getFieldWidth());
+        s.targetY[i] = UnitRandom.nextInt(s.random[i], tick, draw + 1, s.getFieldHeight());
     }
 
     /**
@@ -60,133 +128,212 @@ public class Soldier extends Unit {
      * @param nearbyUnits List of units within detection radius
      */
     public void handleNearbyUnits(List<Unit> nearbyUnits) {
-        if (nearbyUnits.isEmpty()) {
-            // No units nearby, transition to wandering if not already
-            if (currentState != State.WANDERING && currentState != State.IDLE) {
-                currentState = State.WANDERING;
-                setRandomTarget();
-            }
-            return;
-        }
-        
         // Find the closest unit
+        float x = store.x[index];
+        float y = store.y[index];
         Unit closest = null;
         float closestDistSquared = Float.MAX_VALUE;
         
-        for (Unit other : nearbyUnits) {
-            float distSquared = Util.getDistanceSquared(other.getX(), other.getY(), getX(), getY());
+        for (int n = 0; n < nearbyUnits.size(); n++) {
+            Unit other = nearbyUnits.get(n);
+            float distSquared = Util.getDistanceSquared(other.getX(), other.getY(), x, y);
             if (distSquared < closestDistSquared) {
                 closestDistSquared = distSquared;
                 closest = other;
             }
         }
         
-        // If there's a unit nearby, chase or flee based on color
-        if (closest != null) {
-            if (getColor().equals(closest.getColor())) {
-                // Same color, follow
-                currentState = State.CHASING;
-                targetX = closest.getX();
-                targetY = closest.getY();
-            } else {
-                // Different color, flee
-                currentState = State.FLEEING;
-                // Calculate direction away from other unit
-                float dx = getX() - closest.getX();
-                float dy = getY() - closest.getY();
-                // Normalize and set target position
-                float length = (float) Math.sqrt(dx * dx + dy * dy);
-                if (length > 0) {
-                    dx /= length;
-                    dy /= length;
-                    targetX = getX() + dx * 100; // Move 100 units away
-                    targetY = getY() + dy * 100;
-                }
+        handleNearestUnit(closest);
+    }
+
+    /**
+     * Handles the soldier's response to the closest unit within detection radius.
+     * 
+     * @param closest The closest other unit, or null if none is in range
+     */
+    public void handleNearestUnit(Unit closest) {
+        UnitStore s = store;
+        int i = index;
+        if (closest == null) {
+            // No units nearby, transition to wandering if not already
+            if (s.state[i] != WANDERING_ORDINAL && s.state[i] != IDLE_ORDINAL) {
+                s.state[i] = WANDERING_ORDINAL;
+                setRandomTarget(s, i, ALONE_TARGET_DRAW);
+            }
+            return;
+        }
+        
+        // Chase or flee based on how the teams regard each other
+        float x = s.x[i];
+        float y = s.y[i];
+        int team = s.team[i];
+        int other = closest.store.team[closest.index];
+        TeamRelations.Relation relation = s.relations == null
+            ? (team == other ? TeamRelations.Relation.ALLY : TeamRelations.Relation.ENEMY)
+            : s.relations.get(team, other);
+        if (relation == TeamRelations.Relation.NEUTRAL) {
+            // Neutral units are ignored as if nothing were nearby
+            handleNearestUnit(null);
+        } else if (relation == TeamRelations.Relation.ALLY) {
+            // Allied team, follow
+            s.state[i] = CHASING_ORDINAL;
+            s.targetX[i] = closest.getX();
+            s.targetY[i] = closest.getY();
+        } else {
+            // Enemy team, flee
+            s.state[i] = FLEEING_ORDINAL;
+            // Calculate direction away from other unit
+            float dx = x - closest.getX();
+            float dy = y - closest.getY();
+            // Normalize and set target position
+            float length = (float) Math.sqrt(dx * dx + dy * dy);
+            if (length > 0) {
+                dx /= length;
+                dy /= length;
+                s.targetX[i] = x + dx * 100; // Move 100 units away
+                s.targetY[i] = y + dy * 100;
             }
         }
     }
 
     @Override
     public void update() {
-        stateTimer++;
-        
-        // Potentially change state randomly
-        if (stateTimer > 100 && random.nextFloat() < 0.05f) {
-            stateTimer = 0;
-            
-            // 20% chance to transition to idle, 80% to wandering
-            if (random.nextFloat() < 0.2f) {
-                currentState = State.IDLE;
-                setVx(0);
-                setVy(0);
-            } else {
-                currentState = State.WANDERING;
-                setRandomTarget();
+        update(store, index, index + 1);
+    }
+
+    /**
+     * Updates every soldier stored in the slot range [from, to), without
+     * keeping them inside the field.
+     * 
+     * @param s The store holding the soldiers
+     * @param from First slot to update
+     * @param to Slot after the last one to update
+     */
+    static void update(UnitStore s, int from, int to) {
+        update(s, from, to, false, 0, 0);
+    }
+
+    /**
+     * Updates every soldier stored in the slot range [from, to). Each block
+     * of soldiers goes through three passes: state changes, which draw
+     * random numbers and branch per soldier; the movement kernel over the
+     * whole block; and the new targets picked this tick, which only apply
+     * from the next tick on and are rare.
+     * 
+     * @param s The store holding the soldiers
+     * @param from First slot to update
+     * @param to Slot after the last one to update
+     * @param bounded Whether to keep the soldiers inside the field
+     * @param width Width of the field
+     * @param height Height of the field
+     */
+    static void update(UnitStore s, int from, int to, boolean bounded, float width, float height) {
+        int[] retargets = RETARGETS.get();
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int end = Math.min(to, start + BLOCK_SIZE);
+            int count = changeStates(s, start, end, retargets);
+            MovementKernel.move(s.x, s.y, s.vx, s.vy, s.targetX, s.targetY, s.state, start, end,
+                bounded, width, height);
+            for (int k = 0; k < count; k++) {
+                int i = retargets[k];
+                if (i >= 0) {
+                    setRandomTarget(s, i, REACHED_TARGET_DRAW);
+                } else {
+                    setRandomTarget(s, ~i, FLEE_OVER_TARGET_DRAW);
+                }
             }
         }
-        
-        switch (currentState) {
-            case IDLE:
-                // Gradually slow down
-                setVx(getVx() * 0.9f);
-                setVy(getVy() * 0.9f);
-                break;
-                
-            case WANDERING:
-            case CHASING:
-                // Move toward target
-                steer(targetX, targetY);
-                // If we reached the target, set a new one
-                if (Util.getDistanceSquared(targetX, targetY, getX(), getY()) < 100) {
-                    if (currentState == State.WANDERING) {
-                        setRandomTarget();
-                    }
-                }
-                break;
+    }
+
+    /**
+     * Advances the state timers and state machines of the soldiers in a
+     * slot range, before they move.
+     * 
+     * @param s The store holding the soldiers
+     * @param from First slot to update
+     * @param to Slot after the last one to update
+     * @param retargets Receives the slots of soldiers that pick a new target
+     *        after moving: the slot when a wandering soldier reached its
+     *        target, its complement when a soldier stopped fleeing
+     * @return Number of slots written to retargets
+     */
+    private static int changeStates(UnitStore s, int from, int to, int[] retargets) {
+        long tick = s.getTick();
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            s.stateTimer[i]++;
+            
+            // Potentially change state randomly
+            if (s.stateTimer[i] > 100 && UnitRandom.nextFloat(s.random[i], tick, STATE_CHANGE_DRAW) < 0.05f) {
+                s.stateTimer[i] = 0;
                 
-            case FLEEING:
-                // Move toward flee target
-                steer(targetX, targetY);
-                // After moving for a bit, transition back to wandering
-                if (stateTimer > 50) {
-                    currentState = State.WANDERING;
-                    setRandomTarget();
+                // 20% chance to transition to idle, 80% to wandering
+                if (UnitRandom.nextFloat(s.random[i], tick, IDLE_DRAW) < 0.2f) {
+                    s.state[i] = IDLE_ORDINAL;
+                    // Keep facing the way the soldier was moving
+                    s.angle[i] = s.angleOf(i);
+                    s.vx[i] = 0;
+                    s.vy[i] = 0;
+                } else {
+                    s.state[i] = WANDERING_ORDINAL;
+                    setRandomTarget(s, i, WANDER_TARGET_DRAW);
                 }
-                break;
-        }
-        
-        // Limit speed
-        float speed = (float) Math.sqrt(getVx() * getVx() + getVy() * getVy());
-        if (speed > MAX_SPEED) {
-            setVx(getVx() * MAX_SPEED / speed);
-            setVy(getVy() * MAX_SPEED / speed);
-        }
-        
-        // Update position
-        setX(getX() + getVx());
-        setY(getY() + getVy());
-        
-        // Update angle to match movement direction
-        if (getVx() != 0 || getVy() != 0) {
-            setAngle((float) Math.atan2(getVy(), getVx()));
+            }
+            
+            switch (s.state[i]) {
+                case WANDERING_ORDINAL:
+                    // If we reached the target, set a new one once moved toward the current one
+                    if (Util.getDistanceSquared(s.targetX[i], s.targetY[i], s.x[i], s.y[i]) < 100) {
+                        retargets[count++] = i;
+                    }
+                    break;
+                    
+                case FLEEING_ORDINAL:
+                    // After moving for a bit, transition back to wandering
+                    if (s.stateTimer[i] > 50) {
+                        s.state[i] = WANDERING_ORDINAL;
+                        retargets[count++] = ~i;
+                    }
+                    break;
+                    
+                default:
+                    break;
+            }
         }
+        return count;
     }
 
     @Override
     public void render(Graphics g) {
-        g.setColor(getColor());
+        draw(g, getX(), getY(), getAngle(), getColor(), store.size[index], store.state[index]);
+    }
+
+    /**
+     * Draws a soldier from plain values, so that snapshots of the simulation
+     * can be drawn without access to the live units.
+     * 
+     * @param g The graphics context to render to
+     * @param x X position
+     * @param y Y position
+     * @param angle Facing angle in radians
+     * @param color Color of the soldier
+     * @param size Size of the soldier
+     * @param state Ordinal of the soldier's state
+     */
+    static void draw(Graphics g, float x, float y, float angle, Color color, int size, byte state) {
+        g.setColor(color);
         
         // Draw the soldier as a filled rectangle
-        g.fillRect((int) getX() - size / 2, (int) getY() - size / 2, size, size);
+        g.fillRect((int) x - size / 2, (int) y - size / 2, size, size);
         
         // Draw a line indicating the facing direction
         float lineLength = size * 0.8f;
-        float endX = getX() + (float) Math.cos(getAngle()) * lineLength;
-        float endY = getY() + (float) Math.sin(getAngle()) * lineLength;
-        g.drawLine((int) getX(), (int) getY(), (int) endX, (int) endY);
+        float endX = x + (float) Math.cos(angle) * lineLength;
+        float endY = y + (float) Math.sin(angle) * lineLength;
+        g.drawLine((int) x, (int) y, (int) endX, (int) endY);
         
         // Debug: Draw different outline based on state
-        switch (currentState) {
+        switch (STATES[state]) {
             case IDLE:
                 g.setColor(Color.BLACK);
                 break;
@@ -201,14 +348,14 @@ public class Soldier extends Unit {
                 break;
         }
         
-        g.drawRect((int) getX() - size / 2, (int) getY() - size / 2, size, size);
+        g.drawRect((int) x - size / 2, (int) y - size / 2, size, size);
     }
 
     public State getCurrentState() {
-        return currentState;
+        return STATES[store.state[index]];
     }
     
     public void setState(State state) {
-        this.currentState = state;
+        store.state[index] = (byte) state.ordinal();
     }
 }
\ No newline at end of file
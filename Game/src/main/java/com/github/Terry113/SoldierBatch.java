@@ -0,0 +1,138 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * Soldiers waiting to be added to a simulation in one go, kept as parallel
+ * arrays like the {@link UnitStore} columns they are copied into. Spawning
+ * a batch creates no standalone soldier and no per-unit store, and a large
+ * batch is indexed with one bulk rebuild instead of an insert per unit. A
+ * batch can be cleared and filled again.
+ */
+public class SoldierBatch {
+    float[] x, y; // Position
+    float[] vx, vy; // Velocity
+    float[] angle; // Orientation angle in radians
+    int[] team; // Team id, see UnitStore.teamOf(Color)
+    int[] size; // Drawn size in pixels
+    long[] stream; // Random stream key, see UnitRandom
+    private int count;
+    private Color lastColor; // Color of the previous soldier, whose team id is lastTeam
+    private int lastTeam;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param capacity Number of soldiers to make room for
+     */
+    public SoldierBatch(int capacity) {
+        capacity = Math.max(1, capacity);
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        angle = new float[capacity];
+        team = new int[capacity];
+        size = new int[capacity];
+        stream = new long[capacity];
+    }
+
+    /**
+     * Adds a soldier whose random decisions are reproducible, as created by
+     * the seeded Soldier constructor.
+     *
+     * @param x Initial X position
+     * @param y Initial Y position
+     * @param vx Initial X velocity
+     * @param vy Initial Y velocity
+     * @param angle Initial angle
+     * @param color Color of the soldier
+     * @param size Size of the soldier
+     * @param seed Seed for the soldier's random stream
+     */
+    public void add(float x, float y, float vx, float vy, float angle, Color color, int size, long seed) {
+        append(x, y, vx, vy, angle, color, size, UnitRandom.stream(seed));
+    }
+
+    /**
+     * Adds a soldier taking the next unseeded random stream, as created by
+     * the Soldier constructor without a seed.
+     *
+     * @param x Initial X position
+     * @param y Initial Y position
+     * @param vx Initial X velocity
+     * @param vy Initial Y velocity
+     * @param angle Initial angle
+     * @param color Color of the soldier
+     * @param size Size of the soldier
+     */
+    public void add(float x, float y, float vx, float vy, float angle, Color color, int size) {
+        append(x, y, vx, vy, angle, color, size, UnitRandom.unseededStream());
+    }
+
+    private void append(float x, float y, float vx, float vy, float angle, Color color, int size, long stream) {
+        if (!color.equals(lastColor)) {
+            lastTeam = UnitStore.teamOf(color);
+            lastColor = color;
+        }
+        append(x, y, vx, vy, angle, lastTeam, size, stream);
+    }
+
+    /**
+     * Adds a soldier of a known team with a given random stream.
+     *
+     * @param x Initial X position
+     * @param y Initial Y position
+     * @param vx Initial X velocity
+     * @param vy Initial Y velocity
+     * @param angle Initial angle
+     * @param team Team id, see UnitStore.teamOf
+     * @param size Size of the soldier
+     * @param stream Random stream key, see UnitRandom
+     */
+    void append(float x, float y, float vx, float vy, float angle, int team, int size, long stream) {
+        if (count == this.x.length) {
+            grow(count * 2);
+        }
+        int i = count++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+        this.angle[i] = angle;
+        this.team[i] = team;
+        this.size[i] = size;
+        this.stream[i] = stream;
+    }
+
+    /**
+     * Grows the columns, keeping their contents.
+     *
+     * @param capacity New number of slots
+     */
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        angle = Arrays.copyOf(angle, capacity);
+        team = Arrays.copyOf(team, capacity);
+        size = Arrays.copyOf(size, capacity);
+        stream = Arrays.copyOf(stream, capacity);
+    }
+
+    /**
+     * Removes all soldiers, keeping the allocated space.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * @return Number of soldiers in the batch
+     */
+    public int size() {
+        return count;
+    }
+}
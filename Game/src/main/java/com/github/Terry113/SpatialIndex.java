@@ -0,0 +1,125 @@
+package com.github.Terry113;
+
+import java.util.List;
+
+/**
+ * Spatial partitioning structure used by the simulation to find nearby units.
+ */
+public interface SpatialIndex {
+    /**
+     * Inserts a unit at its current position.
+     * 
+     * @param unit The unit to insert
+     * @return true if the unit was inserted, false if it lies outside the index
+     */
+    boolean insert(Unit unit);
+
+    /**
+     * Removes a unit that was inserted at the given position.
+     * 
+     * @param unit The unit to remove
+     * @param x X coordinate the unit was inserted at
+     * @param y Y coordinate the unit was inserted at
+     * @return true if the unit was found and removed, false otherwise
+     */
+    boolean remove(Unit unit, float x, float y);
+
+    /**
+     * Moves a unit from its previous position to its current one.
+     * 
+     * @param unit The unit that moved
+     * @param oldX X coordinate the unit was inserted at
+     * @param oldY Y coordinate the unit was inserted at
+     * @return true if the index changed, false if the unit stayed in place
+     */
+    boolean relocate(Unit unit, float oldX, float oldY);
+
+    /**
+     * Finds all units inside the half-open range [minX, maxX) x [minY, maxY)
+     * without allocating.
+     * 
+     * @param minX Left edge of the range
+     * @param minY Top edge of the range
+     * @param maxX Right edge of the range (exclusive)
+     * @param maxY Bottom edge of the range (exclusive)
+     * @param exclude Unit to leave out of the results, or null
+     * @param found Buffer receiving the found units
+     */
+    void query(float minX, float minY, float maxX, float maxY, Unit exclude, List<Unit> found);
+
+    /**
+     * Finds all units within a circle without allocating.
+     * 
+     * @param x X coordinate of the center
+     * @param y Y coordinate of the center
+     * @param radius Radius of the circle, inclusive
+     * @param exclude Unit to leave out of the results, or null
+     * @param found Buffer receiving the found units
+     */
+    void queryRadius(float x, float y, float radius, Unit exclude, List<Unit> found);
+
+    /**
+     * Finds the units closest to a point, up to the search's capacity and
+     * within the given radius. Results are left in the search object,
+     * nearest first.
+     * 
+     * @param x X coordinate of the query point
+     * @param y Y coordinate of the query point
+     * @param radius Maximum distance of a neighbor, inclusive
+     * @param exclude Unit to leave out of the results, or null
+     * @param search Reusable search state receiving the results
+     */
+    default void nearest(float x, float y, float radius, Unit exclude, NeighborSearch search) {
+        nearest(x, y, radius, exclude, -1L, search);
+    }
+
+    /**
+     * Finds the units of the given teams closest to a point, up to the
+     * search's capacity and within the given radius. Regions holding no
+     * unit of those teams are skipped without looking at their units.
+     * 
+     * @param x X coordinate of the query point
+     * @param y Y coordinate of the query point
+     * @param radius Maximum distance of a neighbor, inclusive
+     * @param exclude Unit to leave out of the results, or null
+     * @param teams Mask of the teams to consider, see TeamRelations.teamBit; -1 for all
+     * @param search Reusable search state receiving the results
+     */
+    void nearest(float x, float y, float radius, Unit exclude, long teams, NeighborSearch search);
+
+    /**
+     * Copies the regions the index divides the area into, quadtree leaves
+     * or grid cells, with how many units each holds and which team most of
+     * them belong to. The counts are kept by the index itself, so the cost
+     * depends on the number of regions rather than the number of units.
+     * Regions without units may be left out. If the arrays are too small,
+     * only as many regions as fit are written.
+     * 
+     * @param bounds Receives x, y, width and height of each region
+     * @param counts Receives the number of units in each region
+     * @param dominantTeams Receives the team with the most units in each region, -1 if empty
+     * @return Number of regions
+     */
+    int exportRegions(float[] bounds, int[] counts, int[] dominantTeams);
+
+    /**
+     * Brings the index in line with the unit positions at the end of a tick.
+     * 
+     * @param units All units, in the order their old positions are given
+     * @param oldX X positions at the start of the tick
+     * @param oldY Y positions at the start of the tick
+     */
+    void refresh(List<Unit> units, float[] oldX, float[] oldY);
+
+    /**
+     * Replaces the contents of the index with the given units.
+     * 
+     * @param units The units to index
+     */
+    void rebuild(List<Unit> units);
+
+    /**
+     * Removes all units from the index.
+     */
+    void clear();
+}
@@ -0,0 +1,275 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Draws the units of a snapshot by copying pre-rendered sprites straight
+ * into the pixels of an integer RGB image. Every combination of size, team,
+ * state and facing angle (quantized to ANGLE_STEPS directions) is drawn
+ * once with {@link Soldier#draw} and cached, so a frame issues no Graphics
+ * calls per unit at all. Units whose sprite lies outside the clip are
+ * skipped, and sprites crossing the clip edge are cut to it. When drawing
+ * at a scale, sprites are picked for the scaled size, so zooming only
+ * costs rendering one sheet per size shown.
+ */
+public class SpriteRenderer {
+    static final int ANGLE_STEPS = 64; // Facing directions per sprite sheet, a power of two
+    private static final int STATE_SLOTS = Soldier.State.values().length + 1; // Last slot for units without a state
+
+    private static final int BAND_HEIGHT = 16; // Rows per band when ordering units for drawing
+
+    private Sprite[][][] sheets = new Sprite[0][][]; // Size -> team * STATE_SLOTS + state slot -> angle step
+
+    // Per-frame scratch space, reused between frames
+    private int[] drawX = new int[0], drawY = new int[0]; // Drawn position of each visible unit
+    private Sprite[] drawSprite = new Sprite[0]; // Sprite of each visible unit
+    private int[] sortedUnits = new int[0]; // Visible units in band order
+    private int[] bandStart = new int[1]; // Band -> first position in sortedUnits
+
+    /**
+     * Pre-rendered image of one unit pose. Besides the pixels, the sprite
+     * keeps its opaque pixels as horizontal runs, so an unclipped copy only
+     * touches pixels that are actually drawn.
+     */
+    private static final class Sprite {
+        final int[] pixels; // ARGB, zero alpha where transparent
+        final int side; // Width and height in pixels
+        final int origin; // Offset from the sprite's corner to the unit position
+        final int[] runs; // Per run: row, first column, length
+        final int[] runPixels; // Colors of all runs, back to back
+
+        Sprite(int[] pixels, int side, int origin) {
+            this.pixels = pixels;
+            this.side = side;
+            this.origin = origin;
+
+            int[] runs = new int[pixels.length * 3];
+            int[] runPixels = new int[pixels.length];
+            int runCount = 0;
+            int pixelCount = 0;
+            for (int sy = 0; sy < side; sy++) {
+                int sx = 0;
+                while (sx < side) {
+                    if (pixels[sy * side + sx] == 0) {
+                        sx++;
+                        continue;
+                    }
+                    int start = sx;
+                    while (sx < side && pixels[sy * side + sx] != 0) {
+                        runPixels[pixelCount++] = pixels[sy * side + sx];
+                        sx++;
+                    }
+                    runs[runCount++] = sy;
+                    runs[runCount++] = start;
+                    runs[runCount++] = sx - start;
+                }
+            }
+            this.runs = Arrays.copyOf(runs, runCount);
+            this.runPixels = Arrays.copyOf(runPixels, pixelCount);
+        }
+    }
+
+    /**
+     * Draws every unit of a snapshot, interpolated from the previous one.
+     *
+     * @param target Pixels of a TYPE_INT_RGB image, row by row
+     * @param width Width of the image
+     * @param height Height of the image
+     * @param clipX Left edge of the area to draw into
+     * @param clipY Top edge of the area to draw into
+     * @param clipWidth Width of the area to draw into
+     * @param clipHeight Height of the area to draw into
+     * @param previous The older snapshot
+     * @param current The newer snapshot
+     * @param alpha Interpolation factor, 0 for the older snapshot and 1 for the newer
+     * @param scale Image pixels per simulation unit
+     */
+    public void draw(int[] target, int width, int height, int clipX, int clipY, int clipWidth, int clipHeight,
+            RenderSnapshot previous, RenderSnapshot current, float alpha, float scale) {
+        int minX = Math.max(clipX, 0);
+        int minY = Math.max(clipY, 0);
+        int maxX = Math.min(clipX + clipWidth, width);
+        int maxY = Math.min(clipY + clipHeight, height);
+        if (minX >= maxX || minY >= maxY) {
+            return;
+        }
+
+        int count = current.getCount();
+        if (drawX.length < count) {
+            int capacity = Math.max(count, drawX.length * 2);
+            drawX = new int[capacity];
+            drawY = new int[capacity];
+            drawSprite = new Sprite[capacity];
+            sortedUnits = new int[capacity];
+        }
+        int bands = (maxY - minY + BAND_HEIGHT - 1) / BAND_HEIGHT;
+        if (bandStart.length < bands + 1) {
+            bandStart = new int[bands + 1];
+        }
+        Arrays.fill(bandStart, 0, bands + 1, 0);
+
+        // Position, cull and pick the sprite of every unit, counting units per band
+        boolean interpolate = alpha < 1 && previous.getTick() >= 0;
+        float stepsPerRadian = (float) (ANGLE_STEPS / (Math.PI * 2));
+        int visible = 0;
+        for (int i = 0; i < count; i++) {
+            float x = current.x[i];
+            float y = current.y[i];
+            // Slots only shift when units are removed, so matching ids is the common case
+            boolean matched = interpolate && i < previous.getCount() && previous.id[i] == current.id[i];
+            if (matched) {
+                x = previous.x[i] + (x - previous.x[i]) * alpha;
+                y = previous.y[i] + (y - previous.y[i]) * alpha;
+            }
+
+            x *= scale;
+            y *= scale;
+
+            // Cull before looking up the sprite; no sprite reaches further than this from the center
+            int size = scale == 1 ? current.size[i] : Math.max(1, Math.round(current.size[i] * scale));
+            int reach = size + 2;
+            int left = (int) x - reach;
+            int top = (int) y - reach;
+            if (left >= maxX || top >= maxY || left + 2 * reach < minX || top + 2 * reach < minY) {
+                continue;
+            }
+
+            // Angles are only worked out for units that are drawn
+            float angle = current.angleOf(i);
+            if (matched) {
+                angle = interpolateAngle(previous.angleOf(i), angle, alpha);
+            }
+            int step = Math.round(angle * stepsPerRadian) & (ANGLE_STEPS - 1);
+            drawX[visible] = (int) x;
+            drawY[visible] = (int) y;
+            drawSprite[visible] = sprite(size, current.team[i], current.state[i], current.getColor(i), step);
+            bandStart[band(drawY[visible], minY, bands) + 1]++;
+            visible++;
+        }
+
+        // Draw band by band, so the sprites being copied share cache lines of the target
+        for (int b = 0; b < bands; b++) {
+            bandStart[b + 1] += bandStart[b];
+        }
+        for (int v = 0; v < visible; v++) {
+            sortedUnits[bandStart[band(drawY[v], minY, bands)]++] = v;
+        }
+        for (int k = 0; k < visible; k++) {
+            int v = sortedUnits[k];
+            Sprite sprite = drawSprite[v];
+            blit(sprite, drawX[v] - sprite.origin, drawY[v] - sprite.origin, target, width, minX, minY, maxX, maxY);
+        }
+        Arrays.fill(drawSprite, 0, visible, null);
+    }
+
+    /**
+     * @return Band of rows holding a y coordinate, clamped to the bands of the clip
+     */
+    private static int band(int y, int minY, int bands) {
+        int band = (y - minY) / BAND_HEIGHT;
+        return band < 0 ? 0 : (band >= bands ? bands - 1 : band);
+    }
+
+    /**
+     * Copies the opaque pixels of a sprite into the target, cut to the clip.
+     */
+    private static void blit(Sprite sprite, int left, int top, int[] target, int width,
+            int minX, int minY, int maxX, int maxY) {
+        if (left >= minX && top >= minY && left + sprite.side <= maxX && top + sprite.side <= maxY) {
+            // Entirely inside the clip, the common case: copy the opaque runs only
+            int[] runs = sprite.runs;
+            int[] runPixels = sprite.runPixels;
+            int source = 0;
+            for (int r = 0; r < runs.length; r += 3) {
+                int destination = (top + runs[r]) * width + left + runs[r + 1];
+                int length = runs[r + 2];
+                System.arraycopy(runPixels, source, target, destination, length);
+                source += length;
+            }
+            return;
+        }
+        
+        int fromX = Math.max(minX - left, 0);
+        int toX = Math.min(maxX - left, sprite.side);
+        int fromY = Math.max(minY - top, 0);
+        int toY = Math.min(maxY - top, sprite.side);
+        int[] pixels = sprite.pixels;
+        for (int sy = fromY; sy < toY; sy++) {
+            int source = sy * sprite.side;
+            int destination = (top + sy) * width + left;
+            for (int sx = fromX; sx < toX; sx++) {
+                int pixel = pixels[source + sx];
+                if (pixel != 0) {
+                    target[destination + sx] = pixel;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The cached sprite for a pose, rendering its sheet on first use
+     */
+    private Sprite sprite(int size, int team, byte state, Color color, int step) {
+        if (size >= sheets.length) {
+            sheets = Arrays.copyOf(sheets, size + 1);
+        }
+        Sprite[][] bySize = sheets[size];
+        int slot = state == RenderSnapshot.NO_STATE ? STATE_SLOTS - 1 : state;
+        int key = team * STATE_SLOTS + slot;
+        if (bySize == null || key >= bySize.length) {
+            bySize = bySize == null ? new Sprite[key + 1][] : Arrays.copyOf(bySize, key + 1);
+            sheets[size] = bySize;
+        }
+        Sprite[] sheet = bySize[key];
+        if (sheet == null) {
+            sheet = renderSheet(size, color, state);
+            bySize[key] = sheet;
+        }
+        return sheet[step];
+    }
+
+    /**
+     * Renders one sprite per angle step for a size, color and state.
+     */
+    private static Sprite[] renderSheet(int size, Color color, byte state) {
+        // Room for the square and the facing line in any direction, plus a pixel for rounding
+        int origin = (int) Math.ceil(Math.max(size / 2 + 1, size * 0.8f)) + 1;
+        int side = origin * 2 + 1;
+        Sprite[] sheet = new Sprite[ANGLE_STEPS];
+        for (int step = 0; step < ANGLE_STEPS; step++) {
+            BufferedImage image = new BufferedImage(side, side, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            if (state == RenderSnapshot.NO_STATE) {
+                g.setColor(color);
+                g.fillRect(origin - size / 2, origin - size / 2, size, size);
+            } else {
+                float angle = (float) (step * Math.PI * 2 / ANGLE_STEPS);
+                Soldier.draw(g, origin, origin, angle, color, size, state);
+            }
+            g.dispose();
+            sheet[step] = new Sprite(image.getRGB(0, 0, side, side, null, 0, side), side, origin);
+        }
+        return sheet;
+    }
+
+    /**
+     * Interpolates between two angles along the shorter way around.
+     *
+     * @param from Angle at alpha 0, in radians
+     * @param to Angle at alpha 1, in radians
+     * @param alpha Interpolation factor between 0 and 1
+     * @return The interpolated angle
+     */
+    static float interpolateAngle(float from, float to, float alpha) {
+        float delta = to - from;
+        if (delta > Math.PI) {
+            delta -= (float) (Math.PI * 2);
+        } else if (delta < -Math.PI) {
+            delta += (float) (Math.PI * 2);
+        }
+        return from + delta * alpha;
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.Terry113;
+
+import java.util.Arrays;
+
+/**
+ * How teams regard each other, as a matrix indexed by team id. By default
+ * every team is allied with itself and hostile to every other team; any
+ * pair can be set to another relation, always symmetrically.
+ *
+ * Besides single lookups, the relations of a team are kept as bit masks
+ * over team ids, in the form the spatial indexes use to skip regions that
+ * hold no unit of interest (see {@link #teamBit}). Masks tell teams 0 to
+ * 62 apart; teams from 63 up share the last bit, so a mask holding that bit
+ * may also admit some of them that do not have the relation.
+ */
+public class TeamRelations {
+    /**
+     * Possible relations between two teams.
+     */
+    public enum Relation {
+        ALLY,    // Followed
+        ENEMY,   // Fled from
+        NEUTRAL  // Ignored
+    }
+
+    private static final Relation[] RELATIONS = Relation.values();
+
+    private int teams; // Side of the matrix; teams beyond it have the default relations
+    private byte[] matrix = new byte[0]; // Relation ordinal of team a toward team b at a * teams + b
+    private long[] allies = new long[0]; // Team -> mask of its allied teams
+    private long[] enemies = new long[0]; // Team -> mask of its enemy teams
+    private boolean defaults = true; // Whether no pair has been changed from the default
+
+    /**
+     * @param team A team id
+     * @return The bit standing for the team in team masks
+     */
+    public static long teamBit(int team) {
+        return 1L << Math.min(team, 63);
+    }
+
+    /**
+     * @param a A team id
+     * @param b Another team id
+     * @return How team a regards team b
+     */
+    public Relation get(int a, int b) {
+        if (a < teams && b < teams) {
+            return RELATIONS[matrix[a * teams + b]];
+        }
+        return a == b ? Relation.ALLY : Relation.ENEMY;
+    }
+
+    /**
+     * Sets how two teams regard each other, in both directions.
+     *
+     * @param a A team id
+     * @param b Another team id, or the same one
+     * @param relation The relation between the teams
+     */
+    public void set(int a, int b, Relation relation) {
+        if (a < 0 || b < 0) {
+            throw new IllegalArgumentException("Invalid team: " + Math.min(a, b));
+        }
+        int needed = Math.max(a, b) + 1;
+        if (needed > teams) {
+            grow(needed);
+        }
+        matrix[a * teams + b] = (byte) relation.ordinal();
+        matrix[b * teams + a] = (byte) relation.ordinal();
+        updateMasks(a);
+        updateMasks(b);
+        defaults = false;
+    }
+
+    /**
+     * Enlarges the matrix, filling the new pairs with the default relations.
+     */
+    private void grow(int size) {
+        byte[] grown = new byte[size * size];
+        for (int a = 0; a < size; a++) {
+            for (int b = 0; b < size; b++) {
+                grown[a * size + b] = (byte) get(a, b).ordinal();
+            }
+        }
+        matrix = grown;
+        teams = size;
+        allies = Arrays.copyOf(allies, size);
+        enemies = Arrays.copyOf(enemies, size);
+        for (int a = 0; a < size; a++) {
+            updateMasks(a);
+        }
+    }
+
+    /**
+     * Recomputes the masks of one team from its row of the matrix.
+     */
+    private void updateMasks(int a) {
+        long allyMask = 0;
+        long enemyMask = 0;
+        for (int b = 0; b < teams; b++) {
+            Relation relation = RELATIONS[matrix[a * teams + b]];
+            if (relation == Relation.ALLY) {
+                allyMask |= teamBit(b);
+            } else if (relation == Relation.ENEMY) {
+                enemyMask |= teamBit(b);
+            }
+        }
+        // Teams beyond the matrix are hostile
+        if (teams < 64) {
+            enemyMask |= -1L << teams;
+        } else {
+            enemyMask |= teamBit(63);
+        }
+        allies[a] = allyMask;
+        enemies[a] = enemyMask;
+    }
+
+    /**
+     * @param team A team id
+     * @return Mask of the teams allied with the team
+     */
+    public long alliesOf(int team) {
+        return team < teams ? allies[team] : teamBit(team);
+    }
+
+    /**
+     * @param team A team id
+     * @return Mask of the teams hostile to the team
+     */
+    public long enemiesOf(int team) {
+        return team < teams ? enemies[team] : ~teamBit(team) | (team >= 63 ? teamBit(63) : 0);
+    }
+
+    /**
+     * @param team A team id
+     * @return Mask of the teams the team reacts to, allied or hostile; all
+     *         bits while every relation is the default
+     */
+    public long reactingTo(int team) {
+        return defaults ? -1L : alliesOf(team) | enemiesOf(team);
+    }
+
+    /**
+     * @return Number of teams covered by the matrix; all others have the default relations
+     */
+    int size() {
+        return teams;
+    }
+}
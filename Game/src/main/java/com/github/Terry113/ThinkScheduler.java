@@ -0,0 +1,58 @@
+package com.github.Terry113;
+
+/**
+ * Decides which units sense and make decisions on a tick. Movement runs
+ * every tick, but a unit only looks for its nearest unit every few ticks,
+ * keeping its state and target in between. Units are staggered by id, so
+ * an equal share of them thinks on every tick, and the sensing cost per
+ * tick drops by the interval.
+ *
+ * Chasing or fleeing soldiers react to units that move with them, so they
+ * may think more often than idle or wandering ones. A unit notices a
+ * change around it at most one of its intervals late.
+ */
+public class ThinkScheduler {
+    private static final byte CHASING_ORDINAL = (byte) Soldier.State.CHASING.ordinal();
+    private static final byte FLEEING_ORDINAL = (byte) Soldier.State.FLEEING.ordinal();
+
+    private final int interval; // Ticks between thinks of idle and wandering units
+    private final int engagedInterval; // Ticks between thinks of chasing and fleeing units
+
+    /**
+     * @param interval Ticks between thinks of idle and wandering units
+     * @param engagedInterval Ticks between thinks of chasing and fleeing
+     *        units, at most the interval
+     */
+    public ThinkScheduler(int interval, int engagedInterval) {
+        if (engagedInterval < 1 || interval < engagedInterval) {
+            throw new IllegalArgumentException("Invalid think intervals: " + interval + ", " + engagedInterval);
+        }
+        this.interval = interval;
+        this.engagedInterval = engagedInterval;
+    }
+
+    /**
+     * @param store The units
+     * @param slot Slot of a unit
+     * @return true if the unit senses and decides on the store's current tick
+     */
+    public boolean thinks(UnitStore store, int slot) {
+        byte state = store.state[slot];
+        int period = state == CHASING_ORDINAL || state == FLEEING_ORDINAL ? engagedInterval : interval;
+        return period == 1 || (store.getTick() + store.getId(slot)) % period == 0;
+    }
+
+    /**
+     * @return Ticks between thinks of idle and wandering units
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return Ticks between thinks of chasing and fleeing units
+     */
+    public int getEngagedInterval() {
+        return engagedInterval;
+    }
+}
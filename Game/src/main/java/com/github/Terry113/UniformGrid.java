@@ -0,0 +1,467 @@
+package com.github.Terry113;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid spatial index. Units are bucketed into square cells with a
+ * counting sort over primitive arrays: cellStart[c] .. cellStart[c + 1] is
+ * the range of cell c in the cell-sorted member indexes and positions, and
+ * positions are read straight from the store columns. The grid is rebuilt
+ * in O(n) every tick, which suits evenly spread units that all query the
+ * same radius. Each member's position in the member array is tracked by
+ * unit id, so removing a unit takes constant time.
+ *
+ * Units outside the grid area are clamped into the border cells, so every
+ * inserted unit can be found. Positions are copied into the sorted arrays
+ * when the grid is rebuilt; changes made afterwards are picked up by the
+ * next rebuild, which happens lazily on the next query. Units per team and
+ * cell are counted by the same rebuild, along with a mask of the teams in
+ * each cell that lets team-filtered nearest queries skip cells.
+ */
+public class UniformGrid implements SpatialIndex {
+    private final float originX, originY; // Top-left corner of the grid
+    private final float width, height; // Covered area
+    private final float cellSize;
+    private final float inverseCellSize;
+    private final int columns, rows;
+    private final int[] cellStart; // Cell -> first sorted position, cellStart[cells] is the unit count
+    private final int[] cellCursor; // Scatter cursor used while sorting
+    private int[] cellOf = new int[0]; // Member -> cell, valid during a rebuild
+    private float[] memberX = new float[0], memberY = new float[0]; // Member positions, valid during a rebuild
+    private int[] sortedMembers = new int[0]; // Member indexes in cell order
+    private float[] sortedX = new float[0], sortedY = new float[0]; // Positions in cell order
+    private int teams; // Team columns in cellTeams
+    private int[] cellTeams = new int[0]; // Cell * teams + team -> units of that team in the cell
+    private final long[] cellMasks; // Cell -> mask of the teams in it, see TeamRelations.teamBit
+    private Unit[] members = new Unit[16]; // Indexed units, the last one moved into the gap of a removal
+    private int memberCount;
+    private int[] memberOf = new int[16]; // Unit id -> member index, checked against members on use
+    private boolean dirty; // Set when members changed since the last rebuild
+
+    /**
+     * Creates a new grid.
+     *
+     * @param x X coordinate of top-left corner
+     * @param y Y coordinate of top-left corner
+     * @param width Width of the covered area
+     * @param height Height of the covered area
+     * @param cellSize Side length of a cell, usually the query radius
+     */
+    public UniformGrid(float x, float y, float width, float height, float cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        this.originX = x;
+        this.originY = y;
+        this.width = width;
+        this.height = height;
+        this.cellSize = cellSize;
+        this.inverseCellSize = 1f / cellSize;
+        this.columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        this.cellStart = new int[columns * rows + 1];
+        this.cellCursor = new int[columns * rows];
+        this.cellMasks = new long[columns * rows];
+    }
+
+    /**
+     * Constructor with cells sized to Constants.DETECTION_RADIUS.
+     *
+     * @param width Width of the covered area
+     * @param height Height of the covered area
+     */
+    public UniformGrid(int width, int height) {
+        this(0, 0, width, height, Constants.DETECTION_RADIUS);
+    }
+
+    @Override
+    public boolean insert(Unit unit) {
+        if (memberCount == members.length) {
+            members = Arrays.copyOf(members, memberCount * 2);
+        }
+        track(unit, memberCount);
+        members[memberCount++] = unit;
+        dirty = true;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Unit unit, float x, float y) {
+        int i = memberIndex(unit);
+        if (i < 0) {
+            return false;
+        }
+        int last = --memberCount;
+        if (i != last) {
+            members[i] = members[last];
+            track(members[i], i);
+        }
+        members[last] = null;
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * @param unit A unit
+     * @return Index of the unit in members, or -1 if it is not indexed
+     */
+    private int memberIndex(Unit unit) {
+        int id = unit.getId();
+        if (id < memberOf.length) {
+            int i = memberOf[id];
+            if (i < memberCount && members[i] == unit) {
+                return i;
+            }
+        }
+        // Units of different stores can share an id, so fall back to a scan
+        for (int i = 0; i < memberCount; i++) {
+            if (members[i] == unit) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records where a unit sits in members.
+     */
+    private void track(Unit unit, int i) {
+        int id = unit.getId();
+        if (id >= memberOf.length) {
+            memberOf = Arrays.copyOf(memberOf, Math.max(id + 1, memberOf.length * 2));
+        }
+        memberOf[id] = i;
+    }
+
+    /**
+     * Marks the grid for rebuilding, since stored positions are now stale.
+     *
+     * @param unit The unit that moved
+     * @param oldX X coordinate the unit was inserted at
+     * @param oldY Y coordinate the unit was inserted at
+     * @return true if the unit moved to a different cell
+     */
+    @Override
+    public boolean relocate(Unit unit, float oldX, float oldY) {
+        dirty = true;
+        return cellIndex(oldX, oldY) != cellIndex(unit.getX(), unit.getY());
+    }
+
+    @Override
+    public void query(float minX, float minY, float maxX, float maxY, Unit exclude, List<Unit> found) {
+        if (dirty) {
+            sort();
+        }
+        int firstColumn = column(minX);
+        int lastColumn = column(maxX);
+        int firstRow = row(minY);
+        int lastRow = row(maxY);
+        for (int r = firstRow; r <= lastRow; r++) {
+            // Cells of a row are contiguous, so the whole column span is one range
+            int start = cellStart[r * columns + firstColumn];
+            int end = cellStart[r * columns + lastColumn + 1];
+            for (int k = start; k < end; k++) {
+                float ux = sortedX[k];
+                float uy = sortedY[k];
+                if (ux >= minX && uy >= minY && ux < maxX && uy < maxY) {
+                    Unit unit = members[sortedMembers[k]];
+                    if (unit != exclude) {
+                        found.add(unit);
+                    }
+                }
+            }
+        }
+        if (SimulationMetrics.ENABLED) {
+            int cells = (lastRow - firstRow + 1) * (lastColumn - firstColumn + 1);
+            int candidates = 0;
+            for (int r = firstRow; r <= lastRow; r++) {
+                candidates += cellStart[r * columns + lastColumn + 1] - cellStart[r * columns + firstColumn];
+            }
+            SimulationMetrics.countNodeVisits(cells, candidates);
+        }
+    }
+
+    @Override
+    public void queryRadius(float cx, float cy, float radius, Unit exclude, List<Unit> found) {
+        if (dirty) {
+            sort();
+        }
+        float radiusSquared = radius * radius;
+        int firstColumn = column(cx - radius);
+        int lastColumn = column(cx + radius);
+        int firstRow = row(cy - radius);
+        int lastRow = row(cy + radius);
+        int candidates = 0;
+        for (int r = firstRow; r <= lastRow; r++) {
+            int start = cellStart[r * columns + firstColumn];
+            int end = cellStart[r * columns + lastColumn + 1];
+            for (int k = start; k < end; k++) {
+                float dx = sortedX[k] - cx;
+                float dy = sortedY[k] - cy;
+                if (dx * dx + dy * dy <= radiusSquared) {
+                    Unit unit = members[sortedMembers[k]];
+                    if (unit != exclude) {
+                        found.add(unit);
+                    }
+                }
+            }
+            candidates += end - start;
+        }
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.countNodeVisits((lastRow - firstRow + 1) * (lastColumn - firstColumn + 1), candidates);
+        }
+    }
+
+    /**
+     * Finds the units closest to a point by searching rings of cells around
+     * the point's cell. Cells farther away than the k-th best unit so far
+     * are skipped, and the search ends once a whole ring is out of reach.
+     * 
+     * @param qx X coordinate of the query point
+     * @param qy Y coordinate of the query point
+     * @param radius Maximum distance of a neighbor, inclusive
+     * @param exclude Unit to leave out of the results, or null
+     * @param teams Mask of the teams to consider, -1 for all
+     * @param search Reusable search state receiving the results
+     */
+    @Override
+    public void nearest(float qx, float qy, float radius, Unit exclude, long teams, NeighborSearch search) {
+        if (dirty) {
+            sort();
+        }
+        search.begin(qx, qy, radius, exclude, teams);
+        int centerColumn = column(qx);
+        int centerRow = row(qy);
+        int rings = Math.max(columns, rows);
+        int cells = 0;
+        int candidates = 0;
+        for (int ring = 0; ring < rings; ring++) {
+            // Every cell of ring n is at least n - 1 whole cells away from the point
+            float gap = Math.max(ring - 1, 0) * cellSize;
+            if (gap * gap > search.bound()) {
+                break;
+            }
+            int firstRow = Math.max(centerRow - ring, 0);
+            int lastRow = Math.min(centerRow + ring, rows - 1);
+            for (int r = firstRow; r <= lastRow; r++) {
+                boolean edgeRow = r == centerRow - ring || r == centerRow + ring;
+                int step = edgeRow ? 1 : Math.max(2 * ring, 1);
+                for (int c = centerColumn - ring; c <= centerColumn + ring; c += step) {
+                    if (c < 0 || c >= columns || (cellMasks[r * columns + c] & teams) == 0
+                            || cellDistanceSquared(c, r, qx, qy) > search.bound()) {
+                        continue;
+                    }
+                    int start = cellStart[r * columns + c];
+                    int end = cellStart[r * columns + c + 1];
+                    for (int k = start; k < end; k++) {
+                        float dx = sortedX[k] - qx;
+                        float dy = sortedY[k] - qy;
+                        search.offer(members[sortedMembers[k]], dx * dx + dy * dy);
+                    }
+                    cells++;
+                    candidates += end - start;
+                }
+            }
+        }
+        search.finish();
+        if (SimulationMetrics.ENABLED) {
+            SimulationMetrics.countNodeVisits(cells, candidates);
+        }
+    }
+
+    /**
+     * @param c Column of a cell
+     * @param r Row of a cell
+     * @param px X coordinate of a point
+     * @param py Y coordinate of a point
+     * @return Squared distance from the point to the cell, 0 if inside.
+     *         Border cells extend outward without limit, since they hold
+     *         the clamped units outside the grid.
+     */
+    private float cellDistanceSquared(int c, int r, float px, float py) {
+        float left = c == 0 ? Float.NEGATIVE_INFINITY : originX + c * cellSize;
+        float right = c == columns - 1 ? Float.POSITIVE_INFINITY : originX + (c + 1) * cellSize;
+        float top = r == 0 ? Float.NEGATIVE_INFINITY : originY + r * cellSize;
+        float bottom = r == rows - 1 ? Float.POSITIVE_INFINITY : originY + (r + 1) * cellSize;
+        float dx = Math.max(Math.max(left - px, px - right), 0);
+        float dy = Math.max(Math.max(top - py, py - bottom), 0);
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Copies the cells that hold units; empty cells are left out.
+     */
+    @Override
+    public int exportRegions(float[] bounds, int[] counts, int[] dominantTeams) {
+        if (dirty) {
+            sort();
+        }
+        int regions = 0;
+        for (int c = 0; c < cellCursor.length; c++) {
+            int units = cellStart[c + 1] - cellStart[c];
+            if (units == 0) {
+                continue;
+            }
+            if (regions < counts.length && regions < dominantTeams.length && regions * 4 + 3 < bounds.length) {
+                bounds[regions * 4] = originX + (c % columns) * cellSize;
+                bounds[regions * 4 + 1] = originY + (c / columns) * cellSize;
+                bounds[regions * 4 + 2] = cellSize;
+                bounds[regions * 4 + 3] = cellSize;
+                counts[regions] = units;
+                int dominant = 0;
+                for (int team = 1; team < teams; team++) {
+                    if (cellTeams[c * teams + team] > cellTeams[c * teams + dominant]) {
+                        dominant = team;
+                    }
+                }
+                dominantTeams[regions] = dominant;
+            }
+            regions++;
+        }
+        return regions;
+    }
+
+    /**
+     * Rebuilds the grid from scratch; the old positions are not needed.
+     */
+    @Override
+    public void refresh(List<Unit> units, float[] oldX, float[] oldY) {
+        rebuild(units);
+    }
+
+    @Override
+    public void rebuild(List<Unit> units) {
+        int count = units.size();
+        if (members.length < count) {
+            members = new Unit[Math.max(count, members.length * 2)];
+        }
+        for (int i = 0; i < count; i++) {
+            Unit unit = units.get(i);
+            members[i] = unit;
+            track(unit, i);
+        }
+        // Drop references left over from a larger previous population
+        Arrays.fill(members, count, Math.max(count, memberCount), null);
+        memberCount = count;
+        sort();
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(members, 0, memberCount, null);
+        memberCount = 0;
+        Arrays.fill(cellStart, 0);
+        Arrays.fill(cellMasks, 0);
+        dirty = false;
+    }
+
+    /**
+     * Counting-sorts the members into cell order.
+     */
+    private void sort() {
+        int count = memberCount;
+        if (sortedMembers.length < count) {
+            int capacity = Math.max(count, sortedMembers.length * 2);
+            cellOf = new int[capacity];
+            memberX = new float[capacity];
+            memberY = new float[capacity];
+            sortedMembers = new int[capacity];
+            sortedX = new float[capacity];
+            sortedY = new float[capacity];
+        }
+
+        int cells = cellCursor.length;
+        teams = Math.max(UnitStore.teamPalette().length, 1);
+        if (cellTeams.length < cells * teams) {
+            cellTeams = new int[cells * teams];
+        }
+
+        // Count units per cell, shifted by one so the prefix sum yields start offsets
+        Arrays.fill(cellStart, 0);
+        Arrays.fill(cellTeams, 0, cells * teams, 0);
+        Arrays.fill(cellMasks, 0);
+        for (int i = 0; i < count; i++) {
+            Unit unit = members[i];
+            UnitStore store = unit.store;
+            int slot = unit.index;
+            float x = store.x[slot];
+            float y = store.y[slot];
+            int cell = cellIndex(x, y);
+            memberX[i] = x;
+            memberY[i] = y;
+            cellOf[i] = cell;
+            cellStart[cell + 1]++;
+            int team = store.team[slot];
+            cellTeams[cell * teams + team]++;
+            cellMasks[cell] |= TeamRelations.teamBit(team);
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+
+        // Scatter members into their cell ranges
+        System.arraycopy(cellStart, 0, cellCursor, 0, cells);
+        for (int i = 0; i < count; i++) {
+            int k = cellCursor[cellOf[i]]++;
+            sortedMembers[k] = i;
+            sortedX[k] = memberX[i];
+            sortedY[k] = memberY[i];
+        }
+        dirty = false;
+    }
+
+    /**
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return Index of the cell containing the point, clamped to the grid
+     */
+    private int cellIndex(float x, float y) {
+        return row(y) * columns + column(x);
+    }
+
+    private int column(float x) {
+        int c = (int) ((x - originX) * inverseCellSize);
+        return c < 0 ? 0 : (c >= columns ? columns - 1 : c);
+    }
+
+    private int row(float y) {
+        int r = (int) ((y - originY) * inverseCellSize);
+        return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+    }
+
+    public float getOriginX() {
+        return originX;
+    }
+
+    public float getOriginY() {
+        return originY;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return Number of indexed units
+     */
+    public int getCount() {
+        return memberCount;
+    }
+}
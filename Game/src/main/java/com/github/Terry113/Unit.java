@@ -4,13 +4,13 @@ import java.awt.Color;
 import java.awt.Graphics;
 
 /**
- * Base class for all units in the simulation.
+ * Base class for all units in the simulation. A unit is a view of one slot
+ * in a {@link UnitStore}; a unit that has not been added to a simulation
+ * owns a single-slot store of its own.
  */
 public abstract class Unit {
-    private float x, y; // Position
-    private float vx, vy; // Velocity
-    private float angle; // Orientation angle in radians
-    private Color color;
+    UnitStore store; // Store holding this unit's state
+    int index; // Slot of this unit in the store, updated when slots are compacted
 
     /**
      * Creates a new unit.
@@ -23,12 +23,20 @@ public abstract class Unit {
      * @param color Color of the unit
      */
     public Unit(float x, float y, float vx, float vy, float angle, Color color) {
-        this.x = x;
-        this.y = y;
-        this.vx = vx;
-        this.vy = vy;
-        this.angle = angle;
-        this.color = color;
+        this.store = new UnitStore(1);
+        this.index = store.add(this, x, y, vx, vy, angle, color);
+    }
+
+    /**
+     * Creates a view of a slot that already holds a unit's state, as when
+     * a store is restored from a checkpoint.
+     * 
+     * @param store The store holding the state
+     * @param index Slot of the unit in the store
+     */
+    Unit(UnitStore store, int index) {
+        this.store = store;
+        this.index = index;
     }
 
     /**
@@ -50,6 +58,20 @@ public abstract class Unit {
      * @param yTarget Y coordinate of the target
      */
     public void steer(float xTarget, float yTarget) {
+        steer(store, index, xTarget, yTarget);
+    }
+
+    /**
+     * Applies a steering force toward a target position to a stored unit.
+     * 
+     * @param s The store holding the unit
+     * @param i Slot of the unit
+     * @param xTarget X coordinate of the target
+     * @param yTarget Y coordinate of the target
+     */
+    static void steer(UnitStore s, int i, float xTarget, float yTarget) {
+        float x = s.x[i];
+        float y = s.y[i];
         double distanceSquared = Util.getDistanceSquared(xTarget, yTarget, x, y);
         
         // Only steer if not too close to target
@@ -64,60 +86,81 @@ public abstract class Unit {
             dy /= distance;
             
             // Calculate steering force (desired velocity - current velocity)
+            float vx = s.vx[i];
+            float vy = s.vy[i];
             float steerX = dx - vx;
             float steerY = dy - vy;
             
             // Apply the steering force with damping
             vx += steerX * Constants.STEERING_DAMPING;
             vy += steerY * Constants.STEERING_DAMPING;
-            
-            // Update the angle
-            angle = (float) Math.atan2(vy, vx);
+            s.vx[i] = vx;
+            s.vy[i] = vy;
         }
     }
 
+    /**
+     * @return Stable id of this unit within its store
+     */
+    public int getId() {
+        return store.getId(index);
+    }
+
     // Getters and setters
     public float getX() {
-        return x;
+        return store.x[index];
     }
 
     public void setX(float x) {
-        this.x = x;
+        store.x[index] = x;
     }
 
     public float getY() {
-        return y;
+        return store.y[index];
     }
 
     public void setY(float y) {
-        this.y = y;
+        store.y[index] = y;
     }
 
     public Color getColor() {
-        return color;
+        return UnitStore.teamColor(store.team[index]);
+    }
+
+    /**
+     * @return Id of the unit's team, see {@link TeamRelations}
+     */
+    public int getTeam() {
+        return store.team[index];
     }
 
     public float getVx() {
-        return vx;
+        return store.vx[index];
     }
 
     public void setVx(float vx) {
-        this.vx = vx;
+        store.vx[index] = vx;
     }
 
     public float getVy() {
-        return vy;
+        return store.vy[index];
     }
 
     public void setVy(float vy) {
-        this.vy = vy;
+        store.vy[index] = vy;
     }
 
+    /**
+     * @return Facing angle in radians, the direction of movement while moving
+     */
     public float getAngle() {
-        return angle;
+        return store.angleOf(index);
     }
 
+    /**
+     * @param angle Facing angle in radians, used while the unit stands still
+     */
     public void setAngle(float angle) {
-        this.angle = angle;
+        store.angle[index] = angle;
     }
-}
\ No newline at end of file
+}
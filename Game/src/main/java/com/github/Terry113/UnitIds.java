@@ -0,0 +1,38 @@
+package com.github.Terry113;
+
+import java.util.Arrays;
+
+/**
+ * Hands out unit ids. Every {@link UnitStore} takes its ids from one of
+ * these; stores sharing one, as the regions of a {@link RegionedWorld} do,
+ * form a single id space, and a unit moving between them keeps its id.
+ */
+final class UnitIds {
+    int[] free; // Stack of ids released by removals
+    int freeCount;
+    int next; // Lowest id never handed out
+
+    /**
+     * @param capacity Initial size of the free id stack
+     */
+    UnitIds(int capacity) {
+        free = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * @return An id not in use, reusing released ids first
+     */
+    int take() {
+        return freeCount > 0 ? free[--freeCount] : next++;
+    }
+
+    /**
+     * @param id An id no unit uses anymore
+     */
+    void release(int id) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = id;
+    }
+}
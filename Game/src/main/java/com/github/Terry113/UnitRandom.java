@@ -0,0 +1,80 @@
+package com.github.Terry113;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counter-based random numbers for units. Every unit owns a 64-bit stream
+ * key, kept in a store column, and a number is a pure function of that
+ * key, the tick and a draw slot: the SplitMix64 output at position
+ * {@code tick * DRAWS_PER_TICK + draw} of the unit's stream. Nothing is
+ * advanced when a number is drawn, so the outcome of a tick does not
+ * depend on how many threads run it or in which order units are visited,
+ * and the only state to save in a checkpoint is the key.
+ */
+final class UnitRandom {
+    static final int DRAWS_PER_TICK = 16; // Draw slots available to a unit per tick
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L; // SplitMix64 increment
+    private static final float FLOAT_UNIT = 1.0f / (1 << 24);
+    private static final AtomicLong unseeded = new AtomicLong(); // Streams handed to unseeded units so far
+
+    /**
+     * @param seed Seed chosen for a unit
+     * @return The stream key for the seed
+     */
+    static long stream(long seed) {
+        return mix(seed * GOLDEN_GAMMA + GOLDEN_GAMMA);
+    }
+
+    /**
+     * Hands out the key of the next stream for units created without a
+     * seed. Units constructed in the same order get the same streams.
+     *
+     * @return A fresh stream key
+     */
+    static long unseededStream() {
+        return stream(~unseeded.getAndIncrement());
+    }
+
+    /**
+     * @param key Stream key of a unit
+     * @param tick Tick the number is drawn in
+     * @param draw Draw slot within the tick, below DRAWS_PER_TICK
+     * @return 64 random bits
+     */
+    static long bits(long key, long tick, int draw) {
+        return mix(key + (tick * DRAWS_PER_TICK + draw + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * @param key Stream key of a unit
+     * @param tick Tick the number is drawn in
+     * @param draw Draw slot within the tick, below DRAWS_PER_TICK
+     * @return A float uniformly distributed in [0, 1)
+     */
+    static float nextFloat(long key, long tick, int draw) {
+        return (bits(key, tick, draw) >>> 40) * FLOAT_UNIT;
+    }
+
+    /**
+     * @param key Stream key of a unit
+     * @param tick Tick the number is drawn in
+     * @param draw Draw slot within the tick, below DRAWS_PER_TICK
+     * @param bound Upper bound, exclusive and positive
+     * @return An int in [0, bound), with a bias below bound / 2^32
+     */
+    static int nextInt(long key, long tick, int draw, int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive: " + bound);
+        }
+        return (int) (((bits(key, tick, draw) >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * SplitMix64 finalizer: scrambles a counter into well-mixed bits.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
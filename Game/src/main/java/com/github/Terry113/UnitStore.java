@@ -0,0 +1,589 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Structure-of-arrays storage for units. Every unit occupies one slot, and
+ * each of its properties lives in a parallel primitive array so that update
+ * loops run as linear scans. Units keep a stable integer id for as long as
+ * they are stored here, or in any store sharing the same {@link UnitIds};
+ * removing a unit moves the last slot into the gap.
+ */
+public class UnitStore {
+    static final int SLOT_BYTES = 7 * 4 + 3 * 4 + 8 + 1; // Columns of one slot, see writeSlot
+    private static final int CHECKPOINT_SLOT_BYTES = 4 + SLOT_BYTES; // Id and columns of one slot
+    private static volatile Color[] teamColors = new Color[0]; // Team id -> color, copy-on-write
+
+    // Unit columns
+    float[] x, y; // Position
+    float[] vx, vy; // Velocity
+    float[] angle; // Facing angle in radians while not moving, see angleOf
+    int[] team; // Team id, see teamOf(Color)
+
+    // Soldier columns
+    byte[] state; // Soldier.State ordinal
+    int[] stateTimer; // Ticks since the last random state change
+    float[] targetX, targetY; // Movement target
+    long[] random; // Random stream key, see UnitRandom
+    int[] size; // Drawn size in pixels
+
+    private Unit[] views; // View object for every slot
+    private int[] idOf; // Slot -> id
+    private int[] slotOf; // Id -> slot, -1 for ids not stored here
+    private final UnitIds ids; // Where new units get their ids
+    private int count; // Number of used slots
+    private int soldierCount; // Number of slots viewed by a Soldier
+    private long tick; // Tick that random numbers are currently drawn for
+    TeamRelations relations; // How teams regard each other, null for the default relations
+    private int fieldWidth = Constants.FIELD_WIDTH; // Area random targets are picked from
+    private int fieldHeight = Constants.FIELD_HEIGHT;
+    private final List<Unit> unitList = new AbstractList<Unit>() {
+        @Override
+        public Unit get(int index) {
+            if (index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+            }
+            return views[index];
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    };
+
+    /**
+     * Creates an empty store.
+     *
+     * @param capacity Initial number of slots
+     */
+    public UnitStore(int capacity) {
+        this(capacity, new UnitIds(capacity));
+    }
+
+    /**
+     * Creates an empty store taking ids from a shared pool.
+     *
+     * @param capacity Initial number of slots
+     * @param ids Pool handing out the ids of new units
+     */
+    UnitStore(int capacity, UnitIds ids) {
+        capacity = Math.max(1, capacity);
+        this.ids = ids;
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        angle = new float[capacity];
+        team = new int[capacity];
+        state = new byte[capacity];
+        stateTimer = new int[capacity];
+        targetX = new float[capacity];
+        targetY = new float[capacity];
+        random = new long[capacity];
+        size = new int[capacity];
+        views = new Unit[capacity];
+        idOf = new int[capacity];
+        slotOf = new int[capacity];
+        Arrays.fill(slotOf, -1);
+    }
+
+    /**
+     * Adds a new slot for a unit that is being constructed.
+     *
+     * @param view The unit viewing the slot
+     * @param x Initial X position
+     * @param y Initial Y position
+     * @param vx Initial X velocity
+     * @param vy Initial Y velocity
+     * @param angle Initial angle in radians
+     * @param color Color of the unit, mapped to its team id
+     * @return The slot index
+     */
+    int add(Unit view, float x, float y, float vx, float vy, float angle, Color color) {
+        int slot = allocateSlot(view, ids.take());
+        this.x[slot] = x;
+        this.y[slot] = y;
+        this.vx[slot] = vx;
+        this.vy[slot] = vy;
+        this.angle[slot] = angle;
+        this.team[slot] = teamOf(color);
+        return slot;
+    }
+
+    /**
+     * Adds a slot for every soldier of a batch, in batch order, with the
+     * state a soldier constructed from the same values would have.
+     *
+     * @param batch The soldiers to add
+     * @return Slot of the first added soldier; the rest follow it
+     */
+    int addSoldiers(SoldierBatch batch) {
+        return addSoldiers(batch, null);
+    }
+
+    /**
+     * Adds a slot for every soldier of a batch, as addSoldiers(batch), but
+     * with ids given by the caller, as when another process assigned them.
+     *
+     * @param batch The soldiers to add
+     * @param unitIds Id of every soldier of the batch, none in use here;
+     *        null to take ids from the pool
+     * @return Slot of the first added soldier; the rest follow it
+     */
+    int addSoldiers(SoldierBatch batch, int[] unitIds) {
+        int n = batch.size();
+        int first = count;
+        if (first + n > x.length) {
+            grow(Math.max(first + n, x.length * 2));
+        }
+        for (int k = 0; k < n; k++) {
+            allocateSlot(new Soldier(this, first + k), unitIds == null ? ids.take() : unitIds[k]);
+        }
+        System.arraycopy(batch.x, 0, x, first, n);
+        System.arraycopy(batch.y, 0, y, first, n);
+        System.arraycopy(batch.vx, 0, vx, first, n);
+        System.arraycopy(batch.vy, 0, vy, first, n);
+        System.arraycopy(batch.angle, 0, angle, first, n);
+        System.arraycopy(batch.team, 0, team, first, n);
+        for (int k = 0; k < n; k++) {
+            Soldier.spawn(this, first + k, batch.size[k], batch.stream[k]);
+        }
+        return first;
+    }
+
+    /**
+     * Moves a unit from whatever store it currently lives in to this one.
+     * The unit object keeps working as a view of its new slot. A unit
+     * coming from a store with the same id pool keeps its id.
+     *
+     * @param unit The unit to move
+     * @return The unit's id in this store
+     */
+    public int adopt(Unit unit) {
+        UnitStore source = unit.store;
+        if (source == this) {
+            return idOf[unit.index];
+        }
+        int from = unit.index;
+        boolean sameIds = source.ids == ids;
+        int slot = allocateSlot(unit, sameIds ? source.idOf[from] : ids.take());
+        copySlot(source, from, this, slot);
+        int id = source.releaseSlot(from);
+        if (!sameIds) {
+            source.ids.release(id);
+        }
+        unit.store = this;
+        unit.index = slot;
+        return idOf[slot];
+    }
+
+    /**
+     * Removes a unit from this store. The last slot is moved into the gap,
+     * and the removed unit is moved to a store of its own so that it stays
+     * usable as a standalone object.
+     *
+     * @param unit The unit to remove
+     * @return true if the unit was stored here, false otherwise
+     */
+    public boolean remove(Unit unit) {
+        if (unit.store != this) {
+            return false;
+        }
+        new UnitStore(1).adopt(unit);
+        return true;
+    }
+
+    /**
+     * Removes the unit in a slot for good, as when it moves on to another
+     * process. The last slot is moved into the gap; the removed unit's view
+     * must not be used afterwards. The unit takes its id along, so the id
+     * is not handed back to this store's pool.
+     *
+     * @param slot Slot of the unit
+     */
+    void discard(int slot) {
+        releaseSlot(slot);
+    }
+
+    /**
+     * Removes every unit and starts the ids over. Views of the removed
+     * units must not be used afterwards. Only for stores with an id pool
+     * of their own.
+     */
+    void clear() {
+        for (int i = 0; i < count; i++) {
+            slotOf[idOf[i]] = -1;
+        }
+        Arrays.fill(views, 0, count, null);
+        count = 0;
+        soldierCount = 0;
+        ids.next = 0;
+        ids.freeCount = 0;
+    }
+
+    /**
+     * Writes every column of a soldier's slot, in the column order of
+     * writeCheckpoint, so that another store can continue the soldier with
+     * readSoldier.
+     *
+     * @param slot Slot of the soldier
+     * @param out Buffer with room for SLOT_BYTES bytes
+     * @param teamIds Team id in this process -> team id to write
+     */
+    void writeSlot(int slot, ByteBuffer out, int[] teamIds) {
+        out.putFloat(x[slot]).putFloat(y[slot]).putFloat(vx[slot]).putFloat(vy[slot]).putFloat(angle[slot]);
+        out.putFloat(targetX[slot]).putFloat(targetY[slot]);
+        out.putInt(teamIds[team[slot]]).putInt(stateTimer[slot]).putInt(size[slot]);
+        out.putLong(random[slot]);
+        out.put(state[slot]);
+    }
+
+    /**
+     * Adds a soldier written by writeSlot.
+     *
+     * @param in Buffer positioned at the slot
+     * @param id Id of the soldier, not in use here
+     * @param teamIds Team id written -> team id in this process
+     * @return The new soldier
+     */
+    Soldier readSoldier(ByteBuffer in, int id, int[] teamIds) {
+        Soldier soldier = new Soldier(this, count);
+        int slot = allocateSlot(soldier, id);
+        x[slot] = in.getFloat();
+        y[slot] = in.getFloat();
+        vx[slot] = in.getFloat();
+        vy[slot] = in.getFloat();
+        angle[slot] = in.getFloat();
+        targetX[slot] = in.getFloat();
+        targetY[slot] = in.getFloat();
+        team[slot] = teamIds[in.getInt()];
+        stateTimer[slot] = in.getInt();
+        size[slot] = in.getInt();
+        random[slot] = in.getLong();
+        state[slot] = in.get();
+        return soldier;
+    }
+
+    /**
+     * @param view The unit that will view the slot
+     * @param id Id of the unit, not in use in this store
+     * @return Index of a fresh slot at the end of the arrays
+     */
+    private int allocateSlot(Unit view, int id) {
+        if (count == x.length) {
+            grow(count * 2);
+        }
+        if (id >= slotOf.length) {
+            int length = slotOf.length;
+            slotOf = Arrays.copyOf(slotOf, Math.max(id + 1, length * 2));
+            Arrays.fill(slotOf, length, slotOf.length, -1);
+        }
+        int slot = count++;
+        views[slot] = view;
+        idOf[slot] = id;
+        slotOf[id] = slot;
+        if (view instanceof Soldier) {
+            soldierCount++;
+        }
+        return slot;
+    }
+
+    /**
+     * Frees a slot and hands its id back to the pool.
+     *
+     * @param slot The slot to free
+     */
+    private void release(int slot) {
+        ids.release(releaseSlot(slot));
+    }
+
+    /**
+     * Frees a slot by moving the last slot into it.
+     *
+     * @param slot The slot to free
+     * @return Id of the unit that was in the slot
+     */
+    private int releaseSlot(int slot) {
+        int id = idOf[slot];
+        if (views[slot] instanceof Soldier) {
+            soldierCount--;
+        }
+        int last = --count;
+        if (slot != last) {
+            copySlot(this, last, this, slot);
+            views[slot] = views[last];
+            views[slot].index = slot;
+            idOf[slot] = idOf[last];
+            slotOf[idOf[slot]] = slot;
+        }
+        views[last] = null;
+        slotOf[id] = -1;
+        return id;
+    }
+
+    /**
+     * Copies every column of one slot to another.
+     */
+    private static void copySlot(UnitStore from, int src, UnitStore to, int dst) {
+        to.x[dst] = from.x[src];
+        to.y[dst] = from.y[src];
+        to.vx[dst] = from.vx[src];
+        to.vy[dst] = from.vy[src];
+        to.angle[dst] = from.angle[src];
+        to.team[dst] = from.team[src];
+        to.state[dst] = from.state[src];
+        to.stateTimer[dst] = from.stateTimer[src];
+        to.targetX[dst] = from.targetX[src];
+        to.targetY[dst] = from.targetY[src];
+        to.random[dst] = from.random[src];
+        to.size[dst] = from.size[src];
+    }
+
+    /**
+     * Grows every column to the given capacity.
+     *
+     * @param capacity New number of slots
+     */
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        angle = Arrays.copyOf(angle, capacity);
+        team = Arrays.copyOf(team, capacity);
+        state = Arrays.copyOf(state, capacity);
+        stateTimer = Arrays.copyOf(stateTimer, capacity);
+        targetX = Arrays.copyOf(targetX, capacity);
+        targetY = Arrays.copyOf(targetY, capacity);
+        random = Arrays.copyOf(random, capacity);
+        size = Arrays.copyOf(size, capacity);
+        views = Arrays.copyOf(views, capacity);
+        idOf = Arrays.copyOf(idOf, capacity);
+    }
+
+    /**
+     * @return Bytes written by writeCheckpoint for the current contents
+     */
+    int checkpointSize() {
+        return 20 + 4 * ids.freeCount + count * CHECKPOINT_SLOT_BYTES;
+    }
+
+    /**
+     * Writes every column and the id bookkeeping to a buffer, so that a
+     * restored store hands out the same ids and draws the same random
+     * numbers as this one. Only stores of soldiers can be written.
+     *
+     * @param out Buffer with room for checkpointSize() bytes
+     */
+    void writeCheckpoint(ByteBuffer out) {
+        if (!allSoldiers()) {
+            throw new IllegalStateException("Only soldiers can be checkpointed");
+        }
+        int n = count;
+        out.putLong(tick);
+        out.putInt(n);
+        out.putInt(ids.next);
+        out.putInt(ids.freeCount);
+        out.asIntBuffer().put(ids.free, 0, ids.freeCount);
+        out.position(out.position() + 4 * ids.freeCount);
+        out.asIntBuffer().put(idOf, 0, n);
+        out.position(out.position() + 4 * n);
+        for (float[] column : new float[][] { x, y, vx, vy, angle, targetX, targetY }) {
+            out.asFloatBuffer().put(column, 0, n);
+            out.position(out.position() + 4 * n);
+        }
+        for (int[] column : new int[][] { team, stateTimer, size }) {
+            out.asIntBuffer().put(column, 0, n);
+            out.position(out.position() + 4 * n);
+        }
+        out.asLongBuffer().put(random, 0, n);
+        out.position(out.position() + 8 * n);
+        out.put(state, 0, n);
+    }
+
+    /**
+     * Replaces the contents of this empty store with a checkpoint written
+     * by writeCheckpoint, creating a soldier view for every slot.
+     *
+     * @param in Buffer positioned at the checkpoint
+     * @param teamIds Team id in the checkpoint -> team id in this process
+     */
+    void readCheckpoint(ByteBuffer in, int[] teamIds) {
+        if (count > 0) {
+            throw new IllegalStateException("Store is not empty");
+        }
+        tick = in.getLong();
+        int n = in.getInt();
+        int nextId = in.getInt();
+        int freeCount = in.getInt();
+        if (n < 0 || freeCount < 0 || nextId < n + freeCount) {
+            throw new IllegalArgumentException("Corrupt checkpoint: " + n + " units, " + nextId + " ids");
+        }
+        if (x.length < n) {
+            grow(n);
+        }
+        ids.next = nextId;
+        ids.freeCount = freeCount;
+        ids.free = new int[Math.max(freeCount, x.length)];
+        in.asIntBuffer().get(ids.free, 0, freeCount);
+        in.position(in.position() + 4 * freeCount);
+        in.asIntBuffer().get(idOf, 0, n);
+        in.position(in.position() + 4 * n);
+        for (float[] column : new float[][] { x, y, vx, vy, angle, targetX, targetY }) {
+            in.asFloatBuffer().get(column, 0, n);
+            in.position(in.position() + 4 * n);
+        }
+        for (int[] column : new int[][] { team, stateTimer, size }) {
+            in.asIntBuffer().get(column, 0, n);
+            in.position(in.position() + 4 * n);
+        }
+        in.asLongBuffer().get(random, 0, n);
+        in.position(in.position() + 8 * n);
+        in.get(state, 0, n);
+
+        slotOf = new int[Math.max(nextId, 1)];
+        Arrays.fill(slotOf, -1);
+        for (int i = 0; i < n; i++) {
+            team[i] = teamIds[team[i]];
+            slotOf[idOf[i]] = i;
+            views[i] = new Soldier(this, i);
+        }
+        count = n;
+        soldierCount = n;
+    }
+
+    /**
+     * Maps a color to its team id, registering new colors as they appear.
+     *
+     * @param color The team color
+     * @return The team id for the color
+     */
+    static synchronized int teamOf(Color color) {
+        Color[] colors = teamColors;
+        for (int i = 0; i < colors.length; i++) {
+            if (colors[i].equals(color)) {
+                return i;
+            }
+        }
+        Color[] grown = Arrays.copyOf(colors, colors.length + 1);
+        grown[colors.length] = color;
+        teamColors = grown;
+        return colors.length;
+    }
+
+    /**
+     * @param team A team id returned by teamOf
+     * @return The color registered for the team
+     */
+    static Color teamColor(int team) {
+        return teamColors[team];
+    }
+
+    /**
+     * @return Colors of all teams registered so far, indexed by team id.
+     *         The array is never modified; new teams replace it.
+     */
+    static Color[] teamPalette() {
+        return teamColors;
+    }
+
+    /**
+     * Sets the area that soldiers in this store pick random targets from.
+     *
+     * @param width Width of the simulation area
+     * @param height Height of the simulation area
+     */
+    void setField(int width, int height) {
+        this.fieldWidth = width;
+        this.fieldHeight = height;
+    }
+
+    int getFieldWidth() {
+        return fieldWidth;
+    }
+
+    int getFieldHeight() {
+        return fieldHeight;
+    }
+
+    /**
+     * Facing angle of a unit. Units face the way they move, so the angle is
+     * only worked out from the velocity when needed, for drawing or
+     * recording; the stored angle applies while a unit stands still.
+     *
+     * @param slot Slot of the unit
+     * @return Facing angle in radians
+     */
+    float angleOf(int slot) {
+        float u = vx[slot];
+        float v = vy[slot];
+        return u != 0 || v != 0 ? (float) Math.atan2(v, u) : angle[slot];
+    }
+
+    /**
+     * Moves on to the next tick, giving every unit fresh random numbers.
+     */
+    void advanceTick() {
+        tick++;
+    }
+
+    /**
+     * @return Tick that random numbers are currently drawn for
+     */
+    long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return Number of stored units
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return Number of released ids waiting in the pool to be handed out
+     *         again
+     */
+    int getFreeIdCount() {
+        return ids.freeCount;
+    }
+
+    /**
+     * @return true if every stored unit is a Soldier
+     */
+    boolean allSoldiers() {
+        return soldierCount == count;
+    }
+
+    /**
+     * @param slot A slot index
+     * @return The stable id of the unit in the slot
+     */
+    public int getId(int slot) {
+        return idOf[slot];
+    }
+
+    /**
+     * @param id A unit id
+     * @return The unit with the given id, or null if the id is not in use
+     */
+    public Unit get(int id) {
+        if (id < 0 || id >= slotOf.length || slotOf[id] < 0) {
+            return null;
+        }
+        return views[slotOf[id]];
+    }
+
+    /**
+     * @return A live, read-only list of the stored units in slot order
+     */
+    public List<Unit> asList() {
+        return unitList;
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.Terry113;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a binary unit table, the bulk unit list a {@link Scenario} can
+ * spawn from with its table directive. Records are written through a
+ * direct buffer, so tables of any size can be produced without holding
+ * the units in memory.
+ *
+ * Layout, little-endian: magic, version and a reserved short, and the
+ * record count, followed by one RECORD_SIZE record per soldier: x, y, vx,
+ * vy and angle as floats, the team's position in the scenario's team list
+ * and the size as shorts, and the seed of the soldier's random stream.
+ */
+public class UnitTableWriter implements Closeable {
+    static final int MAGIC = 0x54494E55; // "UNIT" in little-endian byte order
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 4 + 2 + 2 + 8;
+    static final int RECORD_SIZE = 5 * 4 + 2 * 2 + 8;
+    static final int WINDOW_SIZE = RECORD_SIZE << 20; // Bytes of records mapped at a time when reading
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE << 12).order(ByteOrder.LITTLE_ENDIAN);
+    private long count; // Records written so far
+
+    /**
+     * Creates a unit table, replacing any existing file.
+     *
+     * @param path File to write
+     * @throws IOException If the file cannot be created
+     */
+    public UnitTableWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(HEADER_SIZE);
+    }
+
+    /**
+     * Appends a soldier to the table.
+     *
+     * @param x Initial X position
+     * @param y Initial Y position
+     * @param vx Initial X velocity
+     * @param vy Initial Y velocity
+     * @param angle Initial angle
+     * @param team Position of the soldier's team in the scenario's team list
+     * @param size Size of the soldier
+     * @param seed Seed for the soldier's random stream
+     * @throws IOException If writing fails
+     */
+    public void write(float x, float y, float vx, float vy, float angle, int team, int size, long seed)
+            throws IOException {
+        if (team < 0 || team > Short.MAX_VALUE || size < 0 || size > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Team or size out of range: " + team + ", " + size);
+        }
+        if (buffer.remaining() < RECORD_SIZE) {
+            flush();
+        }
+        buffer.putFloat(x).putFloat(y).putFloat(vx).putFloat(vy).putFloat(angle);
+        buffer.putShort((short) team).putShort((short) size);
+        buffer.putLong(seed);
+        count++;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the remaining records and the header, and closes the file.
+     *
+     * @throws IOException If writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            flush();
+            buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(count);
+            buffer.flip();
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return Number of records written so far
+     */
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.util.Random;
+
+/**
+ * Unit layouts shared by the benchmarks. Field size grows with the unit
+ * count so that average density stays the same across scales; the
+ * clustered layout packs the same units into a few dense groups.
+ */
+final class BenchmarkScenarios {
+    static final String UNIFORM = "uniform";
+    static final String CLUSTERED = "clustered";
+
+    private static final Color[] TEAMS = { Color.RED, Color.BLUE, Color.GREEN };
+    private static final float AREA_PER_UNIT = 400f; // Square pixels per unit, ~1k units on the default field
+    private static final int CLUSTERS = 8;
+    static final float LOOSENESS = 1.5f; // Node enlargement of the "loose" index
+
+    private BenchmarkScenarios() {
+    }
+
+    /**
+     * @param unitCount Number of units
+     * @return Side length of a square field with the standard density
+     */
+    static int fieldSize(int unitCount) {
+        return Math.max(Constants.DETECTION_RADIUS * 2, (int) Math.sqrt(unitCount * AREA_PER_UNIT));
+    }
+
+    /**
+     * Receives the units of a layout one by one.
+     */
+    private interface Placement {
+        void place(int i, float x, float y, float angle, Color color, long seed);
+    }
+
+    /**
+     * Generates seeded soldier placements with the given distribution.
+     *
+     * @param unitCount Number of soldiers
+     * @param distribution UNIFORM or CLUSTERED
+     * @param seed Seed for positions and soldier behavior
+     * @param placement Receives every soldier's position, facing, team and seed
+     */
+    private static void layout(int unitCount, String distribution, long seed, Placement placement) {
+        int size = fieldSize(unitCount);
+        Random random = new Random(seed);
+        float[] centerX = new float[CLUSTERS];
+        float[] centerY = new float[CLUSTERS];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centerX[c] = size * (0.1f + 0.8f * random.nextFloat());
+            centerY[c] = size * (0.1f + 0.8f * random.nextFloat());
+        }
+        float spread = size / 40f;
+
+        for (int i = 0; i < unitCount; i++) {
+            float x, y;
+            if (CLUSTERED.equals(distribution)) {
+                int c = i % CLUSTERS;
+                x = Util.clamp(centerX[c] + (float) random.nextGaussian() * spread, 0, size - 1);
+                y = Util.clamp(centerY[c] + (float) random.nextGaussian() * spread, 0, size - 1);
+            } else if (UNIFORM.equals(distribution)) {
+                x = random.nextFloat() * size;
+                y = random.nextFloat() * size;
+            } else {
+                throw new IllegalArgumentException("Unknown distribution: " + distribution);
+            }
+            float angle = random.nextFloat() * (float) (Math.PI * 2);
+            placement.place(i, x, y, angle, TEAMS[i % TEAMS.length], random.nextLong());
+        }
+    }
+
+    /**
+     * Creates seeded soldiers laid out with the given distribution.
+     *
+     * @param unitCount Number of soldiers
+     * @param distribution UNIFORM or CLUSTERED
+     * @param seed Seed for positions and soldier behavior
+     * @return The soldiers, not yet added to any simulation
+     */
+    static Soldier[] createSoldiers(int unitCount, String distribution, long seed) {
+        final Soldier[] soldiers = new Soldier[unitCount];
+        layout(unitCount, distribution, seed, (i, x, y, angle, color, soldierSeed) ->
+            soldiers[i] = new Soldier(x, y, (float) Math.cos(angle), (float) Math.sin(angle), angle,
+                color, 10, soldierSeed));
+        return soldiers;
+    }
+
+    /**
+     * Creates the same soldiers as createSoldiers, as a batch for bulk spawning.
+     *
+     * @param unitCount Number of soldiers
+     * @param distribution UNIFORM or CLUSTERED
+     * @param seed Seed for positions and soldier behavior
+     * @return The filled batch
+     */
+    static SoldierBatch createBatch(int unitCount, String distribution, long seed) {
+        final SoldierBatch batch = new SoldierBatch(unitCount);
+        layout(unitCount, distribution, seed, (i, x, y, angle, color, soldierSeed) ->
+            batch.add(x, y, (float) Math.cos(angle), (float) Math.sin(angle), angle, color, 10, soldierSeed));
+        return batch;
+    }
+
+    /**
+     * Creates a spatial index covering the field for the unit count.
+     *
+     * @param index "quadtree", "loose" for a loose quadtree, or "grid"
+     * @param unitCount Number of units the field is sized for
+     * @return An empty index
+     */
+    static SpatialIndex createIndex(String index, int unitCount) {
+        int size = fieldSize(unitCount);
+        if ("grid".equals(index)) {
+            return new UniformGrid(size, size);
+        } else if ("quadtree".equals(index)) {
+            return new QuadtreeNode(0, 0, size, size);
+        } else if ("loose".equals(index)) {
+            return new QuadtreeNode(0, 0, size, size, LOOSENESS);
+        }
+        throw new IllegalArgumentException("Unknown index: " + index);
+    }
+
+    /**
+     * Creates a populated simulation.
+     *
+     * @param unitCount Number of soldiers
+     * @param distribution UNIFORM or CLUSTERED
+     * @param index "quadtree", "loose" or "grid"
+     * @return The simulation, ready to tick
+     */
+    static SimulationManager createSimulation(int unitCount, String distribution, String index) {
+        int size = fieldSize(unitCount);
+        SimulationManager simManager = new SimulationManager(size, size, createIndex(index, unitCount));
+        simManager.addSoldiers(createBatch(unitCount, distribution, 42));
+        return simManager;
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a simulation resumed from a checkpoint follows the same
+ * trajectory as an uninterrupted run.
+ */
+public class CheckpointTest 
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SimulationManager createSimulation(SpatialIndex spatialIndex)
+    {
+        Random random = new Random(77);
+        Color[] teams = { Color.RED, Color.BLUE, Color.GREEN };
+        SimulationManager simManager = new SimulationManager(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT,
+            spatialIndex);
+        Soldier[] soldiers = new Soldier[1500];
+        for (int i = 0; i < soldiers.length; i++) {
+            soldiers[i] = new Soldier(
+                random.nextFloat() * Constants.FIELD_WIDTH,
+                random.nextFloat() * Constants.FIELD_HEIGHT,
+                random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1, 0,
+                teams[i % teams.length], 10, random.nextLong());
+            simManager.addUnit(soldiers[i]);
+        }
+        // Leave freed ids behind, so that id reuse is part of the saved state
+        for (int i = 0; i < soldiers.length; i += 10) {
+            simManager.removeUnit(soldiers[i]);
+        }
+        return simManager;
+    }
+
+    @Test
+    public void resumedQuadtreeRunMatchesUninterruptedRun()
+    {
+        SimulationManager original = createSimulation(new QuadtreeNode(0, 0,
+            Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT));
+        for (int tick = 0; tick < 60; tick++) {
+            original.update();
+        }
+        ByteBuffer saved = Checkpoint.save(original, 60);
+
+        Checkpoint checkpoint = Checkpoint.restore(saved);
+        assertEquals(60, checkpoint.getTick());
+        SimulationManager resumed = checkpoint.getSimulationManager();
+        assertSameState(original, resumed);
+        for (int tick = 0; tick < 120; tick++) {
+            original.update();
+            resumed.update();
+        }
+        assertSameState(original, resumed);
+    }
+
+    @Test
+    public void resumedGridRunFromFileMatchesUninterruptedRun() throws IOException
+    {
+        SimulationManager original = createSimulation(new UniformGrid(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT));
+        original.setThinkScheduler(new ThinkScheduler(3, 2));
+        for (int tick = 0; tick < 40; tick++) {
+            original.update();
+        }
+        File file = folder.newFile("run.checkpoint");
+        Checkpoint.write(file.toPath(), original, 40);
+
+        SimulationManager resumed = Checkpoint.read(file.toPath()).getSimulationManager();
+        resumed.setThreadCount(3);
+        for (int tick = 0; tick < 120; tick++) {
+            original.update();
+            resumed.update();
+        }
+        assertSameState(original, resumed);
+
+        // Ids released before the checkpoint are handed out in the same order
+        Soldier added = new Soldier(10, 10, 0, 0, 0, Color.RED, 10, 5);
+        Soldier addedResumed = new Soldier(10, 10, 0, 0, 0, Color.RED, 10, 5);
+        original.addUnit(added);
+        resumed.addUnit(addedResumed);
+        assertEquals(added.getId(), addedResumed.getId());
+    }
+
+    private static void assertSameState(SimulationManager expected, SimulationManager actual)
+    {
+        UnitStore e = expected.getUnitStore();
+        UnitStore a = actual.getUnitStore();
+        int n = e.size();
+        assertEquals(n, a.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(e.getId(i), a.getId(i));
+        }
+        assertArrayEquals(Arrays.copyOf(e.x, n), Arrays.copyOf(a.x, n), 0);
+        assertArrayEquals(Arrays.copyOf(e.y, n), Arrays.copyOf(a.y, n), 0);
+        assertArrayEquals(Arrays.copyOf(e.vx, n), Arrays.copyOf(a.vx, n), 0);
+        assertArrayEquals(Arrays.copyOf(e.vy, n), Arrays.copyOf(a.vy, n), 0);
+        assertArrayEquals(Arrays.copyOf(e.angle, n), Arrays.copyOf(a.angle, n), 0);
+        assertArrayEquals(Arrays.copyOf(e.targetX, n), Arrays.copyOf(a.targetX, n), 0);
+        assertArrayEquals(Arrays.copyOf(e.targetY, n), Arrays.copyOf(a.targetY, n), 0);
+        assertArrayEquals(Arrays.copyOf(e.state, n), Arrays.copyOf(a.state, n));
+        assertArrayEquals(Arrays.copyOf(e.stateTimer, n), Arrays.copyOf(a.stateTimer, n));
+        assertArrayEquals(Arrays.copyOf(e.random, n), Arrays.copyOf(a.random, n));
+    }
+}
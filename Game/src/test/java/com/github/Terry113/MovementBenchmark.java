@@ -0,0 +1,49 @@
+package com.github.Terry113;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the movement step of a whole store of soldiers: state changes,
+ * steering, the speed limit, position update and the bounce off the field
+ * edges, without sensing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovementBenchmark {
+    @Param({ "10000", "100000" })
+    public int unitCount;
+
+    private UnitStore store;
+    private int size;
+
+    @Setup
+    public void setUp() {
+        size = BenchmarkScenarios.fieldSize(unitCount);
+        store = new UnitStore(unitCount);
+        store.setField(size, size);
+        store.addSoldiers(BenchmarkScenarios.createBatch(unitCount, BenchmarkScenarios.UNIFORM, 42));
+    }
+
+    @Benchmark
+    public UnitStore move() {
+        store.advanceTick();
+        Soldier.update(store, 0, unitCount, true, size, size);
+        return store;
+    }
+}
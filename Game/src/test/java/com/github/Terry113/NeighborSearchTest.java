@@ -0,0 +1,103 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for circular radius and k-nearest queries on both spatial indexes.
+ */
+public class NeighborSearchTest
+{
+    @Test
+    public void quadtreeMatchesBruteForce()
+    {
+        List<Unit> units = createUnits();
+        QuadtreeNode tree = new QuadtreeNode(0, 0, 800, 600);
+        tree.rebuild(units);
+        checkQueries(tree, units);
+    }
+
+    @Test
+    public void gridMatchesBruteForce()
+    {
+        List<Unit> units = createUnits();
+        UniformGrid grid = new UniformGrid(800, 600);
+        grid.rebuild(units);
+        checkQueries(grid, units);
+    }
+
+    @Test
+    public void resizedSearchMatchesFreshSearch()
+    {
+        List<Unit> units = createUnits();
+        UniformGrid grid = new UniformGrid(800, 600);
+        grid.rebuild(units);
+        NeighborSearch resized = new NeighborSearch(1);
+        for (int k : new int[] {1, 4, 16, 2, 32, 1}) {
+            resized.setK(k);
+            NeighborSearch fresh = new NeighborSearch(k);
+            for (Unit center : units) {
+                grid.nearest(center.getX(), center.getY(), 80, center, resized);
+                grid.nearest(center.getX(), center.getY(), 80, center, fresh);
+                assertEquals(fresh.size(), resized.size());
+                for (int i = 0; i < fresh.size(); i++) {
+                    assertEquals(fresh.getDistanceSquared(i), resized.getDistanceSquared(i), 0f);
+                }
+            }
+        }
+    }
+
+    private static List<Unit> createUnits()
+    {
+        Random random = new Random(5);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 800; i++) {
+            units.add(new Soldier(random.nextFloat() * 800, random.nextFloat() * 600, 0, 0, 0, Color.RED, 10));
+        }
+        return units;
+    }
+
+    private static void checkQueries(SpatialIndex index, List<Unit> units)
+    {
+        List<Unit> found = new ArrayList<>();
+        NeighborSearch search = new NeighborSearch(5);
+        for (Unit center : units) {
+            float radius = 50;
+            found.clear();
+            index.queryRadius(center.getX(), center.getY(), radius, center, found);
+
+            HashSet<Unit> expected = new HashSet<>();
+            List<Float> distances = new ArrayList<>();
+            for (Unit other : units) {
+                float distance = Util.getDistanceSquared(other.getX(), other.getY(), center.getX(), center.getY());
+                if (other != center && distance <= radius * radius) {
+                    expected.add(other);
+                    distances.add(distance);
+                }
+            }
+            assertEquals(expected, new HashSet<>(found));
+
+            // Units at equal distances may come back in any order, so compare the distances
+            index.nearest(center.getX(), center.getY(), radius, center, search);
+            float[] sorted = new float[distances.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = distances.get(i);
+            }
+            Arrays.sort(sorted);
+            assertEquals(Math.min(5, sorted.length), search.size());
+            for (int i = 0; i < search.size(); i++) {
+                assertEquals(sorted[i], search.getDistanceSquared(i), 0f);
+                assertEquals(search.getDistanceSquared(i), Util.getDistanceSquared(
+                    search.get(i).getX(), search.get(i).getY(), center.getX(), center.getY()), 0f);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that parallel ticks and the pairwise interaction pass reproduce a
+ * single-threaded run with nearest queries exactly.
+ */
+public class ParallelTickTest 
+{
+    private static SimulationManager createSimulation(long seed, int threads, boolean pairwise)
+    {
+        Random random = new Random(seed);
+        Color[] teams = { Color.RED, Color.BLUE, Color.GREEN };
+        SimulationManager simManager = new SimulationManager(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
+        simManager.setThreadCount(threads);
+        simManager.setPairwiseInteractions(pairwise);
+        for (int i = 0; i < 2000; i++) {
+            simManager.addUnit(new Soldier(
+                random.nextFloat() * Constants.FIELD_WIDTH,
+                random.nextFloat() * Constants.FIELD_HEIGHT,
+                random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1, 0,
+                teams[i % teams.length], 10, random.nextLong()));
+        }
+        return simManager;
+    }
+
+    @Test
+    public void parallelTicksMatchSerialTicks()
+    {
+        assertSameRun(createSimulation(1234, 1, false), createSimulation(1234, 4, false));
+    }
+
+    @Test
+    public void pairwiseInteractionsMatchQueries()
+    {
+        SimulationManager queries = createSimulation(99, 1, false);
+        SimulationManager pairs = createSimulation(99, 1, true);
+        assertSameRun(queries, pairs);
+
+        // Neutral pairs are skipped by both, and the pairwise decisions may run in parallel
+        queries = createSimulation(7, 1, false);
+        pairs = createSimulation(7, 4, true);
+        int red = UnitStore.teamOf(Color.RED);
+        int blue = UnitStore.teamOf(Color.BLUE);
+        int green = UnitStore.teamOf(Color.GREEN);
+        for (SimulationManager simManager : new SimulationManager[] { queries, pairs }) {
+            simManager.getTeamRelations().set(red, blue, TeamRelations.Relation.NEUTRAL);
+            simManager.getTeamRelations().set(blue, green, TeamRelations.Relation.ALLY);
+        }
+        assertSameRun(queries, pairs);
+    }
+
+    @Test
+    public void staggeredThinkingMatchesAcrossPassesAndThreads()
+    {
+        SimulationManager queries = createSimulation(31, 1, false);
+        SimulationManager pairs = createSimulation(31, 4, true);
+        queries.setThinkScheduler(new ThinkScheduler(5, 2));
+        pairs.setThinkScheduler(new ThinkScheduler(5, 2));
+        assertSameRun(queries, pairs);
+    }
+
+    @Test
+    public void unitsThinkOncePerInterval()
+    {
+        SimulationManager simManager = createSimulation(3, 1, false);
+        ThinkScheduler scheduler = new ThinkScheduler(4, 4);
+        UnitStore store = simManager.getUnitStore();
+        int[] thinks = new int[store.size()];
+        for (int tick = 0; tick < 8; tick++) {
+            simManager.update();
+            int thinking = 0;
+            for (int i = 0; i < thinks.length; i++) {
+                if (scheduler.thinks(store, i)) {
+                    thinks[i]++;
+                    thinking++;
+                }
+            }
+            // Staggered by id, so a quarter of the units think on every tick
+            assertEquals(thinks.length / 4, thinking);
+        }
+        for (int count : thinks) {
+            assertEquals(2, count);
+        }
+    }
+
+    private static void assertSameRun(SimulationManager reference, SimulationManager candidate)
+    {
+        for (int tick = 0; tick < 150; tick++) {
+            reference.update();
+            candidate.update();
+        }
+
+        for (int i = 0; i < reference.getUnits().size(); i++) {
+            Soldier expected = (Soldier) reference.getUnits().get(i);
+            Soldier actual = (Soldier) candidate.getUnits().get(i);
+            assertEquals(Float.floatToIntBits(expected.getX()), Float.floatToIntBits(actual.getX()));
+            assertEquals(Float.floatToIntBits(expected.getY()), Float.floatToIntBits(actual.getY()));
+            assertEquals(Float.floatToIntBits(expected.getVx()), Float.floatToIntBits(actual.getVx()));
+            assertEquals(Float.floatToIntBits(expected.getVy()), Float.floatToIntBits(actual.getVy()));
+            assertEquals(Float.floatToIntBits(expected.getAngle()), Float.floatToIntBits(actual.getAngle()));
+            assertEquals(expected.getCurrentState(), actual.getCurrentState());
+        }
+    }
+}
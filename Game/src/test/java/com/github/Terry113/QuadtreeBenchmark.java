@@ -0,0 +1,105 @@
+package com.github.Terry113;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures quadtree insert throughput and detection-radius query latency.
+ * Density is the number of units on the default 800x600 field.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuadtreeBenchmark {
+    private static final int INSERTS = 1000;
+    private static final int QUERY_POINTS = 1024;
+
+    @Param({ "100", "1000", "10000" })
+    public int density;
+
+    @Param({ BenchmarkScenarios.UNIFORM, BenchmarkScenarios.CLUSTERED })
+    public String distribution;
+
+    private Soldier[] soldiers;
+    private QuadtreeNode populated;
+    private QuadtreeNode scratch;
+    private float[] queryX, queryY;
+    private final List<Unit> found = new ArrayList<>();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Soldier[] laidOut = BenchmarkScenarios.createSoldiers(density, distribution, 7);
+        // Map the scenario field onto the default field so density is what varies
+        float scale = (float) Constants.FIELD_WIDTH / BenchmarkScenarios.fieldSize(density);
+        soldiers = new Soldier[density];
+        populated = new QuadtreeNode(0, 0, Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
+        for (int i = 0; i < density; i++) {
+            soldiers[i] = laidOut[i];
+            soldiers[i].setX(laidOut[i].getX() * scale);
+            soldiers[i].setY(laidOut[i].getY() * scale * Constants.FIELD_HEIGHT / Constants.FIELD_WIDTH);
+            populated.insert(soldiers[i]);
+        }
+
+        Random random = new Random(11);
+        queryX = new float[QUERY_POINTS];
+        queryY = new float[QUERY_POINTS];
+        for (int i = 0; i < QUERY_POINTS; i++) {
+            Soldier around = soldiers[random.nextInt(density)];
+            queryX[i] = around.getX();
+            queryY[i] = around.getY();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void resetScratch() {
+        scratch = new QuadtreeNode(0, 0, Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
+    }
+
+    /**
+     * Inserts INSERTS units drawn cyclically from the layout into an empty tree.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(INSERTS)
+    public QuadtreeNode insert() {
+        for (int i = 0; i < INSERTS; i++) {
+            scratch.insert(soldiers[i % density]);
+        }
+        return scratch;
+    }
+
+    /**
+     * One detection-radius query centered on a unit.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int rangeQuery() {
+        int i = next++ & (QUERY_POINTS - 1);
+        found.clear();
+        populated.query(
+            queryX[i] - Constants.DETECTION_RADIUS, queryY[i] - Constants.DETECTION_RADIUS,
+            queryX[i] + Constants.DETECTION_RADIUS, queryY[i] + Constants.DETECTION_RADIUS,
+            null, found);
+        return found.size();
+    }
+}
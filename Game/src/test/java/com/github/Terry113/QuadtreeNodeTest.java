@@ -0,0 +1,295 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for incremental quadtree maintenance.
+ */
+public class QuadtreeNodeTest 
+{
+    private static Soldier soldierAt(float x, float y)
+    {
+        return new Soldier(x, y, 0, 0, 0, Color.RED, 10);
+    }
+
+    private static int countUnits(QuadtreeNode node)
+    {
+        int total = node.getUnits().size();
+        if (node.getChildren() != null) {
+            for (QuadtreeNode child : node.getChildren()) {
+                total += countUnits(child);
+            }
+        }
+        return total;
+    }
+
+    @Test
+    public void relocateMatchesRebuild()
+    {
+        Random random = new Random(7);
+        QuadtreeNode tree = new QuadtreeNode(0, 0, 800, 600);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Soldier soldier = soldierAt(random.nextFloat() * 800, random.nextFloat() * 600);
+            units.add(soldier);
+            tree.insert(soldier);
+        }
+
+        for (int step = 0; step < 50; step++) {
+            for (Unit unit : units) {
+                float oldX = unit.getX();
+                float oldY = unit.getY();
+                unit.setX(Math.min(799, Math.max(0, oldX + random.nextFloat() * 40 - 20)));
+                unit.setY(Math.min(599, Math.max(0, oldY + random.nextFloat() * 40 - 20)));
+                tree.relocate(unit, oldX, oldY);
+            }
+            assertEquals(units.size(), tree.getCount());
+            assertEquals(units.size(), countUnits(tree));
+        }
+
+        for (Unit unit : units) {
+            List<Unit> found = tree.query(new Rectangle((int) unit.getX(), (int) unit.getY(), 1, 1), new ArrayList<Unit>());
+            assertTrue(found.contains(unit));
+        }
+    }
+
+    @Test
+    public void removeMergesEmptySubtrees()
+    {
+        QuadtreeNode tree = new QuadtreeNode(0, 0, 800, 600);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Soldier soldier = soldierAt(i * 19, i * 14);
+            units.add(soldier);
+            tree.insert(soldier);
+        }
+        assertTrue(tree.getChildren() != null);
+
+        for (Unit unit : units) {
+            assertTrue(tree.remove(unit));
+        }
+        assertFalse(tree.remove(units.get(0)));
+        assertEquals(0, tree.getCount());
+        assertNull(tree.getChildren());
+    }
+
+    @Test
+    public void insertsOnFarEdgesOfOddSizedTree()
+    {
+        QuadtreeNode tree = new QuadtreeNode(0, 0, 801, 601);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i <= 40; i++) {
+            // Units on the right and bottom edges, where boundary clamping leaves them
+            units.add(soldierAt(801, i * 15));
+            units.add(soldierAt(i * 20, 601));
+        }
+        units.add(soldierAt(801, 601));
+        for (Unit unit : units) {
+            assertTrue(tree.insert(unit));
+        }
+        assertFalse(tree.insert(soldierAt(801.5f, 0)));
+        assertEquals(units.size(), tree.getCount());
+        assertEquals(units.size(), countUnits(tree));
+        // Every unit ends up in a leaf, none is left behind in an inner node
+        assertEquals(0, tree.getUnits().size());
+    }
+
+    @Test
+    public void looseRefreshKeepsEveryUnitFindable()
+    {
+        Random random = new Random(11);
+        QuadtreeNode tree = new QuadtreeNode(0, 0, 800, 600, 1.5f);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            units.add(soldierAt(random.nextFloat() * 800, random.nextFloat() * 600));
+        }
+        tree.rebuild(units);
+
+        float[] oldX = new float[units.size()];
+        float[] oldY = new float[units.size()];
+        for (int step = 0; step < 100; step++) {
+            for (int i = 0; i < units.size(); i++) {
+                Unit unit = units.get(i);
+                oldX[i] = unit.getX();
+                oldY[i] = unit.getY();
+                // Only some units move each step, so refresh relocates instead of rebuilding
+                if (random.nextInt(4) == 0) {
+                    unit.setX(Math.min(800, Math.max(0, oldX[i] + random.nextFloat() * 30 - 15)));
+                    unit.setY(Math.min(600, Math.max(0, oldY[i] + random.nextFloat() * 30 - 15)));
+                }
+            }
+            tree.refresh(units, oldX, oldY);
+            assertEquals(units.size(), tree.getCount());
+            assertEquals(units.size(), countUnits(tree));
+        }
+
+        List<Unit> found = new ArrayList<>();
+        for (Unit unit : units) {
+            found.clear();
+            tree.queryRadius(unit.getX(), unit.getY(), 0, null, found);
+            assertTrue(found.contains(unit));
+        }
+        for (Unit unit : units) {
+            assertTrue(tree.remove(unit));
+        }
+        assertEquals(0, tree.getCount());
+    }
+
+    @Test
+    public void versionsTrackStructureAndContent()
+    {
+        QuadtreeNode tree = new QuadtreeNode(0, 0, 800, 600);
+        Soldier mover = soldierAt(100, 100);
+        tree.insert(mover);
+        long structure = tree.getStructureVersion();
+        long content = tree.getContentVersion();
+
+        // Moving within a leaf changes nothing
+        mover.setX(110);
+        tree.relocate(mover, 100, 100);
+        assertEquals(structure, tree.getStructureVersion());
+        assertEquals(content, tree.getContentVersion());
+
+        // Filling the root past capacity splits it
+        List<Unit> others = new ArrayList<>();
+        for (int i = 0; i < Constants.QUADTREE_MAX_OBJECTS; i++) {
+            Soldier soldier = soldierAt(500 + i * 10, 400);
+            others.add(soldier);
+            tree.insert(soldier);
+        }
+        assertTrue(tree.getStructureVersion() > structure);
+        assertTrue(tree.getContentVersion() > content);
+
+        // Crossing into another leaf changes the content only
+        structure = tree.getStructureVersion();
+        content = tree.getContentVersion();
+        mover.setX(700);
+        tree.relocate(mover, 110, 100);
+        assertEquals(structure, tree.getStructureVersion());
+        assertTrue(tree.getContentVersion() > content);
+
+        float[] bounds = new float[4 * 4];
+        int[] counts = new int[4];
+        int[] teams = new int[4];
+        assertEquals(4, tree.exportRegions(bounds, counts, teams));
+        assertEquals(0, counts[0]);
+        assertEquals(Constants.QUADTREE_MAX_OBJECTS + 1, counts[1] + counts[3]);
+
+        // Emptying the tree merges it back into a single leaf
+        structure = tree.getStructureVersion();
+        tree.remove(mover);
+        for (Unit unit : others) {
+            tree.remove(unit);
+        }
+        assertTrue(tree.getStructureVersion() > structure);
+        assertEquals(1, tree.exportRegions(bounds, counts, teams));
+    }
+
+    @Test
+    public void regionTeamsFollowMovesAndRemovals()
+    {
+        Random random = new Random(11);
+        QuadtreeNode tree = new QuadtreeNode(0, 0, 800, 600);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Color color = random.nextInt(3) == 0 ? Color.RED : Color.BLUE;
+            Soldier soldier = new Soldier(random.nextFloat() * 800, random.nextFloat() * 600, 0, 0, 0, color, 10);
+            units.add(soldier);
+            tree.insert(soldier);
+        }
+        for (int step = 0; step < 20; step++) {
+            for (Unit unit : units) {
+                float oldX = unit.getX();
+                float oldY = unit.getY();
+                unit.setX(Math.min(799, Math.max(0, oldX + random.nextFloat() * 80 - 40)));
+                unit.setY(Math.min(599, Math.max(0, oldY + random.nextFloat() * 80 - 40)));
+                tree.relocate(unit, oldX, oldY);
+            }
+            // Thin the crowd so subtrees merge as well as split
+            if (step % 5 == 4) {
+                for (int i = 0; i < 30; i++) {
+                    assertTrue(tree.remove(units.remove(units.size() - 1)));
+                }
+            }
+        }
+
+        int leaves = tree.exportRegions(new float[0], new int[0], new int[0]);
+        float[] bounds = new float[leaves * 4];
+        int[] counts = new int[leaves];
+        int[] teams = new int[leaves];
+        assertEquals(leaves, tree.exportRegions(bounds, counts, teams));
+        int total = 0;
+        for (int i = 0; i < leaves; i++) {
+            int[] perTeam = new int[UnitStore.teamPalette().length];
+            int inside = 0;
+            for (Unit unit : units) {
+                float x = unit.getX();
+                float y = unit.getY();
+                if (x >= bounds[i * 4] && y >= bounds[i * 4 + 1]
+                        && x < bounds[i * 4] + bounds[i * 4 + 2] && y < bounds[i * 4 + 1] + bounds[i * 4 + 3]) {
+                    perTeam[UnitStore.teamOf(unit.getColor())]++;
+                    inside++;
+                }
+            }
+            int dominant = -1;
+            for (int team = 0; team < perTeam.length; team++) {
+                if (perTeam[team] > (dominant < 0 ? 0 : perTeam[dominant])) {
+                    dominant = team;
+                }
+            }
+            assertEquals(inside, counts[i]);
+            assertEquals(dominant, teams[i]);
+            total += counts[i];
+        }
+        assertEquals(units.size(), total);
+    }
+
+    @Test
+    public void bulkRebuildMatchesSequentialInserts()
+    {
+        Random random = new Random(11);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            // Half the units in a tight cluster, so some leaves reach the depth limit
+            float spread = i % 2 == 0 ? 800 : 8;
+            units.add(soldierAt(random.nextFloat() * spread, random.nextFloat() * spread * 0.75f));
+        }
+        units.add(soldierAt(800, 600)); // On the closed far corner
+        units.add(soldierAt(900, 100)); // Outside the tree
+
+        for (float looseness : new float[] { 1, 1.5f }) {
+            QuadtreeNode inserted = new QuadtreeNode(0, 0, 800, 600, looseness);
+            for (Unit unit : units) {
+                inserted.insert(unit);
+            }
+            QuadtreeNode rebuilt = new QuadtreeNode(0, 0, 800, 600, looseness);
+            rebuilt.insert(units.get(0));
+            rebuilt.rebuild(units);
+            assertSameTree(inserted, rebuilt);
+            assertEquals(units.size() - 1, rebuilt.getCount());
+        }
+    }
+
+    private static void assertSameTree(QuadtreeNode expected, QuadtreeNode actual)
+    {
+        assertEquals(expected.getUnits(), actual.getUnits());
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getChildren() == null, actual.getChildren() == null);
+        if (expected.getChildren() != null) {
+            for (int i = 0; i < 4; i++) {
+                assertSameTree(expected.getChildren()[i], actual.getChildren()[i]);
+            }
+        }
+    }
+}
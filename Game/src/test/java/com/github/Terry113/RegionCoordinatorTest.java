@@ -0,0 +1,204 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that regions ticked by workers over loopback sockets run like a
+ * single simulation.
+ */
+public class RegionCoordinatorTest
+{
+    private static SoldierBatch createBatch(long seed)
+    {
+        Random random = new Random(seed);
+        Color[] teams = { Color.RED, Color.BLUE, Color.GREEN };
+        SoldierBatch batch = new SoldierBatch(2000);
+        for (int i = 0; i < 2000; i++) {
+            batch.add(
+                random.nextFloat() * Constants.FIELD_WIDTH,
+                random.nextFloat() * Constants.FIELD_HEIGHT,
+                random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1, 0,
+                teams[i % teams.length], 10, random.nextLong());
+        }
+        return batch;
+    }
+
+    @Test
+    public void workersMatchSingleSimulation() throws Exception
+    {
+        assertSameRun(new ThinkScheduler(1, 1));
+    }
+
+    @Test
+    public void staggeredThinkingMatchesSingleSimulation() throws Exception
+    {
+        // The stagger is keyed on unit ids, which travel with migrants and ghosts
+        assertSameRun(new ThinkScheduler(4, 2));
+    }
+
+    private static void assertSameRun(ThinkScheduler scheduler) throws Exception
+    {
+        SimulationManager simManager = new SimulationManager(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
+        simManager.setThinkScheduler(scheduler);
+        simManager.addSoldiers(createBatch(77));
+
+        Thread[] threads = new Thread[6];
+        try (RegionCoordinator coordinator = new RegionCoordinator(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT,
+                3, 2)) {
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(new RegionWorker(SocketChannel.open(coordinator.getAddress())));
+                threads[i].start();
+            }
+            coordinator.connect(createBatch(77), scheduler);
+
+            for (int tick = 0; tick < 150; tick++) {
+                simManager.update();
+                coordinator.update(tick == 149);
+            }
+
+            assertTrue(coordinator.getSnapshots().acquire());
+            RenderSnapshot snapshot = coordinator.getSnapshots().getCurrent();
+            assertEquals(150, snapshot.getTick());
+            assertEquals(simManager.getUnits().size(), snapshot.getCount());
+
+            // Units keep the ids of the single run, wherever they ended up
+            UnitStore store = simManager.getUnitStore();
+            for (int a = 0; a < snapshot.getCount(); a++) {
+                int e = store.get(snapshot.id[a]).index;
+                assertEquals(Float.floatToIntBits(store.x[e]), Float.floatToIntBits(snapshot.x[a]));
+                assertEquals(Float.floatToIntBits(store.y[e]), Float.floatToIntBits(snapshot.y[a]));
+                assertEquals(Float.floatToIntBits(store.vx[e]), Float.floatToIntBits(snapshot.vx[a]));
+                assertEquals(Float.floatToIntBits(store.vy[e]), Float.floatToIntBits(snapshot.vy[a]));
+                assertEquals(store.state[e], snapshot.state[a]);
+                assertEquals(store.team[e], snapshot.team[a]);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertTrue(!thread.isAlive());
+        }
+    }
+
+    @Test
+    public void migrantsTakeTheirIdsAlong() throws Exception
+    {
+        SoldierBatch batch = createBatch(41);
+        RegionWorker[] workers = new RegionWorker[2];
+        Thread[] threads = new Thread[workers.length];
+        try (RegionCoordinator coordinator = new RegionCoordinator(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT,
+                2, 1)) {
+            // Workers connect one after the other, so worker i serves region i
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new RegionWorker(SocketChannel.open(coordinator.getAddress()));
+                threads[i] = new Thread(workers[i]);
+                threads[i].start();
+            }
+            coordinator.connect(batch, new ThinkScheduler(1, 1));
+            for (int tick = 0; tick < 300; tick++) {
+                coordinator.update(false);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertTrue(!thread.isAlive());
+        }
+
+        RegionGrid grid = new RegionGrid(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT, 2, 1);
+        int units = 0;
+        int migrated = 0;
+        for (int region = 0; region < workers.length; region++) {
+            UnitStore store = workers[region].getSimulationManager().getUnitStore();
+            // Emigrants' ids live on in other regions, so none may be handed out here again
+            assertEquals(0, store.getFreeIdCount());
+            for (int i = 0; i < store.size(); i++) {
+                int id = store.getId(i);
+                if (grid.regionOf(batch.x[id], batch.y[id]) != region) {
+                    migrated++;
+                }
+            }
+            units += store.size();
+        }
+        assertEquals(batch.size(), units);
+        assertTrue(migrated > 0);
+    }
+
+    @Test
+    public void missingWorkerFailsNamingItsRegion() throws Exception
+    {
+        Thread worker;
+        try (RegionCoordinator coordinator = new RegionCoordinator(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT,
+                2, 1)) {
+            coordinator.setTimeout(200);
+            worker = new Thread(new RegionWorker(SocketChannel.open(coordinator.getAddress())));
+            worker.start();
+            try {
+                coordinator.connect(createBatch(3), new ThinkScheduler(1, 1));
+                fail("Connected without a worker for region 1");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("region 1"));
+            }
+        }
+        worker.join(10000);
+        assertTrue(!worker.isAlive());
+    }
+
+    @Test
+    public void silentWorkerFailsNamingItsRegion() throws Exception
+    {
+        Thread worker;
+        try (RegionCoordinator coordinator = new RegionCoordinator(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT,
+                2, 1)) {
+            coordinator.setTimeout(200);
+            worker = new Thread(new RegionWorker(SocketChannel.open(coordinator.getAddress())));
+            worker.start();
+            SocketChannel silent = SocketChannel.open(coordinator.getAddress());
+            // The second connection takes region 1 but never answers a tick
+            coordinator.connect(createBatch(3), new ThinkScheduler(1, 1));
+            try {
+                coordinator.update(false);
+                fail("Ticked without an answer from region 1");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("region 1"));
+            }
+            silent.close();
+        }
+        worker.join(10000);
+        assertTrue(!worker.isAlive());
+    }
+
+    @Test
+    public void tickingThreadKeepsTheFailure() throws Exception
+    {
+        Thread worker;
+        try (RegionCoordinator coordinator = new RegionCoordinator(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT,
+                2, 1)) {
+            coordinator.setTimeout(200);
+            worker = new Thread(new RegionWorker(SocketChannel.open(coordinator.getAddress())));
+            worker.start();
+            SocketChannel silent = SocketChannel.open(coordinator.getAddress());
+            coordinator.connect(createBatch(3), new ThinkScheduler(1, 1));
+            coordinator.start(Constants.TICKS_PER_SECOND);
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (coordinator.getFailure() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            IOException failure = coordinator.getFailure();
+            assertTrue(String.valueOf(failure), failure != null && failure.getMessage().contains("region 1"));
+            silent.close();
+
+            // The other worker is released without waiting for close
+            worker.join(10000);
+            assertTrue(!worker.isAlive());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that a world split into regions, with units migrating and seen
+ * across borders, runs like a single simulation.
+ */
+public class RegionedWorldTest
+{
+    private static List<Soldier> createSoldiers(long seed)
+    {
+        Random random = new Random(seed);
+        Color[] teams = { Color.RED, Color.BLUE, Color.GREEN };
+        List<Soldier> soldiers = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            soldiers.add(new Soldier(
+                random.nextFloat() * Constants.FIELD_WIDTH,
+                random.nextFloat() * Constants.FIELD_HEIGHT,
+                random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1, 0,
+                teams[i % teams.length], 10, random.nextLong()));
+        }
+        return soldiers;
+    }
+
+    @Test
+    public void regionsMatchSingleSimulation()
+    {
+        assertSameRun(2, 2, 1, new ThinkScheduler(1, 1));
+        assertSameRun(3, 2, 4, new ThinkScheduler(1, 1));
+    }
+
+    @Test
+    public void staggeredThinkingMatchesSingleSimulation()
+    {
+        // The stagger is keyed on unit ids, which must survive migration
+        assertSameRun(3, 2, 2, new ThinkScheduler(4, 2));
+    }
+
+    private static void assertSameRun(int columns, int rows, int threads, ThinkScheduler scheduler)
+    {
+        List<Soldier> reference = createSoldiers(1234);
+        List<Soldier> candidate = createSoldiers(1234);
+        SimulationManager simManager = new SimulationManager(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
+        simManager.setThinkScheduler(scheduler);
+        RegionedWorld world = new RegionedWorld(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT, columns, rows);
+        world.setThreadCount(threads);
+        world.setThinkScheduler(scheduler);
+        for (int i = 0; i < reference.size(); i++) {
+            simManager.addUnit(reference.get(i));
+            world.addUnit(candidate.get(i));
+        }
+
+        for (int tick = 0; tick < 150; tick++) {
+            simManager.update();
+            world.update();
+        }
+
+        // Units are views that follow their slot from region to region
+        assertEquals(reference.size(), world.size());
+        for (int i = 0; i < reference.size(); i++) {
+            Soldier expected = reference.get(i);
+            Soldier actual = candidate.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(Float.floatToIntBits(expected.getX()), Float.floatToIntBits(actual.getX()));
+            assertEquals(Float.floatToIntBits(expected.getY()), Float.floatToIntBits(actual.getY()));
+            assertEquals(Float.floatToIntBits(expected.getVx()), Float.floatToIntBits(actual.getVx()));
+            assertEquals(Float.floatToIntBits(expected.getVy()), Float.floatToIntBits(actual.getVy()));
+            assertEquals(expected.getCurrentState(), actual.getCurrentState());
+        }
+    }
+
+    @Test
+    public void batchSoldiersGetIdsInBatchOrder()
+    {
+        Random random = new Random(99);
+        Color[] teams = { Color.RED, Color.BLUE, Color.GREEN };
+        SoldierBatch batch = new SoldierBatch(2000);
+        for (int i = 0; i < 2000; i++) {
+            batch.add(
+                random.nextFloat() * Constants.FIELD_WIDTH,
+                random.nextFloat() * Constants.FIELD_HEIGHT,
+                random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1, 0,
+                teams[i % teams.length], 10, random.nextLong());
+        }
+        SimulationManager simManager = new SimulationManager(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
+        simManager.setThinkScheduler(new ThinkScheduler(3, 1));
+        simManager.addSoldiers(batch);
+        RegionedWorld world = new RegionedWorld(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT, 2, 3);
+        world.setThinkScheduler(new ThinkScheduler(3, 1));
+        world.addSoldiers(batch);
+
+        for (int tick = 0; tick < 100; tick++) {
+            simManager.update();
+            world.update();
+        }
+
+        UnitStore store = simManager.getUnitStore();
+        for (int row = 0; row < world.getRows(); row++) {
+            for (int column = 0; column < world.getColumns(); column++) {
+                for (Unit actual : world.getRegion(column, row).getUnits()) {
+                    Unit expected = store.get(actual.getId());
+                    assertEquals(Float.floatToIntBits(expected.getX()), Float.floatToIntBits(actual.getX()));
+                    assertEquals(Float.floatToIntBits(expected.getY()), Float.floatToIntBits(actual.getY()));
+                }
+            }
+        }
+        assertEquals(store.size(), world.size());
+    }
+
+    @Test
+    public void unitsLiveInTheRegionContainingThem()
+    {
+        RegionedWorld world = new RegionedWorld(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT, 2, 2);
+        for (Soldier soldier : createSoldiers(5)) {
+            world.addUnit(soldier);
+        }
+        for (int tick = 0; tick < 100; tick++) {
+            world.update();
+        }
+
+        float regionWidth = Constants.FIELD_WIDTH / 2f;
+        float regionHeight = Constants.FIELD_HEIGHT / 2f;
+        for (int row = 0; row < 2; row++) {
+            for (int column = 0; column < 2; column++) {
+                SimulationManager region = world.getRegion(column, row);
+                for (Unit unit : region.getUnits()) {
+                    assertEquals(column, Math.min((int) (unit.getX() / regionWidth), 1));
+                    assertEquals(row, Math.min((int) (unit.getY() / regionHeight), 1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures composing one frame of a 1920x1080 view into a back buffer,
+ * with cached sprites, with the per-unit Graphics calls of Soldier.draw,
+ * or as the per-region density drawn when zoomed far out.
+ * The field grows with the unit count, so with the "field" layout most of a
+ * large field lies outside the view and is culled; the "packed" layout
+ * squeezes every unit into the view.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    private static final int VIEW_WIDTH = 1920;
+    private static final int VIEW_HEIGHT = 1080;
+
+    @Param({ "10000", "100000" })
+    public int unitCount;
+
+    @Param({ "sprites", "graphics", "density" })
+    public String renderer;
+
+    @Param({ "field", "packed" })
+    public String layout;
+
+    private final RenderSnapshot previous = new RenderSnapshot();
+    private final RenderSnapshot current = new RenderSnapshot();
+    private final SpriteRenderer spriteRenderer = new SpriteRenderer();
+    private BufferedImage backBuffer;
+    private int[] backPixels;
+    private Graphics2D graphics;
+    private float densityScale; // Zoom fitting the whole field into the view
+
+    @Setup
+    public void setUp() {
+        SimulationManager simManager = BenchmarkScenarios.createSimulation(
+            unitCount, BenchmarkScenarios.UNIFORM, "grid");
+        for (int tick = 0; tick < 20; tick++) {
+            simManager.update();
+        }
+        previous.capture(simManager, 20);
+        simManager.update();
+        current.capture(simManager, 21);
+        densityScale = Math.min((float) VIEW_WIDTH / simManager.getWidth(), (float) VIEW_HEIGHT / simManager.getHeight());
+        if ("packed".equals(layout)) {
+            float scaleX = (float) VIEW_WIDTH / simManager.getWidth();
+            float scaleY = (float) VIEW_HEIGHT / simManager.getHeight();
+            for (RenderSnapshot snapshot : new RenderSnapshot[] { previous, current }) {
+                for (int i = 0; i < snapshot.getCount(); i++) {
+                    snapshot.x[i] *= scaleX;
+                    snapshot.y[i] *= scaleY;
+                }
+            }
+        }
+        backBuffer = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        backPixels = ((DataBufferInt) backBuffer.getRaster().getDataBuffer()).getData();
+        graphics = backBuffer.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage frame() {
+        Arrays.fill(backPixels, Color.WHITE.getRGB());
+        if ("sprites".equals(renderer)) {
+            spriteRenderer.draw(backPixels, VIEW_WIDTH, VIEW_HEIGHT, 0, 0, VIEW_WIDTH, VIEW_HEIGHT,
+                previous, current, 0.5f, 1);
+        } else if ("density".equals(renderer)) {
+            DensityRenderer.draw(backPixels, VIEW_WIDTH, VIEW_HEIGHT, 0, 0, VIEW_WIDTH, VIEW_HEIGHT,
+                current, densityScale);
+        } else {
+            for (int i = 0; i < current.getCount(); i++) {
+                float x = previous.x[i] + (current.x[i] - previous.x[i]) * 0.5f;
+                float y = previous.y[i] + (current.y[i] - previous.y[i]) * 0.5f;
+                float angle = SpriteRenderer.interpolateAngle(previous.angleOf(i), current.angleOf(i), 0.5f);
+                Soldier.draw(graphics, x, y, angle, current.getColor(i), current.size[i], current.state[i]);
+            }
+        }
+        return backBuffer;
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.Terry113;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures replay playback from a recorded run: decoding the next frame
+ * into a render snapshot, and seeking to a random tick as when scrubbing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayBenchmark {
+    private static final int TICKS = 300;
+
+    @Param({ "10000", "100000" })
+    public int unitCount;
+
+    private File file;
+    private ReplayPlayer player;
+    private final RenderSnapshot snapshot = new RenderSnapshot();
+    private final Random random = new Random(3);
+
+    @Setup
+    public void setUp() throws IOException {
+        SimulationManager simManager = BenchmarkScenarios.createSimulation(
+            unitCount, BenchmarkScenarios.UNIFORM, "grid");
+        file = File.createTempFile("benchmark", ".replay");
+        try (ReplayRecorder recorder = new ReplayRecorder(file.toPath(), simManager)) {
+            for (int tick = 0; tick <= TICKS; tick++) {
+                if (tick > 0) {
+                    simManager.update();
+                }
+                recorder.record(simManager, tick);
+            }
+        }
+        player = new ReplayPlayer(file.toPath());
+        player.seek(0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        player.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public RenderSnapshot playFrame() throws IOException {
+        if (!player.step()) {
+            player.seek(0);
+        }
+        player.fill(snapshot, 0);
+        return snapshot;
+    }
+
+    @Benchmark
+    public RenderSnapshot seek() throws IOException {
+        player.seek(random.nextInt(TICKS + 1));
+        player.fill(snapshot, 0);
+        return snapshot;
+    }
+}
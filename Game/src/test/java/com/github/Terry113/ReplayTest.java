@@ -0,0 +1,121 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for recording and seeking binary replays.
+ */
+public class ReplayTest
+{
+    private static final int TICKS = 200;
+    private static final int KEYFRAME_INTERVAL = 50;
+    private static final float POSITION_TOLERANCE = 0.5f / ReplayFormat.POSITION_SCALE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<float[]> expectedX = new ArrayList<>();
+    private final List<float[]> expectedY = new ArrayList<>();
+    private final List<byte[]> expectedState = new ArrayList<>();
+
+    @Test
+    public void seeksMatchRecordedTicks() throws IOException
+    {
+        File file = folder.newFile("run.replay");
+        ReplayRecorder recorder = record(file);
+        recorder.close();
+
+        try (ReplayPlayer player = new ReplayPlayer(file.toPath())) {
+            assertEquals(0, player.getFirstTick());
+            assertEquals(TICKS, player.getLastTick());
+            // Forward within a segment, across segments, backward and past both ends
+            long[] targets = { 0, 10, 49, 50, 131, 199, 75, 3, 150, 151, 200, 500, -5 };
+            for (long target : targets) {
+                long tick = Math.max(0, Math.min(TICKS, target));
+                assertEquals(tick, player.seek(target));
+                check(player, tick);
+            }
+            player.seek(TICKS - 1);
+            assertTrue(player.step());
+            assertFalse(player.step());
+        }
+    }
+
+    @Test
+    public void unclosedRecordingIsScanned() throws IOException
+    {
+        File file = folder.newFile("crashed.replay");
+        ReplayRecorder recorder = record(file);
+        try (ReplayPlayer player = new ReplayPlayer(file.toPath())) {
+            assertEquals(TICKS, player.getLastTick());
+            for (long tick = 0; tick <= TICKS; tick += 37) {
+                assertEquals(tick, player.seek(tick));
+                check(player, tick);
+            }
+        }
+        recorder.close();
+    }
+
+    /**
+     * Records a simulation into a file, keeping the expected state of every tick.
+     */
+    private ReplayRecorder record(File file) throws IOException
+    {
+        Random random = new Random(9);
+        SimulationManager simManager = new SimulationManager(800, 600);
+        List<Unit> soldiers = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Soldier soldier = new Soldier(random.nextFloat() * 800, random.nextFloat() * 600, 0, 0, 0,
+                i % 2 == 0 ? Color.RED : Color.BLUE, 10, random.nextLong());
+            soldiers.add(soldier);
+            simManager.addUnit(soldier);
+        }
+
+        ReplayRecorder recorder = new ReplayRecorder(file.toPath(), 800, 600, KEYFRAME_INTERVAL);
+        for (int tick = 0; tick <= TICKS; tick++) {
+            if (tick > 0) {
+                simManager.update();
+            }
+            // Removing units in the middle of a segment forces an extra keyframe
+            if (tick == 130) {
+                for (int i = 0; i < 20; i++) {
+                    simManager.removeUnit(soldiers.get(i * 7));
+                }
+            }
+            UnitStore store = simManager.getUnitStore();
+            expectedX.add(Arrays.copyOf(store.x, store.size()));
+            expectedY.add(Arrays.copyOf(store.y, store.size()));
+            expectedState.add(Arrays.copyOf(store.state, store.size()));
+            recorder.record(simManager, tick);
+        }
+        return recorder;
+    }
+
+    private void check(ReplayPlayer player, long tick)
+    {
+        RenderSnapshot snapshot = new RenderSnapshot();
+        player.fill(snapshot, 0);
+        float[] x = expectedX.get((int) tick);
+        assertEquals(tick, snapshot.getTick());
+        assertEquals(x.length, snapshot.getCount());
+        for (int i = 0; i < x.length; i++) {
+            assertEquals(x[i], snapshot.x[i], POSITION_TOLERANCE);
+            assertEquals(expectedY.get((int) tick)[i], snapshot.y[i], POSITION_TOLERANCE);
+            assertEquals(expectedState.get((int) tick)[i], snapshot.state[i]);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for reading scenarios and spawning their units.
+ */
+public class ScenarioTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Scenario parse(String text, File base) throws IOException
+    {
+        return Scenario.parse(new StringReader(text), base.toPath(), "test");
+    }
+
+    @Test
+    public void spawnsGeneratedAndTabledUnits() throws IOException
+    {
+        File base = folder.getRoot();
+        int tabled = Scenario.BATCH_SIZE + 100; // More than one batch
+        try (UnitTableWriter writer = new UnitTableWriter(new File(base, "units.bin").toPath())) {
+            for (int i = 0; i < tabled; i++) {
+                writer.write(i % 2000, i % 1500, 1, 0, 0, i % 2, 7, i);
+            }
+        }
+
+        Scenario scenario = parse(
+            "# Two armies\n"
+            + "field 2000 1500\n"
+            + "quadtree 8 6 1.5\n"
+            + "team red FF0000\n"
+            + "team blue 0000ff\n"
+            + "\n"
+            + "unit red 10 20 1 0\n"
+            + "size 12\n"
+            + "uniform blue 500 1000 0 1000 1500\n"
+            + "cluster red 300 400 400 50\n"
+            + "table units.bin\n",
+            base);
+        SimulationManager simManager = scenario.createSimulation();
+
+        assertEquals(2000, simManager.getWidth());
+        assertEquals(1500, simManager.getHeight());
+        assertEquals(1.5f, simManager.getQuadtreeNode().getLooseness(), 0);
+        List<Unit> units = simManager.getUnits();
+        assertEquals(1 + 500 + 300 + tabled, units.size());
+        assertEquals(units.size(), simManager.getQuadtreeNode().getCount());
+
+        Unit first = units.get(0);
+        assertEquals(10, first.getX(), 0);
+        assertEquals(20, first.getY(), 0);
+        assertEquals(Color.RED, first.getColor());
+        for (int i = 1; i <= 500; i++) {
+            assertTrue(units.get(i).getX() >= 1000);
+            assertEquals(Color.BLUE, units.get(i).getColor());
+            assertEquals(12, simManager.getUnitStore().size[i]);
+        }
+        Unit last = units.get(units.size() - 1);
+        assertEquals((tabled - 1) % 2000, last.getX(), 0);
+        assertEquals((tabled - 1) % 1500, last.getY(), 0);
+        assertEquals(Color.BLUE, last.getColor());
+        assertEquals(7, simManager.getUnitStore().size[units.size() - 1]);
+
+        // The same scenario spawns the same units
+        SimulationManager again = scenario.createSimulation();
+        for (int i = 0; i < units.size(); i++) {
+            assertEquals(units.get(i).getX(), again.getUnits().get(i).getX(), 0);
+            assertEquals(units.get(i).getY(), again.getUnits().get(i).getY(), 0);
+        }
+        simManager.update();
+    }
+
+    @Test
+    public void reportsTheLineOfAnError() throws IOException
+    {
+        try {
+            parse("field 800 600\nteam red FF0000\nuniform green 10\n", folder.getRoot());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("test:3: Unknown team: green", e.getMessage());
+        }
+        try {
+            parse("grid\nquadtree 8\n", folder.getRoot());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("test:2: "));
+        }
+    }
+}
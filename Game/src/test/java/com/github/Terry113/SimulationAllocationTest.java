@@ -0,0 +1,118 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.Color;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the simulation tick does not allocate once it has warmed up,
+ * both when the quadtree is refreshed unit by unit and when so many units
+ * change node that it is rebuilt instead.
+ */
+public class SimulationAllocationTest 
+{
+    private static final int WARMUP_TICKS = 2000;
+    private static final int MEASURED_TICKS = 200;
+    private static final int WINDOWS = 5;
+
+    private interface Tick
+    {
+        void run(int tick);
+    }
+
+    /**
+     * Runs the ticks to warm up, then measures windows of MEASURED_TICKS
+     * ticks. When the JIT recompiles a method, deoptimizing it can allocate
+     * a few hundred bytes on the ticking thread now and then, while
+     * anything the tick itself allocates shows up in every window, so the
+     * quietest of a few windows is what counts.
+     *
+     * @return Fewest bytes allocated by the current thread in one window
+     */
+    private static long measure(int warmupTicks, Tick tick)
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        int ticks = 0;
+        for (; ticks < warmupTicks; ticks++) {
+            tick.run(ticks);
+        }
+
+        // Account for whatever the measurement call itself allocates
+        long probeStart = threads.getThreadAllocatedBytes(threadId);
+        long probeCost = threads.getThreadAllocatedBytes(threadId) - probeStart;
+
+        long fewest = Long.MAX_VALUE;
+        for (int window = 0; window < WINDOWS && fewest > 0; window++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_TICKS; i++) {
+                tick.run(ticks++);
+            }
+            fewest = Math.min(fewest, threads.getThreadAllocatedBytes(threadId) - before - probeCost);
+        }
+        return fewest;
+    }
+
+    @Test
+    public void steadyStateTickDoesNotAllocate()
+    {
+        Random random = new Random(11);
+        Color[] teams = { Color.RED, Color.BLUE, Color.GREEN };
+        SimulationManager simManager = new SimulationManager(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
+        for (int i = 0; i < 500; i++) {
+            simManager.addUnit(new Soldier(
+                random.nextFloat() * Constants.FIELD_WIDTH,
+                random.nextFloat() * Constants.FIELD_HEIGHT,
+                0, 0, 0, teams[i % teams.length], 10));
+        }
+
+        long allocated = measure(WARMUP_TICKS, tick -> simManager.update());
+        assertEquals("allocated bytes over " + MEASURED_TICKS + " ticks", 0, allocated);
+    }
+
+    @Test
+    public void quadtreeRebuildDoesNotAllocate()
+    {
+        Random random = new Random(13);
+        Color[] teams = { Color.RED, Color.BLUE, Color.GREEN };
+        int n = 500;
+        UnitStore store = new UnitStore(n);
+        for (int i = 0; i < n; i++) {
+            store.adopt(new Soldier(
+                random.nextFloat() * Constants.FIELD_WIDTH,
+                random.nextFloat() * Constants.FIELD_HEIGHT,
+                0, 0, 0, teams[i % teams.length], 10));
+        }
+        QuadtreeNode tree = new QuadtreeNode(0, 0, Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
+        List<Unit> units = store.asList();
+        tree.rebuild(units);
+        float[] oldX = new float[n];
+        float[] oldY = new float[n];
+
+        // Mirroring every unit through the center moves far more units to
+        // another node than QUADTREE_REBUILD_THRESHOLD allows, so each
+        // refresh falls back to a full rebuild
+        long allocated = measure(50, tick -> {
+            for (int i = 0; i < n; i++) {
+                oldX[i] = store.x[i];
+                oldY[i] = store.y[i];
+                store.x[i] = Constants.FIELD_WIDTH - store.x[i];
+                store.y[i] = Constants.FIELD_HEIGHT - store.y[i];
+            }
+            tree.refresh(units, oldX, oldY);
+        });
+        assertEquals("allocated bytes over " + MEASURED_TICKS + " rebuilds", 0, allocated);
+        assertEquals(n, tree.getCount());
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.Terry113;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of a full simulation tick as the unit count grows, for
+ * uniform and clustered crowds. Pass -p threads=N to tick on a worker pool
+ * and -p interactions=pairs to sense with the pairwise pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationTickBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    public int unitCount;
+
+    @Param({ BenchmarkScenarios.UNIFORM, BenchmarkScenarios.CLUSTERED })
+    public String distribution;
+
+    @Param({ "quadtree", "loose", "grid" })
+    public String index;
+
+    @Param({ "1" })
+    public int threads;
+
+    @Param({ "queries" })
+    public String interactions;
+
+    private SimulationManager simManager;
+
+    @Setup
+    public void setUp() {
+        simManager = BenchmarkScenarios.createSimulation(unitCount, distribution, index);
+        simManager.setThreadCount(threads);
+        simManager.setPairwiseInteractions(interactions.equals("pairs"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        simManager.setThreadCount(1);
+    }
+
+    @Benchmark
+    public SimulationManager tick() {
+        simManager.update();
+        return simManager;
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the snapshot handoff between the simulation and painting threads.
+ */
+public class SnapshotExchangeTest
+{
+    private static final int TICKS = 20000;
+
+    @Test
+    public void readerNeverSeesSnapshotBeingWritten() throws Exception
+    {
+        final SimulationManager simManager = new SimulationManager(800, 600);
+        for (int i = 0; i < 300; i++) {
+            simManager.addUnit(new Soldier(i, i, 0, 0, 0, Color.RED, 10));
+        }
+        final SnapshotExchange exchange = new SnapshotExchange();
+
+        // The writer stamps every unit with the tick, so a torn or reused snapshot shows mixed values
+        Thread writer = new Thread(() -> {
+            List<Unit> units = simManager.getUnits();
+            for (int tick = 0; tick < TICKS; tick++) {
+                for (Unit unit : units) {
+                    unit.setX(tick);
+                }
+                exchange.getBack().capture(simManager, tick);
+                exchange.publish();
+            }
+        });
+        writer.start();
+
+        long lastTick = -1;
+        int acquired = 0;
+        while (lastTick < TICKS - 1) {
+            if (!exchange.acquire()) {
+                Thread.yield();
+                continue;
+            }
+            RenderSnapshot current = exchange.getCurrent();
+            assertTrue(current.getTick() > lastTick);
+            assertTrue(exchange.getPrevious().getTick() < current.getTick());
+            lastTick = current.getTick();
+            acquired++;
+            // Check twice, so writes racing with the first pass would be caught by the second
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < current.getCount(); i++) {
+                    assertEquals(lastTick, (long) current.x[i]);
+                }
+            }
+        }
+        writer.join();
+        assertTrue(acquired > 0);
+        assertEquals(300, exchange.getCurrent().getCount());
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a soldier's decision over neighbor lists of different sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoldierBenchmark {
+    @Param({ "1", "8", "64", "512" })
+    public int neighborCount;
+
+    private Soldier soldier;
+    private final List<Unit> neighbors = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(5);
+        soldier = new Soldier(400, 300, 0, 0, 0, Color.RED, 10, 1);
+        for (int i = 0; i < neighborCount; i++) {
+            neighbors.add(new Soldier(
+                350 + random.nextFloat() * 100, 250 + random.nextFloat() * 100, 0, 0, 0,
+                i % 2 == 0 ? Color.RED : Color.BLUE, 10, i));
+        }
+    }
+
+    @Benchmark
+    public Soldier.State handleNearbyUnits() {
+        soldier.handleNearbyUnits(neighbors);
+        return soldier.getCurrentState();
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.Terry113;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the quadtree, the loose quadtree and the uniform grid on per-tick
+ * maintenance and on one detection-radius query per unit, for evenly spread
+ * units.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIndexBenchmark {
+    @Param({ "quadtree", "loose", "grid" })
+    public String index;
+
+    @Param({ "1000", "10000" })
+    public int unitCount;
+
+    private SpatialIndex spatialIndex;
+    private List<Unit> units;
+    private float[] oldX, oldY, stepX, stepY;
+    private final List<Unit> found = new ArrayList<>();
+    private final NeighborSearch search = new NeighborSearch(1);
+    private int direction = 1;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int width = Constants.FIELD_WIDTH;
+        int height = Constants.FIELD_HEIGHT;
+        if ("grid".equals(index)) {
+            spatialIndex = new UniformGrid(width, height);
+        } else if ("loose".equals(index)) {
+            spatialIndex = new QuadtreeNode(0, 0, width, height, BenchmarkScenarios.LOOSENESS);
+        } else {
+            spatialIndex = new QuadtreeNode(0, 0, width, height);
+        }
+        units = new ArrayList<>();
+        oldX = new float[unitCount];
+        oldY = new float[unitCount];
+        stepX = new float[unitCount];
+        stepY = new float[unitCount];
+        for (int i = 0; i < unitCount; i++) {
+            // Keep a margin so back-and-forth steps never leave the field
+            Soldier soldier = new Soldier(
+                2 + random.nextFloat() * (width - 4), 2 + random.nextFloat() * (height - 4),
+                0, 0, 0, Color.RED, 10, i);
+            units.add(soldier);
+            stepX[i] = random.nextFloat() * 4 - 2;
+            stepY[i] = random.nextFloat() * 4 - 2;
+        }
+        spatialIndex.rebuild(units);
+    }
+
+    /**
+     * Moves every unit by up to two pixels and updates the index.
+     */
+    @Benchmark
+    public SpatialIndex maintain() {
+        for (int i = 0; i < unitCount; i++) {
+            Unit unit = units.get(i);
+            oldX[i] = unit.getX();
+            oldY[i] = unit.getY();
+            unit.setX(oldX[i] + stepX[i] * direction);
+            unit.setY(oldY[i] + stepY[i] * direction);
+        }
+        direction = -direction;
+        spatialIndex.refresh(units, oldX, oldY);
+        return spatialIndex;
+    }
+
+    /**
+     * Runs one detection-radius query around every unit.
+     */
+    @Benchmark
+    public int queryAll() {
+        int total = 0;
+        for (int i = 0; i < unitCount; i++) {
+            Unit unit = units.get(i);
+            found.clear();
+            spatialIndex.query(
+                unit.getX() - Constants.DETECTION_RADIUS, unit.getY() - Constants.DETECTION_RADIUS,
+                unit.getX() + Constants.DETECTION_RADIUS, unit.getY() + Constants.DETECTION_RADIUS,
+                unit, found);
+            total += found.size();
+        }
+        return total;
+    }
+
+    /**
+     * Finds the nearest unit within detection radius of every unit.
+     */
+    @Benchmark
+    public int nearestAll() {
+        int total = 0;
+        for (int i = 0; i < unitCount; i++) {
+            Unit unit = units.get(i);
+            spatialIndex.nearest(unit.getX(), unit.getY(), Constants.DETECTION_RADIUS, unit, search);
+            total += search.size();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.Terry113;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures populating an empty simulation, either by constructing soldiers
+ * and adding them one by one or by spawning them as one batch with a bulk
+ * index build. The soldier layout is generated once, outside the timing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpawnBenchmark {
+    @Param({ "10000", "100000" })
+    public int unitCount;
+
+    @Param({ "quadtree", "grid" })
+    public String index;
+
+    @Param({ BenchmarkScenarios.UNIFORM, BenchmarkScenarios.CLUSTERED })
+    public String distribution;
+
+    private SoldierBatch batch;
+
+    @Setup
+    public void setUp() {
+        batch = BenchmarkScenarios.createBatch(unitCount, distribution, 42);
+    }
+
+    @Benchmark
+    public SimulationManager addEach() {
+        int size = BenchmarkScenarios.fieldSize(unitCount);
+        SimulationManager simManager = new SimulationManager(size, size,
+            BenchmarkScenarios.createIndex(index, unitCount));
+        for (int i = 0; i < unitCount; i++) {
+            simManager.addUnit(new Soldier(batch.x[i], batch.y[i], batch.vx[i], batch.vy[i], batch.angle[i],
+                UnitStore.teamColor(batch.team[i]), batch.size[i], i));
+        }
+        return simManager;
+    }
+
+    @Benchmark
+    public SimulationManager spawnBatch() {
+        int size = BenchmarkScenarios.fieldSize(unitCount);
+        SimulationManager simManager = new SimulationManager(size, size,
+            BenchmarkScenarios.createIndex(index, unitCount));
+        simManager.addSoldiers(batch);
+        return simManager;
+    }
+}
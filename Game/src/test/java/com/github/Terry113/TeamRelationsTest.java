@@ -0,0 +1,129 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for team relations and nearest queries restricted to some teams.
+ */
+public class TeamRelationsTest
+{
+    private static final Color[] COLORS = { Color.RED, Color.BLUE, Color.GREEN, Color.ORANGE };
+
+    @Test
+    public void relationsAreSymmetricWithDefaults()
+    {
+        TeamRelations relations = new TeamRelations();
+        assertEquals(-1L, relations.reactingTo(3));
+        relations.set(1, 2, TeamRelations.Relation.NEUTRAL);
+        assertEquals(TeamRelations.Relation.NEUTRAL, relations.get(2, 1));
+        assertEquals(TeamRelations.Relation.ALLY, relations.get(1, 1));
+        assertEquals(TeamRelations.Relation.ENEMY, relations.get(1, 5));
+        assertEquals(TeamRelations.teamBit(1), relations.alliesOf(1));
+        assertEquals(0, relations.reactingTo(1) & TeamRelations.teamBit(2));
+        assertEquals(TeamRelations.teamBit(5), relations.enemiesOf(1) & TeamRelations.teamBit(5));
+    }
+
+    @Test
+    public void quadtreeMaskedNearestMatchesBruteForce()
+    {
+        List<Unit> units = createUnits();
+        QuadtreeNode tree = new QuadtreeNode(0, 0, 800, 600);
+        for (Unit unit : units) {
+            tree.insert(unit);
+        }
+        checkMaskedNearest(tree, units);
+
+        // Masks must follow removals, including whole teams leaving a subtree
+        for (int i = units.size() - 1; i >= 0; i--) {
+            if (i % 3 == 0 || units.get(i).getColor().equals(Color.GREEN)) {
+                tree.remove(units.remove(i));
+            }
+        }
+        checkMaskedNearest(tree, units);
+
+        tree.rebuild(units);
+        checkMaskedNearest(tree, units);
+    }
+
+    @Test
+    public void gridMaskedNearestMatchesBruteForce()
+    {
+        List<Unit> units = createUnits();
+        UniformGrid grid = new UniformGrid(800, 600);
+        grid.rebuild(units);
+        checkMaskedNearest(grid, units);
+    }
+
+    @Test
+    public void neutralUnitsAreIgnored()
+    {
+        SimulationManager simManager = new SimulationManager(800, 600);
+        Soldier red = new Soldier(400, 300, 0, 0, 0, Color.RED, 10);
+        Soldier blue = new Soldier(410, 300, 0, 0, 0, Color.BLUE, 10);
+        simManager.addUnit(red);
+        simManager.addUnit(blue);
+        assertSame(blue, simManager.nearestEnemy(red, 50));
+        assertNull(simManager.nearestAlly(red, 50));
+
+        simManager.getTeamRelations().set(red.getTeam(), blue.getTeam(), TeamRelations.Relation.NEUTRAL);
+        assertNull(simManager.nearestEnemy(red, 50));
+        simManager.update();
+        assertNotEquals(Soldier.State.FLEEING, red.getCurrentState());
+        assertNotEquals(Soldier.State.FLEEING, blue.getCurrentState());
+
+        simManager.getTeamRelations().set(red.getTeam(), blue.getTeam(), TeamRelations.Relation.ALLY);
+        assertSame(blue, simManager.nearestAlly(red, 50));
+        simManager.update();
+        assertEquals(Soldier.State.CHASING, red.getCurrentState());
+    }
+
+    private static List<Unit> createUnits()
+    {
+        Random random = new Random(9);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            // Teams clustered by region, so many subtrees and cells hold only some teams
+            int team = random.nextInt(COLORS.length);
+            float x = (team % 2) * 400 + random.nextFloat() * 400;
+            float y = (team / 2) * 300 + random.nextFloat() * 300;
+            units.add(new Soldier(x, y, 0, 0, 0, COLORS[team], 10));
+        }
+        return units;
+    }
+
+    private static void checkMaskedNearest(SpatialIndex index, List<Unit> units)
+    {
+        NeighborSearch search = new NeighborSearch(3);
+        Random random = new Random(3);
+        for (Unit center : units) {
+            long teams = TeamRelations.teamBit(UnitStore.teamOf(COLORS[random.nextInt(COLORS.length)]));
+            float radius = 200;
+            index.nearest(center.getX(), center.getY(), radius, center, teams, search);
+
+            List<Float> expected = new ArrayList<>();
+            for (Unit other : units) {
+                float distance = Util.getDistanceSquared(other.getX(), other.getY(), center.getX(), center.getY());
+                if (other != center && distance <= radius * radius
+                        && (TeamRelations.teamBit(other.getTeam()) & teams) != 0) {
+                    expected.add(distance);
+                }
+            }
+            expected.sort(null);
+            assertEquals(Math.min(3, expected.size()), search.size());
+            for (int i = 0; i < search.size(); i++) {
+                assertEquals(expected.get(i), search.getDistanceSquared(i), 0f);
+                assertEquals(0, ~teams & TeamRelations.teamBit(search.get(i).getTeam()));
+            }
+        }
+    }
+}
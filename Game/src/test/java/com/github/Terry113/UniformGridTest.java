@@ -0,0 +1,97 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the uniform grid spatial index.
+ */
+public class UniformGridTest 
+{
+    @Test
+    public void queryMatchesBruteForce()
+    {
+        Random random = new Random(3);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            // Include units on and beyond the far edges, which are clamped into border cells
+            units.add(new Soldier(random.nextFloat() * 820 - 10, random.nextFloat() * 620 - 10, 0, 0, 0, Color.RED, 10));
+        }
+        UniformGrid grid = new UniformGrid(800, 600);
+        grid.rebuild(units);
+
+        List<Unit> found = new ArrayList<>();
+        for (Unit center : units) {
+            float minX = center.getX() - 50, maxX = center.getX() + 50;
+            float minY = center.getY() - 50, maxY = center.getY() + 50;
+            found.clear();
+            grid.query(minX, minY, maxX, maxY, center, found);
+
+            HashSet<Unit> expected = new HashSet<>();
+            for (Unit other : units) {
+                if (other != center && other.getX() >= minX && other.getX() < maxX
+                        && other.getY() >= minY && other.getY() < maxY) {
+                    expected.add(other);
+                }
+            }
+            assertEquals(expected, new HashSet<>(found));
+        }
+    }
+
+    @Test
+    public void regionsCountUnitsPerTeam()
+    {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            units.add(new Soldier(10 + i, 10, 0, 0, 0, Color.RED, 10));
+        }
+        units.add(new Soldier(20, 20, 0, 0, 0, Color.BLUE, 10));
+        units.add(new Soldier(120, 20, 0, 0, 0, Color.BLUE, 10));
+        UniformGrid grid = new UniformGrid(0, 0, 200, 100, 50);
+        grid.rebuild(units);
+
+        // Empty cells are left out, so only the two occupied cells come back
+        float[] bounds = new float[8];
+        int[] counts = new int[2];
+        int[] teams = new int[2];
+        assertEquals(2, grid.exportRegions(bounds, counts, teams));
+        assertEquals(0, bounds[0], 0);
+        assertEquals(4, counts[0]);
+        assertEquals(UnitStore.teamOf(Color.RED), teams[0]);
+        assertEquals(100, bounds[4], 0);
+        assertEquals(50, bounds[6], 0);
+        assertEquals(1, counts[1]);
+        assertEquals(UnitStore.teamOf(Color.BLUE), teams[1]);
+    }
+
+    @Test
+    public void removedUnitsAreNoLongerFound()
+    {
+        UnitStore store = new UnitStore(8);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Soldier soldier = new Soldier(10 + i, 10, 0, 0, 0, Color.RED, 10);
+            store.adopt(soldier);
+            units.add(soldier);
+        }
+        UniformGrid grid = new UniformGrid(800, 600);
+        grid.rebuild(store.asList());
+
+        // Remove the first unit, so the last one fills its place in the grid
+        assertEquals(true, grid.remove(units.get(0), 10, 10));
+        assertEquals(false, grid.remove(units.get(0), 10, 10));
+        assertEquals(true, grid.remove(units.get(5), 15, 10));
+        assertEquals(4, grid.getCount());
+
+        List<Unit> found = new ArrayList<>();
+        grid.queryRadius(12, 10, 50, null, found);
+        assertEquals(new HashSet<>(units.subList(1, 5)), new HashSet<>(found));
+    }
+}
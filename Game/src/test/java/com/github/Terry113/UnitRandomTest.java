@@ -0,0 +1,48 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the counter-based unit random streams.
+ */
+public class UnitRandomTest
+{
+    @Test
+    public void numbersDependOnlyOnStreamTickAndDraw()
+    {
+        long key = UnitRandom.stream(42);
+        assertEquals(key, UnitRandom.stream(42));
+        float first = UnitRandom.nextFloat(key, 7, 3);
+        // Drawing other numbers in between changes nothing
+        for (int draw = 0; draw < UnitRandom.DRAWS_PER_TICK; draw++) {
+            UnitRandom.nextFloat(key, 8, draw);
+        }
+        assertEquals(first, UnitRandom.nextFloat(key, 7, 3), 0);
+        assertNotEquals(first, UnitRandom.nextFloat(key, 7, 4), 0);
+        assertNotEquals(first, UnitRandom.nextFloat(key, 8, 3), 0);
+        assertNotEquals(first, UnitRandom.nextFloat(UnitRandom.stream(43), 7, 3), 0);
+    }
+
+    @Test
+    public void numbersAreUniformWithinBounds()
+    {
+        int[] buckets = new int[10];
+        int samples = 100000;
+        for (int i = 0; i < samples; i++) {
+            long key = UnitRandom.stream(i % 100);
+            long tick = i / 100;
+            float f = UnitRandom.nextFloat(key, tick, 0);
+            assertTrue(f >= 0 && f < 1);
+            int n = UnitRandom.nextInt(key, tick, 1, 600);
+            assertTrue(n >= 0 && n < 600);
+            buckets[n / 60]++;
+        }
+        for (int count : buckets) {
+            assertTrue("Bucket count " + count, Math.abs(count - samples / 10) < samples / 100);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.Terry113;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+
+import org.junit.Test;
+
+/**
+ * Tests for the structure-of-arrays unit store.
+ */
+public class UnitStoreTest 
+{
+    @Test
+    public void removeCompactsAndKeepsIdsStable()
+    {
+        SimulationManager simManager = new SimulationManager(800, 600);
+        Soldier[] soldiers = new Soldier[5];
+        int[] ids = new int[soldiers.length];
+        for (int i = 0; i < soldiers.length; i++) {
+            soldiers[i] = new Soldier(100 + i * 50, 100, 0, 0, 0, Color.BLUE, 10);
+            simManager.addUnit(soldiers[i]);
+            ids[i] = soldiers[i].getId();
+        }
+        UnitStore store = simManager.getUnitStore();
+
+        assertTrue(simManager.removeUnit(soldiers[1]));
+        assertFalse(simManager.removeUnit(soldiers[1]));
+        assertEquals(4, store.size());
+        assertNull(store.get(ids[1]));
+
+        // The last unit filled the gap but kept its id and state
+        assertSame(soldiers[4], simManager.getUnits().get(1));
+        assertSame(soldiers[4], store.get(ids[4]));
+        assertEquals(ids[4], soldiers[4].getId());
+        assertEquals(300f, soldiers[4].getX(), 0f);
+
+        // The removed unit still works on its own
+        assertEquals(150f, soldiers[1].getX(), 0f);
+        assertEquals(Color.BLUE, soldiers[1].getColor());
+    }
+
+    @Test
+    public void batchSpawnMatchesSoldiersAddedOneByOne()
+    {
+        SimulationManager added = new SimulationManager(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
+        SimulationManager spawned = new SimulationManager(Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
+        Color[] teams = { Color.RED, Color.BLUE };
+        SoldierBatch batch = new SoldierBatch(1);
+        for (int i = 0; i < 500; i++) {
+            float x = (i * 37) % Constants.FIELD_WIDTH;
+            float y = (i * 53) % Constants.FIELD_HEIGHT;
+            added.addUnit(new Soldier(x, y, 1, 0, 0, teams[i % 2], 10, i));
+            batch.add(x, y, 1, 0, 0, teams[i % 2], 10, i);
+        }
+        spawned.addSoldiers(batch);
+        assertEquals(500, spawned.getUnits().size());
+        assertTrue(spawned.getUnits().get(499) instanceof Soldier);
+        assertEquals(499, spawned.getUnits().get(499).getId());
+
+        // Identical state means identical runs
+        for (int tick = 0; tick < 30; tick++) {
+            added.update();
+            spawned.update();
+        }
+        for (int i = 0; i < 500; i++) {
+            Unit expected = added.getUnits().get(i);
+            Unit actual = spawned.getUnits().get(i);
+            assertEquals(expected.getX(), actual.getX(), 0f);
+            assertEquals(expected.getY(), actual.getY(), 0f);
+            assertEquals(expected.getColor(), actual.getColor());
+            assertEquals(((Soldier) expected).getCurrentState(), ((Soldier) actual).getCurrentState());
+        }
+    }
+}